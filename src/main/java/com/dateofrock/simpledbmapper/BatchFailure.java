@@ -0,0 +1,58 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+/**
+ * バッチ処理で失敗したオブジェクトと、その原因です。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class BatchFailure<T> {
+
+	private final T object;
+	private final String itemName;
+	private final Exception cause;
+
+	public BatchFailure(T object, String itemName, Exception cause) {
+		this.object = object;
+		this.itemName = itemName;
+		this.cause = cause;
+	}
+
+	/**
+	 * @return 処理に失敗したオブジェクト
+	 */
+	public T getObject() {
+		return this.object;
+	}
+
+	/**
+	 * @return SimpleDBのitemName。itemNameの変換自体に失敗した場合はnull
+	 */
+	public String getItemName() {
+		return this.itemName;
+	}
+
+	public Exception getCause() {
+		return this.cause;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchFailure [itemName=" + this.itemName + ", cause=" + this.cause + "]";
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SimpleDBMapper#batchLoad(Class, java.util.Collection)}の結果です。
+ * 
+ * @param <I>
+ *            itemNameの型
+ * @param <T>
+ *            POJOの型
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class BatchLoadResult<I, T> {
+
+	private final Map<I, T> items;
+	private final List<I> notFound;
+	private final List<BatchFailure<I>> failures;
+
+	BatchLoadResult(Map<I, T> items, List<I> notFound, List<BatchFailure<I>> failures) {
+		this.items = Collections.unmodifiableMap(items);
+		this.notFound = Collections.unmodifiableList(notFound);
+		this.failures = Collections.unmodifiableList(failures);
+	}
+
+	/**
+	 * @return 見つかったPOJO。キーは指定したitemNameで、指定した順番に並んでいます
+	 */
+	public Map<I, T> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * @return 見つからなかったitemName。すべて見つかった場合は空のList
+	 */
+	public List<I> getNotFound() {
+		return this.notFound;
+	}
+
+	/**
+	 * @return 取得に失敗したitemName。すべて成功した場合は空のList
+	 */
+	public List<BatchFailure<I>> getFailures() {
+		return this.failures;
+	}
+
+}
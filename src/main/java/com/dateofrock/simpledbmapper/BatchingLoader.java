@@ -0,0 +1,225 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数のスレッドから同時に呼ばれたloadをまとめて、{@link SimpleDBMapper#batchLoad(Class, java.util.Collection)}で取得します。
+ * {@link SimpleDBMapper#batchingLoader(Class, long, TimeUnit, int)}で作ります。
+ * 
+ * 最初のloadから指定した時間が経つか、指定した件数が集まった時点で、まとめて{@code itemName() in (...)}のselectを投げます。
+ * 取得中のitemNameをもう一度loadした場合は、同じ{@link Future}を返します。アイテムが見つからなかった場合、{@link Future#get()}は
+ * {@link SimpleDBMapperNotFoundException}を原因とする{@link java.util.concurrent.ExecutionException}をスローします。
+ * 
+ * {@link ScanHandler}の中など、SimpleDBのスレッドプールのスレッドから呼んだ場合は、まとめずにそのスレッドですぐに取得します。
+ * 
+ * <pre>
+ * BatchingLoader&lt;Long, Book&gt; loader = mapper.batchingLoader(Book.class, 5, TimeUnit.MILLISECONDS, 20);
+ * Future&lt;Book&gt; future = loader.load(123L);
+ * Book book = future.get();
+ * </pre>
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class BatchingLoader<I, T> implements Closeable {
+
+	private final SimpleDBMapper mapper;
+	private final Class<T> clazz;
+	private final long windowNanos;
+	private final int maxBatchSize;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Object lock = new Object();
+	private final Map<I, LoadFuture<T>> inFlight = new HashMap<I, LoadFuture<T>>();
+	private Map<I, LoadFuture<T>> pending = new LinkedHashMap<I, LoadFuture<T>>();
+	private boolean closed;
+
+	BatchingLoader(SimpleDBMapper mapper, Class<T> clazz, long window, TimeUnit unit, int maxBatchSize, int poolSize) {
+		this.mapper = mapper;
+		this.clazz = clazz;
+		this.windowNanos = unit.toNanos(window);
+		this.maxBatchSize = maxBatchSize;
+		this.executor = new ScheduledThreadPoolExecutor(Math.max(1, poolSize),
+				new SimpleDBMapper.MapperThreadFactory("loader"));
+	}
+
+	/**
+	 * itemNameを指定してloadを予約します。
+	 * 
+	 * @param itemName
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @return 取得したPOJOを受け取る{@link Future}
+	 */
+	public Future<T> load(I itemName) {
+		Map<I, LoadFuture<T>> batch = null;
+		LoadFuture<T> future;
+		boolean inline = this.mapper.isInSimpleDBTask();
+		synchronized (this.lock) {
+			if (this.closed) {
+				throw new SimpleDBMapperException("BatchingLoaderはすでにcloseされています");
+			}
+			if (inline) {
+				// 他のスレッドでの取得を待つと、スレッドプールの空きを待ち合ってデッドロックするので、このスレッドで取得する
+				future = new LoadFuture<T>();
+				batch = new LinkedHashMap<I, LoadFuture<T>>();
+				batch.put(itemName, future);
+			} else {
+				future = this.inFlight.get(itemName);
+				if (future != null) {
+					return future;
+				}
+				future = new LoadFuture<T>();
+				this.inFlight.put(itemName, future);
+				this.pending.put(itemName, future);
+				if (this.pending.size() >= this.maxBatchSize) {
+					batch = takePending();
+				} else if (this.pending.size() == 1) {
+					this.executor.schedule(new Flusher(this.pending), this.windowNanos, TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+		if (inline) {
+			loadBatch(batch);
+		} else if (batch != null) {
+			final Map<I, LoadFuture<T>> fullBatch = batch;
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					loadBatch(fullBatch);
+				}
+			});
+		}
+		return future;
+	}
+
+	/**
+	 * 待っているloadを、時間を待たずに呼び出したスレッドで取得します。
+	 */
+	public void flush() {
+		Map<I, LoadFuture<T>> batch;
+		synchronized (this.lock) {
+			batch = takePending();
+		}
+		loadBatch(batch);
+	}
+
+	/**
+	 * 待っているloadを取得してから、スレッドプールを終了します。
+	 */
+	@Override
+	public void close() {
+		synchronized (this.lock) {
+			this.closed = true;
+		}
+		flush();
+		this.executor.shutdown();
+	}
+
+	private Map<I, LoadFuture<T>> takePending() {
+		Map<I, LoadFuture<T>> batch = this.pending;
+		this.pending = new LinkedHashMap<I, LoadFuture<T>>();
+		return batch;
+	}
+
+	private void loadBatch(Map<I, LoadFuture<T>> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			BatchLoadResult<I, T> result = this.mapper.batchLoad(this.clazz, batch.keySet());
+			for (Map.Entry<I, T> entry : result.getItems().entrySet()) {
+				batch.get(entry.getKey()).complete(entry.getValue());
+			}
+			for (I itemName : result.getNotFound()) {
+				batch.get(itemName).fail(new SimpleDBMapperNotFoundException("見つかりません。class=" + this.clazz.getName()
+						+ ", itemName=" + itemName));
+			}
+			for (BatchFailure<I> failure : result.getFailures()) {
+				batch.get(failure.getObject()).fail(failure.getCause());
+			}
+		} catch (RuntimeException e) {
+			for (LoadFuture<T> future : batch.values()) {
+				future.fail(e);
+			}
+		} finally {
+			synchronized (this.lock) {
+				for (Map.Entry<I, LoadFuture<T>> entry : batch.entrySet()) {
+					if (this.inFlight.get(entry.getKey()) == entry.getValue()) {
+						this.inFlight.remove(entry.getKey());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 時間が経ったときに、まだ送信されていなければバッチを取得します。
+	 */
+	private class Flusher implements Runnable {
+		private final Map<I, LoadFuture<T>> scheduled;
+
+		Flusher(Map<I, LoadFuture<T>> scheduled) {
+			this.scheduled = scheduled;
+		}
+
+		@Override
+		public void run() {
+			Map<I, LoadFuture<T>> batch;
+			synchronized (BatchingLoader.this.lock) {
+				if (BatchingLoader.this.pending != this.scheduled) {
+					// 件数が集まってすでに送信された
+					return;
+				}
+				batch = takePending();
+			}
+			loadBatch(batch);
+		}
+	}
+
+	/**
+	 * 外から結果をセットできる{@link Future}です。すでに結果がある場合は何もしません。
+	 */
+	private static class LoadFuture<T> extends FutureTask<T> {
+		private static final Callable<Object> NOOP = new Callable<Object>() {
+			@Override
+			public Object call() {
+				return null;
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		LoadFuture() {
+			super((Callable<T>) NOOP);
+		}
+
+		void complete(T value) {
+			set(value);
+		}
+
+		void fail(Throwable cause) {
+			setException(cause);
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.accessor.Instantiator;
+import com.dateofrock.simpledbmapper.codec.TypeCodec;
+
+/**
+ * {@link SimpleDBDomain}がついたクラスのメタデータです。
+ *
+ * クラスごとに一度だけ{@link Reflector}によって、アノテーションもしくは生成された
+ * {@link com.dateofrock.simpledbmapper.accessor.EntityMapping}から作られ、キャッシュされます。不変オブジェクトなので、複数スレッドから共有できます。
+ *
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+final class EntityMetadata {
+
+	private final Class<?> entityClass;
+	private final String domainName;
+	private final String s3BucketName;
+	private final String s3KeyPrefix;
+	private final Field itemNameField;
+	private final FieldAccessor itemNameAccessor;
+	private final TypeCodec<Object> itemNameCodec;
+	private final Instantiator<?> instantiator;
+	private final PropertyMetadata versionProperty;
+	private final List<PropertyMetadata> attributeProperties;
+	private final List<PropertyMetadata> blobProperties;
+	private final Map<String, PropertyMetadata> propertiesByAttributeName;
+
+	EntityMetadata(Class<?> entityClass, String domainName, String s3BucketName, String s3KeyPrefix,
+			Instantiator<?> instantiator, Field itemNameField, FieldAccessor itemNameAccessor,
+			TypeCodec<Object> itemNameCodec, List<PropertyMetadata> properties) {
+		this.entityClass = entityClass;
+		this.domainName = domainName;
+		this.s3BucketName = s3BucketName;
+		this.s3KeyPrefix = s3KeyPrefix;
+		this.itemNameField = itemNameField;
+		this.itemNameAccessor = itemNameAccessor;
+		this.itemNameCodec = itemNameCodec;
+		this.instantiator = instantiator;
+
+		PropertyMetadata version = null;
+		List<PropertyMetadata> attributes = new ArrayList<PropertyMetadata>();
+		List<PropertyMetadata> blobs = new ArrayList<PropertyMetadata>();
+		Map<String, PropertyMetadata> byName = new HashMap<String, PropertyMetadata>();
+		for (PropertyMetadata property : properties) {
+			if (byName.containsKey(property.getAttributeName())) {
+				// サブクラスで同名のattributeが定義されている場合はサブクラスを優先する
+				continue;
+			}
+			byName.put(property.getAttributeName(), property);
+			if (property.isAttribute()) {
+				attributes.add(property);
+			} else if (property.isBlob()) {
+				blobs.add(property);
+			} else if (property.isVersion() && version == null) {
+				version = property;
+			}
+		}
+		this.versionProperty = version;
+		this.attributeProperties = Collections.unmodifiableList(attributes);
+		this.blobProperties = Collections.unmodifiableList(blobs);
+		this.propertiesByAttributeName = Collections.unmodifiableMap(byName);
+	}
+
+	Class<?> getEntityClass() {
+		return this.entityClass;
+	}
+
+	String getDomainName() {
+		return this.domainName;
+	}
+
+	String getS3BucketName() {
+		return this.s3BucketName;
+	}
+
+	String getS3KeyPrefix() {
+		return this.s3KeyPrefix;
+	}
+
+	/**
+	 * @return {@link SimpleDBItemName}がついたフィールド。存在しない場合はnull
+	 */
+	Field getItemNameField() {
+		return this.itemNameField;
+	}
+
+	/**
+	 * @return {@link SimpleDBItemName}がついたフィールドのアクセサ。存在しない場合はnull
+	 */
+	FieldAccessor getItemNameAccessor() {
+		return this.itemNameAccessor;
+	}
+
+	/**
+	 * @return {@link SimpleDBItemName}がついたフィールドのコーデック。存在しない場合、サポートされない型の場合はnull
+	 */
+	TypeCodec<Object> getItemNameCodec() {
+		return this.itemNameCodec;
+	}
+
+	Object newInstance() {
+		return this.instantiator.newInstance();
+	}
+
+	/**
+	 * @return {@link SimpleDBVersionAttribute}がついたフィールドのメタデータ。存在しない場合はnull
+	 */
+	PropertyMetadata getVersionProperty() {
+		return this.versionProperty;
+	}
+
+	List<PropertyMetadata> getAttributeProperties() {
+		return this.attributeProperties;
+	}
+
+	List<PropertyMetadata> getBlobProperties() {
+		return this.blobProperties;
+	}
+
+	boolean hasBlob() {
+		return !this.blobProperties.isEmpty();
+	}
+
+	/**
+	 * @return attribute名にひも付くフィールドのメタデータ。存在しない場合はnull
+	 */
+	PropertyMetadata getProperty(String attributeName) {
+		return this.propertiesByAttributeName.get(attributeName);
+	}
+
+}
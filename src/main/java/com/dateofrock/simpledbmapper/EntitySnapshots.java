@@ -0,0 +1,173 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * loadやsaveしたPOJOについて、SimpleDBに保存されているattributeの値を覚えておきます。
+ * 
+ * POJOは同一性（==）で区別し、弱参照で持つので、使われなくなったPOJOの値は自動的に破棄されます。スレッドセーフです。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+final class EntitySnapshots {
+
+	private final Map<IdentityKey, Map<String, Set<String>>> snapshots;
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	EntitySnapshots() {
+		this.snapshots = new HashMap<IdentityKey, Map<String, Set<String>>>();
+	}
+
+	/**
+	 * @return attribute名と値のMap。覚えていない場合はnull
+	 */
+	synchronized Map<String, Set<String>> get(Object object) {
+		expunge();
+		return this.snapshots.get(new IdentityKey(object, null));
+	}
+
+	synchronized void put(Object object, Map<String, Set<String>> snapshot) {
+		expunge();
+		this.snapshots.put(new IdentityKey(object, this.queue), Collections.unmodifiableMap(snapshot));
+	}
+
+	synchronized void remove(Object object) {
+		expunge();
+		this.snapshots.remove(new IdentityKey(object, null));
+	}
+
+	synchronized int size() {
+		expunge();
+		return this.snapshots.size();
+	}
+
+	/**
+	 * SimpleDBから取得したattributeを、attribute名と値のMapにします。
+	 */
+	static Map<String, Set<String>> fromAttributes(List<Attribute> attributes) {
+		Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+		for (Attribute attribute : attributes) {
+			add(values, attribute.getName(), attribute.getValue());
+		}
+		return values;
+	}
+
+	/**
+	 * previousにputしたattributeを反映し、deletedとdeletedValuesを取り除いたMapを作ります。
+	 * 
+	 * @param previous
+	 *            以前の値。ない場合はnull
+	 * @param deleted
+	 *            すべての値を削除したattribute名
+	 * @param deletedValues
+	 *            値を指定して削除したattribute
+	 */
+	static Map<String, Set<String>> apply(Map<String, Set<String>> previous, List<ReplaceableAttribute> put,
+			Collection<String> deleted, Collection<Attribute> deletedValues) {
+		Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+		if (previous != null) {
+			for (Map.Entry<String, Set<String>> entry : previous.entrySet()) {
+				values.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+			}
+		}
+		Map<String, Set<String>> replaced = new HashMap<String, Set<String>>();
+		for (ReplaceableAttribute attribute : put) {
+			if (Boolean.TRUE.equals(attribute.isReplace())) {
+				add(replaced, attribute.getName(), attribute.getValue());
+			}
+		}
+		values.putAll(replaced);
+		for (ReplaceableAttribute attribute : put) {
+			if (!Boolean.TRUE.equals(attribute.isReplace())) {
+				add(values, attribute.getName(), attribute.getValue());
+			}
+		}
+		for (String attributeName : deleted) {
+			values.remove(attributeName);
+		}
+		for (Attribute attribute : deletedValues) {
+			Set<String> set = values.get(attribute.getName());
+			if (set != null) {
+				set.remove(attribute.getValue());
+				if (set.isEmpty()) {
+					values.remove(attribute.getName());
+				}
+			}
+		}
+		return values;
+	}
+
+	static void add(Map<String, Set<String>> values, String attributeName, String value) {
+		Set<String> set = values.get(attributeName);
+		if (set == null) {
+			set = new HashSet<String>();
+			values.put(attributeName, set);
+		}
+		set.add(value);
+	}
+
+	private void expunge() {
+		Reference<?> reference;
+		while ((reference = this.queue.poll()) != null) {
+			this.snapshots.remove(reference);
+		}
+	}
+
+	/**
+	 * POJOのequalsやhashCodeを使わずに、同一性で比べるためのキー
+	 */
+	private static final class IdentityKey extends WeakReference<Object> {
+
+		private final int hash;
+
+		IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.hash = System.identityHashCode(referent);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+
+/**
+ * 初めてアクセスした時にS3から取得する{@link SimpleDBBlob}です。
+ * 
+ * フィールドの型を<code>LazyBlob&lt;String&gt;</code>もしくは<code>LazyBlob&lt;byte[]&gt;</code>にすると、
+ * {@link FetchType#LAZY}の場合でもS3の場所だけを覚えておき、{@link #get()}を呼んだ時にダウンロードします。
+ * SimpleDBへの再度のqueryは必要ありません。
+ * 
+ * <pre>
+ * &#064;SimpleDBBlob(contentType = &quot;image/jpeg&quot;, fetch = FetchType.LAZY)
+ * public LazyBlob&lt;byte[]&gt; coverImage;
+ * 
+ * book.coverImage = LazyBlob.of(bytes);
+ * </pre>
+ * 
+ * 取得した値はキャッシュされます。複数スレッドから呼んでも一度しかダウンロードしません。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class LazyBlob<T> {
+
+	private final SimpleDBMapper mapper;
+	private final PropertyMetadata property;
+	private final String bucketName;
+	private final String key;
+	private final boolean modified;
+
+	private T value;
+	private boolean loaded;
+
+	private LazyBlob(SimpleDBMapper mapper, PropertyMetadata property, String bucketName, String key, T value,
+			boolean loaded, boolean modified) {
+		this.mapper = mapper;
+		this.property = property;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.value = value;
+		this.loaded = loaded;
+		this.modified = modified;
+	}
+
+	/**
+	 * 保存するBlobを作ります。
+	 * 
+	 * @param value
+	 *            Stringもしくはbyte[]
+	 */
+	public static <T> LazyBlob<T> of(T value) {
+		if (value == null) {
+			throw new IllegalArgumentException("valueにnullは指定できません");
+		}
+		return new LazyBlob<T>(null, null, null, null, value, true, true);
+	}
+
+	/**
+	 * S3に保存されているBlobを、まだ取得していない状態で作ります。
+	 */
+	static <T> LazyBlob<T> unloaded(SimpleDBMapper mapper, PropertyMetadata property, String bucketName, String key) {
+		return new LazyBlob<T>(mapper, property, bucketName, key, null, false, false);
+	}
+
+	/**
+	 * S3に保存されているBlobを、取得済みの状態で作ります。
+	 */
+	static <T> LazyBlob<T> loaded(SimpleDBMapper mapper, PropertyMetadata property, String bucketName, String key,
+			T value) {
+		return new LazyBlob<T>(mapper, property, bucketName, key, value, true, false);
+	}
+
+	/**
+	 * Blobの値を取得します。まだ取得していない場合はS3からダウンロードします。
+	 * 
+	 * @throws SimpleDBMapperS3HandleException
+	 *             S3からの取得に失敗した場合
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T get() {
+		if (!this.loaded) {
+			this.value = (T) this.mapper.downloadBlob(this.property, this.bucketName, this.key);
+			this.loaded = true;
+		}
+		return this.value;
+	}
+
+	/**
+	 * @return S3から取得済み、もしくは{@link #of(Object)}で作った場合はtrue
+	 */
+	public synchronized boolean isLoaded() {
+		return this.loaded;
+	}
+
+	/**
+	 * @return 保存先のS3バケット。{@link #of(Object)}で作った場合はnull
+	 */
+	public String getBucketName() {
+		return this.bucketName;
+	}
+
+	/**
+	 * @return 保存先のS3キー。{@link #of(Object)}で作った場合はnull
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return {@link #of(Object)}で作った、つまりS3にアップロードする必要がある場合はtrue
+	 */
+	boolean isModified() {
+		return this.modified;
+	}
+
+	@Override
+	public String toString() {
+		return "LazyBlob [bucketName=" + this.bucketName + ", key=" + this.key + ", loaded=" + isLoaded() + "]";
+	}
+
+}
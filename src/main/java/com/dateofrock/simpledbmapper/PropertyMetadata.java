@@ -0,0 +1,221 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Set;
+
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping.Kind;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping.PropertyMapping;
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.codec.TypeCodec;
+import com.dateofrock.simpledbmapper.codec.TypeCodecRegistry;
+
+/**
+ * {@link SimpleDBAttribute}、{@link SimpleDBBlob}、{@link SimpleDBVersionAttribute}
+ * のいずれかがついたフィールドのメタデータです。不変オブジェクトです。
+ *
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+final class PropertyMetadata {
+
+	private final Field field;
+	private final FieldAccessor accessor;
+	private final String attributeName;
+	private final Class<?> type;
+	private final Class<?> setElementType;
+	private final boolean attribute;
+	private final boolean version;
+	private final String contentType;
+	private final FetchType fetchType;
+	private final Class<?> blobValueType;
+	private final TypeCodec<Object> codec;
+
+	PropertyMetadata(Field field, FieldAccessor accessor, String attributeName, TypeCodecRegistry codecRegistry) {
+		this.field = field;
+		this.accessor = accessor;
+		this.attributeName = attributeName;
+		this.type = field.getType();
+		this.attribute = field.getAnnotation(SimpleDBAttribute.class) != null;
+		this.version = field.getAnnotation(SimpleDBVersionAttribute.class) != null;
+
+		Class<?> elementType = null;
+		if (Set.class.isAssignableFrom(this.type)) {
+			Type genericType = field.getGenericType();
+			if (genericType instanceof ParameterizedType) {
+				Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+				if (argument instanceof Class) {
+					elementType = (Class<?>) argument;
+				}
+			}
+		}
+		this.setElementType = elementType;
+
+		SimpleDBBlob blob = field.getAnnotation(SimpleDBBlob.class);
+		if (blob != null && !this.attribute) {
+			this.contentType = blob.contentType();
+			this.fetchType = blob.fetch();
+			this.blobValueType = LazyBlob.class.equals(this.type) ? resolveTypeArgument(field) : this.type;
+		} else {
+			this.contentType = null;
+			this.fetchType = null;
+			this.blobValueType = null;
+		}
+
+		this.codec = findCodec(codecRegistry);
+	}
+
+	/**
+	 * コンパイル時に読み取った{@link PropertyMapping}から作ります。アノテーションとジェネリクスの型は読み取りません。
+	 */
+	PropertyMetadata(Field field, FieldAccessor accessor, PropertyMapping mapping, TypeCodecRegistry codecRegistry) {
+		this.field = field;
+		this.accessor = accessor;
+		this.attributeName = mapping.getAttributeName();
+		this.type = field.getType();
+		this.attribute = mapping.getKind() == Kind.ATTRIBUTE;
+		this.version = mapping.getKind() == Kind.VERSION;
+		this.setElementType = this.attribute && isSet() ? mapping.getValueType() : null;
+		if (mapping.getKind() == Kind.BLOB) {
+			this.contentType = mapping.getContentType();
+			this.fetchType = mapping.getFetchType();
+			this.blobValueType = mapping.getValueType();
+		} else {
+			this.contentType = null;
+			this.fetchType = null;
+			this.blobValueType = null;
+		}
+		this.codec = findCodec(codecRegistry);
+	}
+
+	@SuppressWarnings("unchecked")
+	private TypeCodec<Object> findCodec(TypeCodecRegistry codecRegistry) {
+		if (!this.attribute) {
+			return null;
+		}
+		Class<?> valueType = isSet() ? this.setElementType : this.type;
+		if (valueType == null) {
+			return null;
+		}
+		return (TypeCodec<Object>) codecRegistry.findCodec(valueType);
+	}
+
+	private static Class<?> resolveTypeArgument(Field field) {
+		Type genericType = field.getGenericType();
+		if (!(genericType instanceof ParameterizedType)) {
+			return null;
+		}
+		Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+		if (argument instanceof Class) {
+			return (Class<?>) argument;
+		}
+		// Java 6ではbyte[]はGenericArrayTypeになる
+		if (argument instanceof GenericArrayType) {
+			Type component = ((GenericArrayType) argument).getGenericComponentType();
+			if (component == byte.class) {
+				return byte[].class;
+			}
+		}
+		return null;
+	}
+
+	Field getField() {
+		return this.field;
+	}
+
+	FieldAccessor getAccessor() {
+		return this.accessor;
+	}
+
+	String getFieldName() {
+		return this.field.getName();
+	}
+
+	String getAttributeName() {
+		return this.attributeName;
+	}
+
+	Class<?> getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return {@link Set}の要素の型。{@link Set}でない場合はnull
+	 */
+	Class<?> getSetElementType() {
+		return this.setElementType;
+	}
+
+	boolean isSet() {
+		return Set.class.isAssignableFrom(this.type);
+	}
+
+	boolean isAttribute() {
+		return this.attribute;
+	}
+
+	boolean isBlob() {
+		return this.fetchType != null;
+	}
+
+	boolean isVersion() {
+		return this.version;
+	}
+
+	String getContentType() {
+		return this.contentType;
+	}
+
+	FetchType getFetchType() {
+		return this.fetchType;
+	}
+
+	/**
+	 * @return フィールドの型が{@link LazyBlob}の場合はtrue
+	 */
+	boolean isLazyBlob() {
+		return isBlob() && LazyBlob.class.equals(this.type);
+	}
+
+	/**
+	 * @return Blobの値の型。{@link LazyBlob}の場合は型引数。Blobでない場合はnull
+	 */
+	Class<?> getBlobValueType() {
+		return this.blobValueType;
+	}
+
+	/**
+	 * {@link SimpleDBAttribute}の値を変換するコーデックを取得します。{@link Set}の場合は要素のコーデックになります。
+	 * 
+	 * @throws SimpleDBMapperUnsupportedTypeException
+	 *             コーデックが見つからない型の場合
+	 */
+	TypeCodec<Object> getCodec() {
+		if (this.codec == null) {
+			throw new SimpleDBMapperUnsupportedTypeException(this.field + " is not supprted.");
+		}
+		return this.codec;
+	}
+
+	@Override
+	public String toString() {
+		return this.field.toString();
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+/**
+ * selectの結果を一件ずつ返す{@link Iterator}です。
+ * 
+ * 今のページを使い切ったらnextTokenで次のページを取得します。SimpleDBのitemは{@link #next()}
+ * が呼ばれた時にPOJOに変換します。スレッドセーフではありません。
+ * 
+ * 最大件数を指定した場合は、その件数を返したところで終わります。selectのlimitは1ページの件数なので、それとは別に数えます。
+ * 
+ * プリフェッチが有効な場合は、今のページを処理している間に次のページをバックグラウンドで取得します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+final class QueryIterator<T> implements Iterator<T> {
+
+	private final SimpleDBMapper mapper;
+	private final Class<T> clazz;
+	private final EntityMetadata metadata;
+	private final String query;
+	private final Set<String> eagerBlobFetchFields;
+	private final Collection<String> attributeNames;
+	private final PagePrefetcher prefetcher;
+	private final int maxItems;
+
+	private Iterator<Item> page = Collections.<Item> emptyList().iterator();
+	private String nextToken;
+	private boolean started;
+	private int returned;
+
+	/**
+	 * @param attributeNames
+	 *            queryで取得するattribute名。すべて取得する場合はnullか空
+	 * @param maxItems
+	 *            返すアイテムの最大数。0の場合は最後のページまで返します
+	 * @param prefetchExecutor
+	 *            次のページを取得するスレッドプール。プリフェッチしない場合はnull
+	 * @param prefetchDepth
+	 *            先に取得しておくページ数の最大値
+	 */
+	QueryIterator(SimpleDBMapper mapper, Class<T> clazz, EntityMetadata metadata, String query,
+			Set<String> eagerBlobFetchFields, Collection<String> attributeNames, int maxItems,
+			ExecutorService prefetchExecutor, int prefetchDepth) {
+		this.mapper = mapper;
+		this.clazz = clazz;
+		this.metadata = metadata;
+		this.query = query;
+		this.eagerBlobFetchFields = eagerBlobFetchFields;
+		this.attributeNames = attributeNames;
+		this.maxItems = maxItems;
+		if (prefetchExecutor != null && prefetchDepth > 0) {
+			this.prefetcher = new PagePrefetcher(prefetchExecutor, prefetchDepth);
+		} else {
+			this.prefetcher = null;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.maxItems > 0 && this.returned >= this.maxItems) {
+			return false;
+		}
+		// 空のページが返ってくる事もあるので、アイテムが見つかるかページがなくなるまで取得する
+		while (!this.page.hasNext()) {
+			SelectResult result = fetchNextPage();
+			if (result == null) {
+				return false;
+			}
+			this.page = result.getItems().iterator();
+		}
+		return true;
+	}
+
+	private SelectResult fetchNextPage() {
+		if (this.prefetcher != null) {
+			return this.prefetcher.take();
+		}
+		if (this.started && this.nextToken == null) {
+			return null;
+		}
+		SelectResult result = this.mapper.selectItems(this.query, this.nextToken);
+		this.started = true;
+		this.nextToken = result.getNextToken();
+		return result;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		this.returned++;
+		return this.mapper.toObject(this.clazz, this.metadata, this.page.next(), this.eagerBlobFetchFields,
+				this.attributeNames);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 次のページをバックグラウンドで取得します。
+	 * 
+	 * 取得済みのページが上限に達したら取得を止め、呼び出し側がページを受け取るとまた再開します。上限はページ数だけで、バイト数の上限は
+	 * ありません。1ページはSimpleDBの制限で1MBまでなので、保持するのはおよそdepth MBまでです。スレッドを待たせたままにしないので、
+	 * {@link QueryIterator}を途中で使わなくなっても、スレッドプールのスレッドが止まったままになる事はありません。
+	 */
+	private class PagePrefetcher implements Runnable {
+
+		private final ExecutorService executor;
+		private final int depth;
+		private final LinkedList<SelectResult> pages = new LinkedList<SelectResult>();
+		private String prefetchToken;
+		private boolean exhausted;
+		private boolean running;
+		private Throwable error;
+
+		PagePrefetcher(ExecutorService executor, int depth) {
+			this.executor = executor;
+			this.depth = depth;
+		}
+
+		/**
+		 * @return 次のページ。残りのページがない場合はnull
+		 */
+		synchronized SelectResult take() {
+			while (this.pages.isEmpty() && this.error == null && !this.exhausted) {
+				start();
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SimpleDBMapperException("selectが中断されました", e);
+				}
+			}
+			if (!this.pages.isEmpty()) {
+				SelectResult result = this.pages.removeFirst();
+				start();
+				return result;
+			}
+			if (this.error != null) {
+				if (this.error instanceof Error) {
+					throw (Error) this.error;
+				}
+				if (this.error instanceof RuntimeException) {
+					throw (RuntimeException) this.error;
+				}
+				throw new SimpleDBMapperException("次のページの取得に失敗", (Exception) this.error);
+			}
+			return null;
+		}
+
+		private void start() {
+			if (this.running || this.exhausted || this.error != null || this.pages.size() >= this.depth) {
+				return;
+			}
+			this.running = true;
+			try {
+				this.executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				this.running = false;
+				throw new SimpleDBMapperException("次のページを取得できません。SimpleDBMapperはすでにcloseされています");
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				String token;
+				synchronized (this) {
+					if (this.exhausted || this.pages.size() >= this.depth) {
+						this.running = false;
+						notifyAll();
+						return;
+					}
+					token = this.prefetchToken;
+				}
+				try {
+					SelectResult result = QueryIterator.this.mapper.selectItems(QueryIterator.this.query, token);
+					synchronized (this) {
+						this.pages.addLast(result);
+						this.prefetchToken = result.getNextToken();
+						this.exhausted = this.prefetchToken == null;
+						notifyAll();
+					}
+				} catch (Throwable e) {
+					synchronized (this) {
+						this.error = e;
+						this.running = false;
+						notifyAll();
+					}
+					return;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * selectの結果の1ページ分です。
+ * 
+ * 次のページを取得するためのnextTokenはこのオブジェクトが持つので、一つの{@link SimpleDBMapper}を複数スレッドで共有しても、
+ * それぞれのqueryのページングが混ざる事はありません。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class QueryResult<T> {
+
+	private final SimpleDBMapper mapper;
+	private final Class<T> clazz;
+	private final String query;
+	private final Set<String> eagerBlobFetchFields;
+	private final Collection<String> attributeNames;
+	private final List<T> items;
+	private final String nextToken;
+
+	QueryResult(SimpleDBMapper mapper, Class<T> clazz, String query, Set<String> eagerBlobFetchFields,
+			Collection<String> attributeNames, List<T> items, String nextToken) {
+		this.mapper = mapper;
+		this.clazz = clazz;
+		this.query = query;
+		this.eagerBlobFetchFields = eagerBlobFetchFields;
+		this.attributeNames = attributeNames;
+		this.items = Collections.unmodifiableList(items);
+		this.nextToken = nextToken;
+	}
+
+	/**
+	 * @return このページのアイテム。0件の場合は空のList
+	 */
+	public List<T> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * @return 次のページを取得するためのトークン。残りのアイテムがない場合はnull
+	 */
+	public String getNextToken() {
+		return this.nextToken;
+	}
+
+	/**
+	 * @return さらに残りのアイテムがある場合はtrue
+	 */
+	public boolean hasNext() {
+		return this.nextToken != null;
+	}
+
+	/**
+	 * 同じqueryで次のページを取得します。
+	 * 
+	 * @throws NoSuchElementException
+	 *             残りのアイテムがない場合
+	 */
+	public QueryResult<T> nextPage() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return this.mapper.fetch(this.clazz, this.query, this.nextToken, this.eagerBlobFetchFields,
+				this.attributeNames);
+	}
+
+}
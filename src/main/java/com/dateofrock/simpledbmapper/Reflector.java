@@ -15,23 +15,31 @@
  */
 package com.dateofrock.simpledbmapper;
 
-import static com.amazonaws.services.simpledb.util.SimpleDBUtils.*;
-
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.simpledb.model.Attribute;
-import com.dateofrock.simpledbmapper.s3.S3TaskResult;
-import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+import com.dateofrock.simpledbmapper.accessor.AccessorFactory;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping.PropertyMapping;
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.accessor.ReflectionAccessorFactory;
+import com.dateofrock.simpledbmapper.codec.TypeCodec;
+import com.dateofrock.simpledbmapper.codec.TypeCodecRegistry;
 import com.dateofrock.simpledbmapper.util.IOUtils;
+import com.dateofrock.simpledbmapper.util.IOUtilsRuntimeException;
+import com.dateofrock.simpledbmapper.util.TempFileInputStream;
 
 /**
  * {@link SimpleDBMapper}のためのリフレクションユーティリティ。
@@ -40,96 +48,151 @@ import com.dateofrock.simpledbmapper.util.IOUtils;
  */
 class Reflector {
 
-	Set<Field> listAllFields(final Class<?> clazz) {
-		Set<Field> fields = new HashSet<Field>();
-		Field[] thisFields = clazz.getDeclaredFields();
-		for (Field field : thisFields) {
-			fields.add(field);
-		}
-		Class<?> cls = clazz;
-		while (true) {
-			Class<?> superClass = cls.getSuperclass();
-			if (Object.class.equals(superClass)) {
-				break;
-			}
-			thisFields = superClass.getDeclaredFields();
-			for (Field field : thisFields) {
-				fields.add(field);
+	private final AccessorFactory accessorFactory;
+	private final TypeCodecRegistry codecRegistry;
+	private final ConcurrentMap<Class<?>, EntityMetadata> metadataCache;
+
+	Reflector() {
+		this(new ReflectionAccessorFactory(), new TypeCodecRegistry());
+	}
+
+	Reflector(AccessorFactory accessorFactory, TypeCodecRegistry codecRegistry) {
+		this.accessorFactory = accessorFactory;
+		this.codecRegistry = codecRegistry;
+		this.metadataCache = new ConcurrentHashMap<Class<?>, EntityMetadata>();
+	}
+
+	/**
+	 * クラスのメタデータを取得します。メタデータはクラスごとに一度だけ作られ、キャッシュされます。
+	 *
+	 * @throws SimpleDBMapperException
+	 *             {@link SimpleDBDomain}アノテーションがない場合
+	 */
+	EntityMetadata getMetadata(Class<?> clazz) {
+		EntityMetadata metadata = this.metadataCache.get(clazz);
+		if (metadata == null) {
+			metadata = createMetadata(clazz);
+			EntityMetadata existing = this.metadataCache.putIfAbsent(clazz, metadata);
+			if (existing != null) {
+				metadata = existing;
 			}
-			cls = superClass;
 		}
-		return fields;
+		return metadata;
 	}
 
-	Field findFieldByAttributeName(Class<?> clazz, String attributeName) {
-		for (Field field : listAllFields(clazz)) {
-			// SimpleDBAttribute
-			SimpleDBAttribute attr = field.getAnnotation(SimpleDBAttribute.class);
-			if (attr != null) {
-				if (attr.attributeName().isEmpty()) {
-					if (field.getName().equals(attributeName)) {
-						return field;
-					}
-				}
-				if (attr.attributeName().equals(attributeName)) {
-					return field;
+	private EntityMetadata createMetadata(Class<?> clazz) {
+		EntityMapping mapping = this.accessorFactory.createEntityMapping(clazz);
+		if (mapping != null) {
+			return createMetadata(clazz, mapping);
+		}
+		return createMetadataFromAnnotations(clazz);
+	}
+
+	@SuppressWarnings("unchecked")
+	private EntityMetadata createMetadataFromAnnotations(Class<?> clazz) {
+		SimpleDBDomain domain = getDomainAnnotation(clazz);
+		List<Field> allFields = listAllFieldsInOrder(clazz);
+		Field itemNameField = null;
+		FieldAccessor itemNameAccessor = null;
+		TypeCodec<Object> itemNameCodec = null;
+		List<PropertyMetadata> properties = new ArrayList<PropertyMetadata>();
+		for (Field field : allFields) {
+			if (itemNameField == null && field.getAnnotation(SimpleDBItemName.class) != null) {
+				itemNameField = field;
+				itemNameAccessor = this.accessorFactory.createFieldAccessor(clazz, field);
+				if (isItemNameSupportedType(field.getType())) {
+					itemNameCodec = (TypeCodec<Object>) this.codecRegistry.findCodec(field.getType());
 				}
 			}
-			// SimpleDBBlob
-			SimpleDBBlob blob = field.getAnnotation(SimpleDBBlob.class);
-			if (blob != null) {
-				if (blob.attributeName().isEmpty()) {
-					if (field.getName().equals(attributeName)) {
-						return field;
-					}
-				}
-				if (blob.attributeName().equals(attributeName)) {
-					return field;
-				}
+			String attributeName = getAttributeName(field);
+			if (attributeName != null) {
+				FieldAccessor accessor = this.accessorFactory.createFieldAccessor(clazz, field);
+				properties.add(new PropertyMetadata(field, accessor, attributeName, this.codecRegistry));
 			}
-			// SimpleDBVersionAttribute
-			SimpleDBVersionAttribute version = field.getAnnotation(SimpleDBVersionAttribute.class);
-			if (version != null) {
-				if (version.attributeName().isEmpty()) {
-					if (field.getName().equals(attributeName)) {
-						return field;
-					}
-				}
-				if (version.attributeName().equals(attributeName)) {
-					return field;
-				}
+		}
+		return new EntityMetadata(clazz, domain.domainName(), domain.s3BucketName(), domain.s3KeyPrefix(),
+				this.accessorFactory.createInstantiator(clazz), itemNameField, itemNameAccessor, itemNameCodec,
+				properties);
+	}
+
+	/**
+	 * 生成された{@link EntityMapping}からメタデータを作ります。フィールドは名前で引くだけで、アノテーションは走査しません。
+	 */
+	@SuppressWarnings("unchecked")
+	private EntityMetadata createMetadata(Class<?> clazz, EntityMapping mapping) {
+		Field itemNameField = null;
+		FieldAccessor itemNameAccessor = null;
+		TypeCodec<Object> itemNameCodec = null;
+		if (mapping.getItemNameFieldName() != null) {
+			itemNameField = getDeclaredField(mapping.getItemNameDeclaringClass(), mapping.getItemNameFieldName());
+			itemNameAccessor = this.accessorFactory.createFieldAccessor(clazz, itemNameField);
+			if (isItemNameSupportedType(itemNameField.getType())) {
+				itemNameCodec = (TypeCodec<Object>) this.codecRegistry.findCodec(itemNameField.getType());
 			}
 		}
-		return null;
+		List<PropertyMetadata> properties = new ArrayList<PropertyMetadata>();
+		for (PropertyMapping property : mapping.getProperties()) {
+			Field field = getDeclaredField(property.getDeclaringClass(), property.getFieldName());
+			FieldAccessor accessor = this.accessorFactory.createFieldAccessor(clazz, field);
+			properties.add(new PropertyMetadata(field, accessor, property, this.codecRegistry));
+		}
+		return new EntityMetadata(clazz, mapping.getDomainName(), mapping.getS3BucketName(),
+				mapping.getS3KeyPrefix(), this.accessorFactory.createInstantiator(clazz), itemNameField,
+				itemNameAccessor, itemNameCodec, properties);
 	}
 
-	Field findItemNameField(Class<?> clazz) {
-		for (Field field : listAllFields(clazz)) {
-			SimpleDBItemName sdbItemName = field.getAnnotation(SimpleDBItemName.class);
-			if (sdbItemName != null) {
-				return field;
+	private Field getDeclaredField(Class<?> declaringClass, String fieldName) {
+		try {
+			return declaringClass.getDeclaredField(fieldName);
+		} catch (NoSuchFieldException e) {
+			throw new SimpleDBMapperException("生成されたアクセサがクラスと一致しません。再コンパイルしてください: " + declaringClass
+					+ "." + fieldName, e);
+		}
+	}
+
+	Set<Field> listAllFields(final Class<?> clazz) {
+		return new HashSet<Field>(listAllFieldsInOrder(clazz));
+	}
+
+	/**
+	 * サブクラスから順にスーパークラスのフィールドを列挙します
+	 */
+	private List<Field> listAllFieldsInOrder(final Class<?> clazz) {
+		List<Field> fields = new ArrayList<Field>();
+		Class<?> cls = clazz;
+		while (cls != null && !Object.class.equals(cls)) {
+			for (Field field : cls.getDeclaredFields()) {
+				fields.add(field);
 			}
+			cls = cls.getSuperclass();
 		}
-		return null;
+		return fields;
+	}
+
+	Field findFieldByAttributeName(Class<?> clazz, String attributeName) {
+		PropertyMetadata property = getMetadata(clazz).getProperty(attributeName);
+		if (property == null) {
+			return null;
+		}
+		return property.getField();
+	}
+
+	Field findItemNameField(Class<?> clazz) {
+		return getMetadata(clazz).getItemNameField();
 	}
 
 	Field findVersionAttributeField(Class<?> clazz) {
-		for (Field field : listAllFields(clazz)) {
-			SimpleDBVersionAttribute versionAttribute = field.getAnnotation(SimpleDBVersionAttribute.class);
-			if (versionAttribute != null) {
-				return field;
-			}
+		PropertyMetadata versionProperty = getMetadata(clazz).getVersionProperty();
+		if (versionProperty == null) {
+			return null;
 		}
-		return null;
+		return versionProperty.getField();
 	}
 
 	Set<Field> findBlobFields(Class<?> clazz) {
 		Set<Field> list = new HashSet<Field>();
-		for (Field field : listAllFields(clazz)) {
-			SimpleDBBlob blob = field.getAnnotation(SimpleDBBlob.class);
-			if (blob != null) {
-				list.add(field);
-			}
+		for (PropertyMetadata property : getMetadata(clazz).getBlobProperties()) {
+			list.add(property.getField());
 		}
 		return list;
 	}
@@ -175,15 +238,15 @@ class Reflector {
 	}
 
 	String getDomainName(Class<?> clazz) {
-		return getDomainAnnotation(clazz).domainName();
+		return getMetadata(clazz).getDomainName();
 	}
 
 	String getS3BucketName(Class<?> clazz) {
-		return getDomainAnnotation(clazz).s3BucketName();
+		return getMetadata(clazz).getS3BucketName();
 	}
 
 	String getS3KeyPrefix(Class<?> clazz) {
-		return getDomainAnnotation(clazz).s3KeyPrefix();
+		return getMetadata(clazz).getS3KeyPrefix();
 	}
 
 	String getS3ContentType(Field blobField) {
@@ -194,146 +257,130 @@ class Reflector {
 		return blob.contentType();
 	}
 
-	<T> void setFieldValueFromAttribute(AmazonS3 s3, Class<T> clazz, T instance, Attribute attribute) {
-		String attributeName = attribute.getName();
-		String attributeValue = attribute.getValue();
+	<T> void setFieldValueFromAttribute(Class<T> clazz, T instance, Attribute attribute) {
+		PropertyMetadata property = getMetadata(clazz).getProperty(attribute.getName());
+		if (property == null) {
+			return;
+		}
+		setFieldValueFromAttribute(instance, property, attribute.getValue());
+	}
 
+	/**
+	 * attributeの値をフィールドにセットします。Blobは{@link SimpleDBMapper}がS3の{@link java.util.concurrent.ExecutorService}
+	 * で並列にダウンロードするので、ここでは扱いません。
+	 */
+	<T> void setFieldValueFromAttribute(T instance, PropertyMetadata property, String attributeValue) {
 		// version
-		Field versionField = this.findVersionAttributeField(clazz);
-		if (versionField != null) {
-			String versionAttributeName = versionField.getAnnotation(SimpleDBVersionAttribute.class).attributeName();
-			if (attributeName.equals(versionAttributeName)) {
-				Long version = new Long(attributeValue);
-				try {
-					versionField.set(instance, version);
-				} catch (Exception e) {
-					throw new SimpleDBMapperException("failed to set version", e);
-				}
-				return;
-			}
+		if (property.isVersion()) {
+			Long version = new Long(attributeValue);
+			property.getAccessor().set(instance, version);
+			return;
 		}
 
-		Set<Field> fields = listAllFields(clazz);
-		for (Field field : fields) {
-			try {
-				// attribute/blob
-				// TODO Blobのダウンロードは平行処理にしたい
-				setAttributeAndBlobValueToField(s3, instance, field, attributeName, attributeValue);
-			} catch (Exception e) {
-				throw new SimpleDBMapperException("failed to set field value", e);
-			}
-
+		try {
+			setAttributeValueToField(instance, property, attributeValue);
+		} catch (Exception e) {
+			throw new SimpleDBMapperException("failed to set field value", e);
 		}
 	}
 
 	@SuppressWarnings("unchecked")
-	<T> void setAttributeAndBlobValueToField(AmazonS3 s3, T instance, Field field, String attributeName,
-			String attributeValue) throws IllegalAccessException, ParseException {
-		Class<?> type;
-		type = field.getType();
-
-		// SimpleDBAttribute
-		SimpleDBAttribute sdbAttrAnnotation = field.getAnnotation(SimpleDBAttribute.class);
-		if (sdbAttrAnnotation != null && getAttributeName(field).equals(attributeName)) {
-			if (Set.class.isAssignableFrom(type)) {
-				// Set
-				Set<?> s = (Set<?>) field.get(instance);
-				ParameterizedType genericType = (ParameterizedType) field.getGenericType();
-				Class<?> setClass = (Class<?>) genericType.getActualTypeArguments()[0];
-				if (Number.class.isAssignableFrom(setClass)) {
-					// SetのメンバーがNumberの場合
-					if (s == null) {
-						Set<Number> newSet = new HashSet<Number>();
-						field.set(instance, newSet);
-						s = (Set<Number>) field.get(instance);
-					}
-					Number n = null;
-					if (isIntegerType(setClass)) {
-						n = new Integer(attributeValue);
-					} else if (isFloatType(setClass)) {
-						n = new Float(attributeValue);
-					} else if (isLongType(setClass)) {
-						n = new Long(attributeValue);
-					}
-					((Set<Number>) s).add(n);
-					return;
-				} else if (isStringType(setClass)) {
-					// SetのメンバーがStringの場合
-					if (s == null) {
-						Set<String> newSet = new HashSet<String>();
-						field.set(instance, newSet);
-						s = (Set<String>) field.get(instance);
-					}
-					((Set<String>) s).add(attributeValue);
-					return;
-				} else {
-					// FIXME
-					throw new SimpleDBMapperUnsupportedTypeException(s.toString() + " genericType: " + setClass
-							+ " is not supported.");
+	<T> void setAttributeValueToField(T instance, PropertyMetadata property, String attributeValue) {
+		FieldAccessor accessor = property.getAccessor();
+		Class<?> type = property.getType();
+
+		if (property.isAttribute()) {
+			Object value = property.getCodec().decode(attributeValue);
+			if (property.isSet()) {
+				Set<Object> s = (Set<Object>) accessor.get(instance);
+				if (s == null) {
+					s = new HashSet<Object>();
+					accessor.set(instance, s);
 				}
-			} else if (isDateType(type)) {
-				Date parsedDate = decodeDate(attributeValue);
-				field.set(instance, parsedDate);
-				return;
-			} else if (isStringType(type)) {
-				field.set(instance, attributeValue);
-				return;
-			} else if (isIntegerType(type)) {
-				field.set(instance, new Integer(attributeValue));
-				return;
-			} else if (isFloatType(type)) {
-				field.set(instance, new Float(attributeValue));
-				return;
-			} else if (isLongType(type)) {
-				field.set(instance, new Long(attributeValue));
-				return;
-			} else if (isBooleanType(type)) {
-				field.set(instance, new Boolean(attributeValue));
+				s.add(value);
 			} else {
-				if (type.isAssignableFrom(List.class)) {
-					new SimpleDBMapperUnsupportedTypeException(type + " is not supprted. Use java.util.Set.");
-				}
-				throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
+				accessor.set(instance, value);
 			}
 		}
+	}
 
-		// SimpleDBBlob
-		SimpleDBBlob sdbBlobAnnotation = field.getAnnotation(SimpleDBBlob.class);
-		if (sdbBlobAnnotation != null && getAttributeName(field).equals(attributeName)) {
-			S3TaskResult taskResult = new S3TaskResult(Operation.DOWNLOAD, attributeName, null, null);
-			taskResult.setSimpleDBAttributeValue(attributeValue);
-			S3Object s3Obj = s3.getObject(taskResult.getBucketName(), taskResult.getKey());
-			InputStream input = s3Obj.getObjectContent();
-			if (isStringType(type)) {
-				// FIXME encoding決めうち
-				String stringValue = IOUtils.readString(input, "UTF-8");
-				field.set(instance, stringValue);
-			} else if (isPrimitiveByteArrayType(type)) {
-				byte[] bytes = IOUtils.readBytes(input);
-				field.set(instance, bytes);
+	/**
+	 * S3から取得したBlobをフィールドの型に変換します。inputはcloseされます。
+	 * 
+	 * FileとInputStreamの場合は、S3のコネクションをすぐに返すために一時ファイルに書き出します。Fileの場合は、不要になったら呼び出し側で
+	 * 削除してください。InputStreamの場合は、closeすると一時ファイルも削除されます。
+	 * 
+	 * @param contentLength
+	 *            S3のContent-Length。わからない場合は-1
+	 * @return サポートされない型の場合はnull
+	 */
+	Object readBlobValue(PropertyMetadata property, InputStream input, long contentLength) {
+		Class<?> type = property.getBlobValueType();
+		if (type == null) {
+			IOUtils.closeQuietly(input);
+			return null;
+		}
+		if (isStringType(type)) {
+			// FIXME encoding決めうち
+			return IOUtils.readString(input, "UTF-8", contentLength);
+		} else if (isPrimitiveByteArrayType(type)) {
+			return IOUtils.toByteArray(input, contentLength);
+		} else if (InputStream.class.equals(type)) {
+			File file = writeTempFile(input);
+			try {
+				return new TempFileInputStream(file);
+			} catch (FileNotFoundException e) {
+				file.delete();
+				throw new SimpleDBMapperException("Blobの一時ファイルが読めません", e);
 			}
+		} else if (File.class.equals(type)) {
+			return writeTempFile(input);
 		}
+		IOUtils.closeQuietly(input);
+		return null;
+	}
+
+	private File writeTempFile(InputStream input) {
+		File file = null;
+		try {
+			file = File.createTempFile("simpledb-mapper-", ".blob");
+			IOUtils.copy(input, new FileOutputStream(file));
+			return file;
+		} catch (IOException e) {
+			IOUtils.closeQuietly(input);
+			throw new SimpleDBMapperException("Blobを一時ファイルに書き出せません", e);
+		} catch (IOUtilsRuntimeException e) {
+			file.delete();
+			throw new SimpleDBMapperException("Blobを一時ファイルに書き出せません", e);
+		}
+	}
+
+	/**
+	 * @return メモリに読み込まずに扱うBlobの型（FileもしくはInputStream）の場合はtrue
+	 */
+	boolean isStreamingBlobType(Class<?> type) {
+		return File.class.equals(type) || InputStream.class.equals(type);
 	}
 
 	String encodeObjectAsSimpleDBFormat(Object object) {
-		String value = null;
-		Class<?> type = object.getClass();
-		if (isStringType(type)) {
-			value = (String) object;
-		} else if (isIntegerType(type)) {
-			value = encodeZeroPadding((Integer) object, SimpleDBAttribute.DEFAULT_ZERO_PADDING_LENGTH);
-		} else if (isLongType(type)) {
-			value = encodeZeroPadding((Long) object, SimpleDBAttribute.DEFAULT_ZERO_PADDING_LENGTH);
-		} else if (isFloatType(type)) {
-			value = encodeZeroPadding((Float) object, SimpleDBAttribute.DEFAULT_ZERO_PADDING_LENGTH);
-		} else if (isDateType(type)) {
-			value = encodeDate((Date) object);
-		} else if (isBooleanType(type)) {
-			value = Boolean.toString((Boolean) object);
-		} else {
+		return this.codecRegistry.encode(object);
+	}
+
+	String encodeItemNameAsSimpleDBFormat(Object object, EntityMetadata metadata) {
+		Field itemNameField = metadata.getItemNameField();
+		if (itemNameField == null) {
+			throw new SimpleDBMapperException(object + "@SimpleDBItemNameアノテーションがありません");
+		}
+		Class<?> type = itemNameField.getType();
+		if (!isItemNameSupportedType(type)) {
 			throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
 		}
-		return value;
+		Object itemNameFieldValue = metadata.getItemNameAccessor().get(object);
+		if (itemNameFieldValue == null) {
+			String message = "SimpleDB itemName: " + itemNameField + " MUST have some value.";
+			throw new SimpleDBMapperException(message);
+		}
+		return metadata.getItemNameCodec().encode(itemNameFieldValue);
 	}
 
 	String encodeItemNameAsSimpleDBFormat(Object object, Field itemNameField) {
@@ -357,16 +404,19 @@ class Reflector {
 	}
 
 	Object decodeItemNameFromSimpleDBFormat(Class<?> type, String itemName) {
-		if (isIntegerType(type)) {
-			return decodeZeroPaddingInt(itemName);
-		} else if (isFloatType(type)) {
-			return decodeZeroPaddingFloat(itemName);
-		} else if (isLongType(type)) {
-			return decodeZeroPaddingLong(itemName);
-		} else if (isStringType(type)) {
-			return itemName;
+		if (!isItemNameSupportedType(type)) {
+			throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
 		}
-		throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
+		return this.codecRegistry.getCodec(type).decode(itemName);
+	}
+
+	Object decodeItemNameFromSimpleDBFormat(EntityMetadata metadata, String itemName) {
+		TypeCodec<Object> codec = metadata.getItemNameCodec();
+		if (codec == null) {
+			Class<?> type = metadata.getItemNameField().getType();
+			throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
+		}
+		return codec.decode(itemName);
 	}
 
 	boolean isDateType(Class<?> type) {
@@ -405,8 +455,14 @@ class Reflector {
 		return (field.getAnnotation(SimpleDBBlob.class) != null);
 	}
 
+	/**
+	 * itemNameにはDateとBoolean以外の、コーデックが登録されている型が使えます。
+	 */
 	boolean isItemNameSupportedType(Class<?> type) {
-		return (isStringType(type) || isLongType(type) || isFloatType(type) || isIntegerType(type));
+		if (isDateType(type) || isBooleanType(type)) {
+			return false;
+		}
+		return this.codecRegistry.findCodec(type) != null;
 	}
 
 	boolean isAttributeSupprtedType(Class<?> type) {
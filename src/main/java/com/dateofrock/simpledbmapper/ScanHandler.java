@@ -0,0 +1,36 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+/**
+ * {@link SimpleDBMapper#parallelScan(Class, com.dateofrock.simpledbmapper.query.QueryExpression, int, ScanHandler)}
+ * で取得したアイテムを受け取ります。
+ * 
+ * 異なるセグメントのアイテムは複数のスレッドから同時に渡されるので、スレッドセーフに実装してください。同じセグメントのアイテムは順番に渡されます。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public interface ScanHandler<T> {
+
+	/**
+	 * @param segment
+	 *            セグメントの番号。0から始まり、itemNameの小さい順になります
+	 * @param object
+	 *            取得したアイテム
+	 */
+	void handle(int segment, T object);
+
+}
@@ -42,6 +42,8 @@ import java.lang.annotation.Target;
  * <li>{@link java.util.Date}</li>
  * </ul>
  * 
+ * 上記以外の型（{@link java.lang.Boolean}、enumを除く）を使いたい場合は、
+ * {@link com.dateofrock.simpledbmapper.codec.TypeCodecRegistry}にコーデックを登録してください。
  * 
  * @author Takehito Tanabe (dateofrock at gmail dot com)
  */
@@ -38,6 +38,24 @@ public @interface SimpleDBDomain {
 	 */
 	public static final int MAX_QUERY_LIMIT = 2500;
 
+	/**
+	 * Maximum items in BatchPutAttributes/BatchDeleteAttributes operation
+	 * 
+	 * <a href=
+	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/SDBLimits.html"
+	 * >AWSドキュメント参照</a>
+	 */
+	public static final int MAX_BATCH_ITEMS = 25;
+
+	/**
+	 * Maximum comparisons per Select expression predicate（in演算子に指定できる値の数）
+	 * 
+	 * <a href=
+	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/SDBLimits.html"
+	 * >AWSドキュメント参照</a>
+	 */
+	public static final int MAX_COMPARISONS_PER_PREDICATE = 20;
+
 	String domainName();
 
 	/**
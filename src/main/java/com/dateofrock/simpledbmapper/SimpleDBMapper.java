@@ -19,27 +19,55 @@ import static com.amazonaws.services.simpledb.util.SimpleDBUtils.*;
 import static com.dateofrock.simpledbmapper.SimpleDBDomain.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
 import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
 import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
 import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
 import com.amazonaws.services.simpledb.model.DeleteDomainRequest;
 import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
@@ -49,82 +77,160 @@ import com.amazonaws.services.simpledb.model.Item;
 import com.amazonaws.services.simpledb.model.NoSuchDomainException;
 import com.amazonaws.services.simpledb.model.PutAttributesRequest;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
 import com.amazonaws.services.simpledb.model.SelectRequest;
 import com.amazonaws.services.simpledb.model.SelectResult;
 import com.amazonaws.services.simpledb.model.UpdateCondition;
 import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.codec.TypeCodec;
 import com.dateofrock.simpledbmapper.query.QueryExpression;
 import com.dateofrock.simpledbmapper.query.QueryExpressionBuilder;
+import com.dateofrock.simpledbmapper.s3.MultipartUpload;
 import com.dateofrock.simpledbmapper.s3.S3BlobReference;
 import com.dateofrock.simpledbmapper.s3.S3Task;
 import com.dateofrock.simpledbmapper.s3.S3TaskResult;
 import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+import com.dateofrock.simpledbmapper.util.IOUtils;
 
 /**
  * SimpleDBのデータマッパー
  * 
+ * S3へのアクセスやバッチ処理のためのスレッドプールを内部に持つので、使い終わったら{@link #close()}を呼んでください。
+ * 
  * @author Takehito Tanabe (dateofrock at gmail dot com)
  */
-public class SimpleDBMapper {
+public class SimpleDBMapper implements Closeable {
 
 	private static final Log log = LogFactory.getLog(SimpleDBMapper.class);
 
+	/** DeleteObjectsで一度に削除できるキーの数 */
+	private static final int MAX_S3_DELETE_OBJECTS = 1000;
+
+	/** セグメントの分割点を決めるために持っておくitemNameのサンプル数の上限 */
+	private static final int MAX_SPLIT_SAMPLES = 1000;
+
+	/**
+	 * SimpleDBのスレッドプールのタスクを実行中のスレッドではtrue。その中からさらにスレッドプールを使うと、空きスレッドを待ち合って
+	 * デッドロックするので、このスレッドで順番に実行します。
+	 */
+	private static final ThreadLocal<Boolean> IN_SIMPLEDB_TASK = new ThreadLocal<Boolean>();
+
+	/** 使われていないスレッドを終了するまでの秒数 */
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60L;
+
 	private AmazonSimpleDB sdb;
 	private AmazonS3 s3;
 	private SimpleDBMapperConfig config;
 
 	private Reflector reflector;
-	private String selectNextToken;
 
-	private List<String> blobEagerFetchList = new ArrayList<String>();
+	private final Object executorLock = new Object();
+	private ExecutorService s3Executor;
+	private ExecutorService simpleDBExecutor;
+	private boolean closed;
+
+	private int maxBlobDownloadBytes;
+	private Semaphore blobDownloadPermits;
+
+	private final EntitySnapshots snapshots = new EntitySnapshots();
+
+	/** attributeを指定して取得したPOJOと、取得したattribute名。saveではこのattributeだけを保存する */
+	private final EntitySnapshots projections = new EntitySnapshots();
+
+	/** {@link #addEagerBlobFetch(String)}で指定された、すべてのloadとselectでS3から取得するBlobのフィールド名 */
+	private final Set<String> defaultEagerBlobFetchFields = new CopyOnWriteArraySet<String>();
+
+	/**
+	 * 一度読み込んだBlobのInputStream。trueはS3の内容と同じ（loadした、もしくはsaveに成功した）もの、falseはsaveに失敗したもの
+	 */
+	private final Map<InputStream, Boolean> readStreams = Collections
+			.synchronizedMap(new WeakHashMap<InputStream, Boolean>());
 
 	public SimpleDBMapper(AmazonSimpleDB sdb, AmazonS3 s3) {
 		this.sdb = sdb;
 		this.s3 = s3;
 		this.config = SimpleDBMapperConfig.DEFAULT;
-		this.reflector = new Reflector();
+		this.reflector = new Reflector(this.config.getAccessorFactory(), this.config.getTypeCodecRegistry());
+		this.maxBlobDownloadBytes = Math.max(1, this.config.getMaxBlobDownloadBytes());
+		this.blobDownloadPermits = new Semaphore(this.maxBlobDownloadBytes);
 	}
 
 	public SimpleDBMapper(AmazonSimpleDB sdb, AmazonS3 s3, SimpleDBMapperConfig config) {
 		this.sdb = sdb;
 		this.s3 = s3;
 		this.config = config;
-		this.reflector = new Reflector();
-	}
-
-	public void addEagerBlobFetch(String fieldName) {
-		this.blobEagerFetchList.add(fieldName);
-	}
-
-	public void removeEagerBlobFetch(String fieldName) {
-		this.blobEagerFetchList.remove(fieldName);
-	}
-
-	public void resetEagerBlobFetch() {
-		this.blobEagerFetchList = new ArrayList<String>();
+		this.reflector = new Reflector(this.config.getAccessorFactory(), this.config.getTypeCodecRegistry());
+		this.maxBlobDownloadBytes = Math.max(1, this.config.getMaxBlobDownloadBytes());
+		this.blobDownloadPermits = new Semaphore(this.maxBlobDownloadBytes);
 	}
 
 	/**
-	 * 対象ドメインにアイテムが一件もない場合に限ってドメインを削除します
+	 * 対象ドメインにアイテムが一件もない場合に限ってドメインを削除します。空かどうかは{@code limit 1}のselectで調べるので、
+	 * アイテムが多くても全件を数えることはありません。
 	 * 
 	 * @throws SimpleDBMapperNotEmptyException
 	 */
 	public void dropDomainIfEmpty(Class<?> entityClass) throws SimpleDBMapperNotEmptyException {
 		String domainName = getDomainName(entityClass);
-		int count = 0;
+		String itemName;
 		try {
-			count = this.countAll(entityClass);
+			itemName = selectFirstItemName("select itemName() from " + quoteName(domainName) + " limit 1");
 		} catch (NoSuchDomainException ignore) {
 			return;
 		}
 
-		if (count > 0) {
+		if (itemName != null) {
+			// 件数はエラーメッセージのためだけに数える
 			throw new SimpleDBMapperNotEmptyException(String.format("ドメイン %s には、すでに %s 件のアイテムが登録されているので削除できません",
-					domainName, count));
+					domainName, this.countAll(entityClass)));
 		}
 		this.sdb.deleteDomain(new DeleteDomainRequest(domainName));
 	}
 
+	/**
+	 * すべてのloadとselectで、{@link FetchType#LAZY}のBlobもS3から取得するようにします。
+	 * 
+	 * @deprecated 複数スレッドで共有すると他のqueryにも影響するので、{@link QueryExpression#addEagerBlobFetch(String)}か
+	 *             {@link #load(Class, Object, Collection)}を使ってください。次のリリースで削除します
+	 */
+	@Deprecated
+	public void addEagerBlobFetch(String fieldName) {
+		this.defaultEagerBlobFetchFields.add(fieldName);
+	}
+
+	/**
+	 * @deprecated {@link #addEagerBlobFetch(String)}と一緒に削除します
+	 */
+	@Deprecated
+	public void removeEagerBlobFetch(String fieldName) {
+		this.defaultEagerBlobFetchFields.remove(fieldName);
+	}
+
+	/**
+	 * @deprecated {@link #addEagerBlobFetch(String)}と一緒に削除します
+	 */
+	@Deprecated
+	public void resetEagerBlobFetch() {
+		this.defaultEagerBlobFetchFields.clear();
+	}
+
+	/**
+	 * selectは常に最初のページを返すので、続きのページは{@link #query(Class, QueryExpression)}の
+	 * {@link QueryResult#hasNext()}と{@link QueryResult#nextPage()}で取得してください。
+	 * 
+	 * 以前の{@code while (mapper.hasNext())}のループが最初のページを繰り返し取得し続けないように、常に例外をスローします。
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             常にスローされます
+	 * @deprecated {@link QueryResult#hasNext()}を使ってください。次のリリースで削除します
+	 */
+	@Deprecated
+	public boolean hasNext() {
+		throw new UnsupportedOperationException("mapper.hasNext()は使えません。query()で取得したQueryResultの"
+				+ "hasNext()とnextPage()で次のページを取得してください");
+	}
+
 	/**
 	 * SimpleDBのドメイン名を取得します
 	 * 
@@ -193,107 +299,170 @@ public class SimpleDBMapper {
 	 */
 	public <T> void save(T object) {
 		Class<?> clazz = object.getClass();
-		String domainName = getDomainName(clazz);
+		EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		String domainName = metadata.getDomainName();
 
-		Field itemNameField = this.reflector.findItemNameField(clazz);
-		if (itemNameField == null) {
-			throw new SimpleDBMapperException(object + "@SimpleDBItemNameアノテーションがありません");
-		}
+		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
 
-		String itemName = null;
-		itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, itemNameField);
+		// 前回loadもしくはsaveした時の値。ある場合は変わったattributeだけを保存する
+		Map<String, Set<String>> snapshot = getSnapshot(object, metadata);
+		// attributeを指定して取得した場合は、取得したattribute名。取得しなかったBlobはS3から削除しない
+		Set<String> projection = getProjection(object);
 
-		Set<Field> allFields = this.reflector.listAllFields(clazz);
-		Map<String, Object> attributeMap = new HashMap<String, Object>();
 		List<S3BlobReference> blobList = new ArrayList<S3BlobReference>();
-		for (Field field : allFields) {
-			try {
-				String attributeName = this.reflector.getAttributeName(field);
-				if (attributeName != null) {
-					if (this.reflector.isAttributeField(field)) {
-						attributeMap.put(attributeName, field.get(object));
-					} else if (this.reflector.isBlobField(field)) {
-						String s3BucketName = this.reflector.getS3BucketName(clazz);
-						String s3KeyPrefix = this.reflector.getS3KeyPrefix(clazz);
-						String s3ContentType = this.reflector.getS3ContentType(field);
-						// FIXME
-						S3BlobReference s3BlobRef = new S3BlobReference(attributeName, s3BucketName, s3KeyPrefix,
-								s3ContentType, field.get(object));
-						blobList.add(s3BlobRef);
-					}
+		// 保存できたら、S3にあるものと同じ状態に置き換えるLazyBlob
+		Map<PropertyMetadata, Object> modifiedLazyBlobs = new LinkedHashMap<PropertyMetadata, Object>();
+		for (PropertyMetadata property : metadata.getBlobProperties()) {
+			if (projection != null && !projection.contains(property.getAttributeName())) {
+				continue;
+			}
+			Object blobObject = property.getAccessor().get(object);
+			if (blobObject instanceof LazyBlob) {
+				LazyBlob<?> lazyBlob = (LazyBlob<?>) blobObject;
+				if (!lazyBlob.isModified()) {
+					// S3にあるものから変わっていないので、アップロードもattributeの更新もしない
+					continue;
 				}
-			} catch (Exception e) {
-				throw new SimpleDBMapperException(e);
+				blobObject = lazyBlob.get();
+				modifiedLazyBlobs.put(property, blobObject);
 			}
+			// FIXME
+			S3BlobReference s3BlobRef = new S3BlobReference(property.getAttributeName(), metadata.getS3BucketName(),
+					metadata.getS3KeyPrefix(), property.getContentType(), blobObject);
+			blobList.add(s3BlobRef);
 		}
 
 		List<String> nullKeys = new ArrayList<String>();
-		List<ReplaceableAttribute> replacableAttrs = new ArrayList<ReplaceableAttribute>();
-
 		// SimpleDBAttribute
-		for (Map.Entry<String, Object> entry : attributeMap.entrySet()) {
-			String sdbAttributeName = entry.getKey();
-			Object sdbValue = entry.getValue();
-			if (sdbValue == null) {
-				nullKeys.add(sdbAttributeName);// 削除対象キーリストに追加
-			} else if (sdbValue instanceof Set) { // Set
-				Set<?> c = (Set<?>) sdbValue;
-				for (Object val : c) {
-					replacableAttrs.add(new ReplaceableAttribute(sdbAttributeName, this.reflector
-							.encodeObjectAsSimpleDBFormat(val), true));
-				}
-			} else {
-				replacableAttrs.add(new ReplaceableAttribute(sdbAttributeName, this.reflector
-						.encodeObjectAsSimpleDBFormat(sdbValue), true));
-			}
+		List<ReplaceableAttribute> replacableAttrs = createReplaceableAttributes(object, metadata, nullKeys);
+		// 値を指定して削除するSetの要素
+		List<Attribute> deletedValues = new ArrayList<Attribute>();
+		if (snapshot != null) {
+			replacableAttrs = diffAttributes(metadata, replacableAttrs, snapshot, nullKeys, deletedValues);
 		}
 
 		// SimpleDBBlob
+		// 保存されているBlobの参照情報。変わっていないBlobはアップロードしない
+		Map<String, S3TaskResult> storedBlobs = Collections.emptyMap();
+		if (this.config.isSkipUnchangedBlobUpload() && !blobList.isEmpty()) {
+			storedBlobs = getStoredBlobReferences(metadata, itemName, blobList);
+		}
+
 		// UploadするBlobをリストアップする
+		List<ReplaceableAttribute> unchangedBlobAttrs = new ArrayList<ReplaceableAttribute>();
 		List<S3Task> uploadTasks = new ArrayList<S3Task>();
+		List<MultipartUpload> multipartUploads = new ArrayList<MultipartUpload>();
+		List<InputStream> uploadedStreams = new ArrayList<InputStream>();
 		for (S3BlobReference s3BlobRef : blobList) {
 			String bucketName = s3BlobRef.getS3BucketName();
 			if (bucketName == null) {
 				throw new SimpleDBMapperException("Blobにはs3BucketNameの指定が必須です");
 			}
 
-			StringBuilder s3Key = new StringBuilder();
-			String prefix = s3BlobRef.getPrefix();
-			if (prefix == null) {
-				throw new SimpleDBMapperException("Blobのprefixにnullは指定できません");
-			}
-			prefix = prefix.trim();
-			s3Key.append(prefix);
-			if (!prefix.isEmpty() && !prefix.endsWith("/")) {
-				s3Key.append("/");
-			}
-			s3Key.append(itemName).append("/").append(s3BlobRef.getAttributeName());
+			String s3Key = createS3Key(s3BlobRef.getPrefix(), itemName, s3BlobRef.getAttributeName());
 
 			Object blobObject = s3BlobRef.getObject();
 			if (blobObject == null) {
+				if (snapshot != null && !snapshot.containsKey(s3BlobRef.getAttributeName())) {
+					// もともと保存されていない
+					continue;
+				}
 				nullKeys.add(s3BlobRef.getAttributeName());
 				// その都度Delete Objectする
 				// FIXME このタイミングがベストではない。ベストはSDBに対してDeleteAttributeする直後。
-				this.s3.deleteObject(bucketName, s3Key.toString());
+				this.s3.deleteObject(bucketName, s3Key);
 			} else {
-				// アップロード対象のBlobがすでにS3に保管されているものと同じであれば、再アップロードしないようにしたい。
 				InputStream input = null;
+				long contentLength = -1;
+				// Blobの内容のMD5。わからない場合はnull
+				String md5 = null;
 				if (blobObject instanceof String) {
 					// BlobがString
 					// FIXME encoding決めうち
-					input = new ByteArrayInputStream(((String) blobObject).getBytes(Charset.forName("UTF-8")));
+					byte[] bytes = ((String) blobObject).getBytes(Charset.forName("UTF-8"));
+					input = new ByteArrayInputStream(bytes);
+					contentLength = bytes.length;
+					md5 = IOUtils.md5Hex(bytes);
 				} else if (blobObject.getClass().getSimpleName().equals("byte[]")) {
 					// BlobがByte配列
 					input = new ByteArrayInputStream((byte[]) blobObject);
+					contentLength = ((byte[]) blobObject).length;
+					md5 = IOUtils.md5Hex((byte[]) blobObject);
+				} else if (blobObject instanceof File) {
+					// BlobがFile。大きい場合はマルチパートアップロードする
+					File file = (File) blobObject;
+					if (this.config.isSkipUnchangedBlobUpload()) {
+						md5 = IOUtils.md5Hex(file);
+					}
+					try {
+						input = new FileInputStream(file);
+					} catch (FileNotFoundException e) {
+						throw new SimpleDBMapperException("Blobのファイルが読めません: " + file, e);
+					}
+					contentLength = file.length();
+				} else if (blobObject instanceof InputStream) {
+					// BlobがInputStream。長さがわからないので、しきい値まで先読みする
+					InputStream blobInput = (InputStream) blobObject;
+					Boolean stored = this.readStreams.get(blobInput);
+					if (Boolean.TRUE.equals(stored)) {
+						// S3にあるものと同じで、もう読めないので、アップロードもattributeの更新もしない
+						continue;
+					}
+					if (stored != null) {
+						throw new SimpleDBMapperException("BlobのInputStreamはすでに読み込まれています。"
+								+ "新しいInputStreamをセットしてください");
+					}
+					this.readStreams.put(blobInput, Boolean.FALSE);
+					uploadedStreams.add(blobInput);
+					byte[] head;
+					try {
+						head = IOUtils.readBytes(blobInput, this.config.getMultipartUploadThreshold());
+					} catch (IOException e) {
+						IOUtils.closeQuietly(blobInput);
+						throw new SimpleDBMapperException("BlobのInputStreamが読めません", e);
+					}
+					if (head.length < this.config.getMultipartUploadThreshold()) {
+						IOUtils.closeQuietly(blobInput);
+						input = new ByteArrayInputStream(head);
+						contentLength = head.length;
+						md5 = IOUtils.md5Hex(head);
+					} else {
+						input = new SequenceInputStream(new ByteArrayInputStream(head), blobInput);
+					}
+				} else {
+					throw new SimpleDBMapperException("Blobに指定できるクラスはString、byte[]、File、InputStreamのみです");
+				}
+				S3TaskResult stored = storedBlobs.get(s3BlobRef.getAttributeName());
+				if (md5 != null && isBlobUnchanged(stored, bucketName, s3Key, md5)) {
+					// S3に保管されているものと同じなので、アップロードもattributeの更新もしない
+					IOUtils.closeQuietly(input);
+					unchangedBlobAttrs.add(new ReplaceableAttribute(s3BlobRef.getAttributeName(), stored
+							.toSimpleDBAttributeValue(), true));
+					continue;
+				}
+				if (contentLength >= 0 && contentLength < this.config.getMultipartUploadThreshold()) {
+					S3Task task = new S3Task(this.s3, s3BlobRef.getAttributeName(), input, bucketName, s3Key,
+							s3BlobRef.getContentType(), contentLength);
+					task.setMD5(md5);
+					uploadTasks.add(task);
 				} else {
-					throw new SimpleDBMapperException("Blobに指定できるクラスはStringもしくはbyte[]のみです");
+					MultipartUpload multipartUpload = new MultipartUpload(this.s3, s3BlobRef.getAttributeName(), input,
+							bucketName, s3Key, s3BlobRef.getContentType(), this.config.getMultipartUploadPartSize(),
+							getS3Executor(), this.config.geS3AccessThreadPoolSize());
+					multipartUpload.setMD5(md5);
+					multipartUploads.add(multipartUpload);
 				}
-				S3Task uploadTask = new S3Task(this.s3, s3BlobRef.getAttributeName(), input, bucketName,
-						s3Key.toString(), s3BlobRef.getContentType());
-				uploadTasks.add(uploadTask);
 			}
 		}
 
+		if (snapshot != null && replacableAttrs.isEmpty() && nullKeys.isEmpty() && deletedValues.isEmpty()
+				&& uploadTasks.isEmpty() && multipartUploads.isEmpty()) {
+			// 何も変わっていない
+			markStored(uploadedStreams);
+			markLazyBlobsStored(object, metadata, itemName, modifiedLazyBlobs);
+			return;
+		}
+
 		// PutAttribute
 		PutAttributesRequest req = new PutAttributesRequest();
 		req.setDomainName(domainName);
@@ -301,12 +470,12 @@ public class SimpleDBMapper {
 
 		// Versionがあるobjectの場合はConditional PUTする
 		Long nowVersion = System.currentTimeMillis();
-		Field versionField = this.reflector.findVersionAttributeField(clazz);
-		if (versionField != null) {
+		PropertyMetadata versionProperty = metadata.getVersionProperty();
+		if (versionProperty != null) {
+			Field versionField = versionProperty.getField();
 			try {
-				Object versionObject = versionField.get(object);
-				String versionAttributeName = versionField.getAnnotation(SimpleDBVersionAttribute.class)
-						.attributeName();
+				Object versionObject = versionProperty.getAccessor().get(object);
+				String versionAttributeName = versionProperty.getAttributeName();
 				if (versionObject != null) {
 					if (versionObject instanceof Long) {
 						Long currentVersion = (Long) versionObject;
@@ -327,11 +496,19 @@ public class SimpleDBMapper {
 
 		// S3にアップロード処理
 		List<S3TaskResult> taskFailures = new ArrayList<S3TaskResult>();
-		ExecutorService executor = Executors.newFixedThreadPool(this.config.geS3AccessThreadPoolSize());
 		try {
-			List<Future<S3TaskResult>> futures = executor.invokeAll(uploadTasks);
-			for (Future<S3TaskResult> future : futures) {
-				S3TaskResult result = future.get();
+			// Blobがなければスレッドプールは使わない
+			List<S3TaskResult> results = new ArrayList<S3TaskResult>();
+			if (!uploadTasks.isEmpty()) {
+				for (Future<S3TaskResult> future : getS3Executor().invokeAll(uploadTasks)) {
+					results.add(future.get());
+				}
+			}
+			// マルチパートアップロードはパートをスレッドプールで並列に送るので、このスレッドで一つずつ実行する
+			for (MultipartUpload multipartUpload : multipartUploads) {
+				results.add(multipartUpload.upload());
+			}
+			for (S3TaskResult result : results) {
 				// SimpleDBに結果を書き込み
 				replacableAttrs.add(new ReplaceableAttribute(result.getSimpleDBAttributeName(), result
 						.toSimpleDBAttributeValue(), true));
@@ -340,7 +517,10 @@ public class SimpleDBMapper {
 					taskFailures.add(result);
 				}
 			}
-		} catch (Exception e) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimpleDBMapperS3HandleException("S3アップロード操作が中断されました", e);
+		} catch (ExecutionException e) {
 			throw new SimpleDBMapperS3HandleException("S3アップロード操作に失敗", e);
 		}
 
@@ -351,299 +531,2037 @@ public class SimpleDBMapper {
 
 		// SDBにPUT
 		req.setAttributes(replacableAttrs);
-		this.sdb.putAttributes(req);
+		if (snapshot == null || !replacableAttrs.isEmpty()) {
+			this.sdb.putAttributes(req);
+		}
 
 		// versionをセット
-		if (versionField != null) {
+		if (versionProperty != null) {
 			try {
-				versionField.set(object, nowVersion);
+				versionProperty.getAccessor().set(object, nowVersion);
 			} catch (Exception ignore) {
 				throw new SimpleDBMapperException("versionの値セットに失敗", ignore);
 			}
 		}
 
 		// DeleteAttribute
-		if (!nullKeys.isEmpty()) {
+		if (!nullKeys.isEmpty() || !deletedValues.isEmpty()) {
 			DeleteAttributesRequest delReq = new DeleteAttributesRequest();
 			delReq.setDomainName(domainName);
 			delReq.setItemName(itemName);
-			Collection<Attribute> delAttrs = new ArrayList<Attribute>(nullKeys.size());
-			for (String nullKey : nullKeys) {
-				delAttrs.add(new Attribute(nullKey, null));
-			}
-			delReq.setAttributes(delAttrs);
+			delReq.setAttributes(toDeleteAttributes(nullKeys, deletedValues));
 			this.sdb.deleteAttributes(delReq);
 		}
 
-	}
-
-	/**
-	 * オブジェクトをSimpleDBから削除します
-	 * 
-	 * @param object
-	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
-	 *            {@link SimpleDBVersionAttribute}
-	 *            がついたフィールドがある場合、トランザクション機能が働きます。（<a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConditionalDelete.html"
-	 *            >Conditional Delete</a>になります。）
-	 */
-	public void delete(Object object) {
-		String domainName = this.reflector.getDomainName(object.getClass());
-		Field itemNameField = this.reflector.findItemNameField(object.getClass());
-		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, itemNameField);
-
-		// S3 Blob削除対象をリストアップ
-		GetAttributesResult results = this.sdb.getAttributes(new GetAttributesRequest(domainName, itemName));
-		List<Attribute> sdbAllAttrs = results.getAttributes();
-		Set<Field> blobFields = this.reflector.findBlobFields(object.getClass());
-		List<S3TaskResult> s3TaskResults = new ArrayList<S3TaskResult>();
-		for (Field field : blobFields) {
-			SimpleDBBlob blobAnnon = field.getAnnotation(SimpleDBBlob.class);
-			String attributeName = blobAnnon.attributeName();
-			for (Attribute attr : sdbAllAttrs) {
-				if (attr.getName().equals(attributeName)) {
-					S3TaskResult taskResult = new S3TaskResult(Operation.DELETE, attributeName, null, null);
-					taskResult.setSimpleDBAttributeValue(attr.getValue());
-					s3TaskResults.add(taskResult);
-				}
-			}
-		}
-
-		DeleteAttributesRequest req = new DeleteAttributesRequest(domainName, itemName);
-		// versionが入っていたらConditional Delete
-		Field versionField = this.reflector.findVersionAttributeField(object.getClass());
-		if (versionField != null) {
-			try {
-				Object versionObject = versionField.get(object);
-				String versionAttributeName = versionField.getAnnotation(SimpleDBVersionAttribute.class)
-						.attributeName();
-				if (versionObject != null) {
-					if (versionObject instanceof Long) {
-						Long currentVersion = (Long) versionObject;
-						UpdateCondition expected = new UpdateCondition();
-						expected.setName(versionAttributeName);
-						expected.setValue(currentVersion.toString());
-						req.setExpected(expected);
-					} else {
-						throw new SimpleDBMapperException("version属性はLongである必要があります。" + versionField);
-					}
-				}
-			} catch (Exception e) {
-				throw new SimpleDBMapperException("objectからversion取得に失敗: " + object, e);
-			}
-		}
-		this.sdb.deleteAttributes(req);
-
-		// S3削除
-		for (S3TaskResult s3TaskResult : s3TaskResults) {
-			this.s3.deleteObject(s3TaskResult.getBucketName(), s3TaskResult.getKey());
+		markStored(uploadedStreams);
+		markLazyBlobsStored(object, metadata, itemName, modifiedLazyBlobs);
+		if (this.config.isDirtyTracking()) {
+			replacableAttrs.addAll(unchangedBlobAttrs);
+			this.snapshots.put(object, EntitySnapshots.apply(snapshot, replacableAttrs, nullKeys, deletedValues));
 		}
 	}
 
 	/**
-	 * {@link SimpleDBDomain}で指定されたドメイン内のアイテムをすべてカウントします。
-	 * 
-	 * @param clazz
-	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
-	 * @param consistentRead
-	 *            一貫性読み込みオプション。
-	 * 
-	 *            <a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
-	 *            >AWSドキュメント参照</a>
+	 * S3に保存できたInputStreamを覚えておきます。同じInputStreamのままもう一度saveしても、空のBlobで上書きしないようにします。
 	 */
-	public <T> int countAll(Class<T> clazz) {
-		return count(clazz, null);
+	private void markStored(List<InputStream> streams) {
+		for (InputStream stream : streams) {
+			this.readStreams.put(stream, Boolean.TRUE);
+		}
 	}
 
 	/**
-	 * {@link SimpleDBDomain}で指定されたドメイン内のアイテムを条件カウントします。
-	 * 
-	 * @param clazz
-	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
-	 * @param expression
-	 *            where文
-	 * @param consistentRead
-	 *            一貫性読み込みオプション。
-	 * 
-	 *            <a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
-	 *            >AWSドキュメント参照</a>
+	 * 保存した{@link LazyBlob}を、変更されていない取得済みの{@link LazyBlob}に置き換えます。次のsaveでアップロードしないようにします。
 	 */
-	public <T> int count(Class<T> clazz, QueryExpression expression) {
-		String whereExpression = null;
-		if (expression != null) {
-			whereExpression = expression.describe();
+	private void markLazyBlobsStored(Object object, EntityMetadata metadata, String itemName,
+			Map<PropertyMetadata, Object> lazyBlobs) {
+		for (Map.Entry<PropertyMetadata, Object> entry : lazyBlobs.entrySet()) {
+			PropertyMetadata property = entry.getKey();
+			String s3Key = createS3Key(metadata.getS3KeyPrefix(), itemName, property.getAttributeName());
+			property.getAccessor().set(object,
+					LazyBlob.loaded(this, property, metadata.getS3BucketName(), s3Key, entry.getValue()));
 		}
-		String query = createQuery(clazz, true, whereExpression, 0);
-		SelectResult result = this.sdb.select(new SelectRequest(query, this.config.isConsistentRead()));
-		String countValue = result.getItems().get(0).getAttributes().get(0).getValue();
-		return Integer.parseInt(countValue);
 	}
 
 	/**
-	 * selectを実行します。件数の最大値は2500件です。
+	 * {@link Set}のフィールドに要素を追加します。
 	 * 
-	 * <a href=
-	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/UsingSelect.html"
-	 * >AWSドキュメント参照</a>
+	 * 追加する要素だけをreplace=falseでPutAttributesするので、Set全体は送信しません。objectのフィールドにも追加されます。
+	 * {@link SimpleDBVersionAttribute}の確認や更新は行いません。
 	 * 
-	 * @param clazz
+	 * @param object
 	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
-	 * @param consistentRead
-	 *            一貫性読み込みオプション。
-	 * 
-	 *            <a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
-	 *            >AWSドキュメント参照</a>
-	 * @return 0件の場合は空のListが返ってきます。
+	 * @param fieldName
+	 *            {@link SimpleDBAttribute}がついたSetのフィールド名
+	 * @param values
+	 *            追加する要素
 	 */
-	public <T> List<T> selectAll(Class<T> clazz) {
-		String query = createQuery(clazz, false, null, MAX_QUERY_LIMIT);
-		List<T> objects = fetch(clazz, query);
-		return objects;
+	@SuppressWarnings("unchecked")
+	public void addToSet(Object object, String fieldName, Collection<?> values) {
+		EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+		PropertyMetadata property = getSetProperty(metadata, fieldName);
+		if (values.isEmpty()) {
+			return;
+		}
+		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+		List<ReplaceableAttribute> attributes = new ArrayList<ReplaceableAttribute>(values.size());
+		for (Object value : values) {
+			attributes.add(new ReplaceableAttribute(property.getAttributeName(), property.getCodec().encode(value),
+					false));
+		}
+		this.sdb.putAttributes(new PutAttributesRequest(metadata.getDomainName(), itemName, attributes));
+
+		Set<Object> set = (Set<Object>) property.getAccessor().get(object);
+		if (set == null) {
+			set = new HashSet<Object>();
+			property.getAccessor().set(object, set);
+		}
+		set.addAll(values);
+		updateSnapshot(object, attributes, Collections.<Attribute> emptyList());
 	}
 
 	/**
-	 * selectを実行します。
+	 * {@link Set}のフィールドから要素を削除します。
 	 * 
-	 * <a href=
-	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/UsingSelect.html"
-	 * >AWSドキュメント参照</a>
+	 * 削除する要素だけを値を指定してDeleteAttributesするので、Set全体は送信しません。objectのフィールドからも削除されます。
+	 * {@link SimpleDBVersionAttribute}の確認や更新は行いません。
 	 * 
-	 * @param clazz
+	 * @param object
 	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
-	 * @param expression
-	 *            where文
-	 * @param consistentRead
-	 *            一貫性読み込みオプション。
-	 * 
-	 *            <a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
-	 *            >AWSドキュメント参照</a>
-	 * @return 0件の場合は空のListが返ってきます。
+	 * @param fieldName
+	 *            {@link SimpleDBAttribute}がついたSetのフィールド名
+	 * @param values
+	 *            削除する要素
 	 */
-	public <T> List<T> select(Class<T> clazz, QueryExpression expression) {
-		String whereExpression = expression.describe();
-		String query = createQuery(clazz, false, whereExpression, expression.getLimit());
-		long t = System.currentTimeMillis();
-		List<T> objects = fetch(clazz, query);
-		if (log.isDebugEnabled()) {
-			log.debug(String.format("fetch time: %s(msec) query: %s", (System.currentTimeMillis() - t), query));
+	public void removeFromSet(Object object, String fieldName, Collection<?> values) {
+		EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+		PropertyMetadata property = getSetProperty(metadata, fieldName);
+		if (values.isEmpty()) {
+			return;
+		}
+		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+		List<Attribute> attributes = new ArrayList<Attribute>(values.size());
+		for (Object value : values) {
+			attributes.add(new Attribute(property.getAttributeName(), property.getCodec().encode(value)));
 		}
-		return objects;
+		this.sdb.deleteAttributes(new DeleteAttributesRequest(metadata.getDomainName(), itemName, attributes));
+
+		Set<?> set = (Set<?>) property.getAccessor().get(object);
+		if (set != null) {
+			set.removeAll(values);
+		}
+		updateSnapshot(object, Collections.<ReplaceableAttribute> emptyList(), attributes);
 	}
 
 	/**
+	 * POJOをloadせずに、アイテムのattributeを部分的に更新します。
+	 * 
+	 * <pre>
+	 * mapper.update(Book.class, 1L).set(&quot;price&quot;, 1000).remove(&quot;isbn&quot;).execute();
+	 * </pre>
+	 * 
 	 * @param clazz
 	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
 	 * @param itemName
 	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
-	 * @param consistentRead
-	 *            一貫性読み込みオプション。 <a href=
-	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
-	 *            >AWSドキュメント参照</a>
-	 * @throws SimpleDBMapperNotFoundException
-	 *             見つからなかった場合にスローされます
-	 * @throws SimpleDBMapperUnsupportedTypeException
 	 */
-	public <T> T load(Class<T> clazz, Object itemName) throws SimpleDBMapperNotFoundException {
+	public <T> UpdateBuilder<T> update(Class<T> clazz, Object itemName) {
 		if (!this.reflector.isItemNameSupportedType(itemName.getClass())) {
 			throw new SimpleDBMapperUnsupportedTypeException(itemName.getClass() + " is not supported.");
 		}
+		return new UpdateBuilder<T>(this, clazz, itemName);
+	}
 
-		String itemNameInQuery = this.reflector.encodeObjectAsSimpleDBFormat(itemName);
-
-		String whereExpression = "itemName()=" + quoteValue(itemNameInQuery);
-		String query = createQuery(clazz, false, whereExpression, 0);
+	/**
+	 * {@link UpdateBuilder}の内容を、PutAttributesとDeleteAttributesにまとめて送信します。
+	 * 
+	 * @return 新しいversion。{@link SimpleDBVersionAttribute}がない場合はnull
+	 */
+	Long executeUpdate(UpdateBuilder<?> update) {
+		EntityMetadata metadata = this.reflector.getMetadata(update.getEntityClass());
+		String domainName = metadata.getDomainName();
+		String itemName = this.reflector.encodeObjectAsSimpleDBFormat(update.getItemName());
+
+		List<String> removed = new ArrayList<String>(update.getRemoved());
+		List<ReplaceableAttribute> putAttrs = new ArrayList<ReplaceableAttribute>();
+		for (Map.Entry<String, Collection<?>> entry : update.getReplaced().entrySet()) {
+			PropertyMetadata property = getUpdatableProperty(metadata, entry.getKey(), false);
+			if (!property.isSet() && entry.getValue().size() != 1) {
+				throw new SimpleDBMapperException(entry.getKey() + "はSetのattributeではありません");
+			}
+			if (entry.getValue().isEmpty()) {
+				// 空のSetは保存できないので、attributeごと削除する
+				removed.add(entry.getKey());
+			}
+			for (Object value : entry.getValue()) {
+				putAttrs.add(new ReplaceableAttribute(entry.getKey(), property.getCodec().encode(value), true));
+			}
+		}
+		for (Map.Entry<String, Collection<?>> entry : update.getAdded().entrySet()) {
+			PropertyMetadata property = getUpdatableProperty(metadata, entry.getKey(), true);
+			for (Object value : entry.getValue()) {
+				putAttrs.add(new ReplaceableAttribute(entry.getKey(), property.getCodec().encode(value), false));
+			}
+		}
+		List<Attribute> deleteAttrs = new ArrayList<Attribute>();
+		for (String attributeName : removed) {
+			getUpdatableProperty(metadata, attributeName, false);
+			deleteAttrs.add(new Attribute(attributeName, null));
+		}
+		for (Map.Entry<String, Collection<?>> entry : update.getRemovedValues().entrySet()) {
+			PropertyMetadata property = getUpdatableProperty(metadata, entry.getKey(), true);
+			for (Object value : entry.getValue()) {
+				deleteAttrs.add(new Attribute(entry.getKey(), property.getCodec().encode(value)));
+			}
+		}
 
-		List<T> objects = fetch(clazz, query);
-		if (objects.isEmpty()) {
-			throw new SimpleDBMapperNotFoundException("見つかりません。" + query);
+		// versionがある場合は、常に新しいversionにする
+		Long nowVersion = null;
+		UpdateCondition expected = null;
+		PropertyMetadata versionProperty = metadata.getVersionProperty();
+		if (versionProperty != null) {
+			nowVersion = System.currentTimeMillis();
+			putAttrs.add(new ReplaceableAttribute(versionProperty.getAttributeName(), nowVersion.toString(), true));
+			if (update.getExpectedVersion() != null) {
+				expected = new UpdateCondition();
+				expected.setName(versionProperty.getAttributeName());
+				expected.setValue(update.getExpectedVersion().toString());
+			}
+		} else if (update.getExpectedVersion() != null) {
+			throw new SimpleDBMapperException(update.getEntityClass() + "には@SimpleDBVersionAttributeがありません");
 		}
-		return objects.get(0);
-	}
 
-	public boolean hasNext() {
-		if (this.selectNextToken != null) {
-			return true;
+		if (!putAttrs.isEmpty()) {
+			PutAttributesRequest putRequest = new PutAttributesRequest(domainName, itemName, putAttrs);
+			putRequest.setExpected(expected);
+			this.sdb.putAttributes(putRequest);
+		}
+		if (!deleteAttrs.isEmpty()) {
+			DeleteAttributesRequest deleteRequest = new DeleteAttributesRequest(domainName, itemName, deleteAttrs);
+			if (nowVersion != null) {
+				// PutAttributesとの間に他から更新されていないことを確認する
+				UpdateCondition current = new UpdateCondition();
+				current.setName(versionProperty.getAttributeName());
+				current.setValue(nowVersion.toString());
+				deleteRequest.setExpected(current);
+			}
+			this.sdb.deleteAttributes(deleteRequest);
 		}
-		return false;
+		return nowVersion;
 	}
 
-	private <T> List<T> fetch(Class<T> clazz, String query) {
-		SelectRequest selectRequest = new SelectRequest(query.toString(), this.config.isConsistentRead());
-		if (this.selectNextToken != null) {
-			selectRequest.setNextToken(this.selectNextToken);
-			this.selectNextToken = null;
+	/**
+	 * @param set
+	 *            Setのattributeでなければならない場合はtrue
+	 */
+	private PropertyMetadata getUpdatableProperty(EntityMetadata metadata, String attributeName, boolean set) {
+		PropertyMetadata property = metadata.getProperty(attributeName);
+		if (property == null || !property.isAttribute()) {
+			throw new SimpleDBMapperException(attributeName + "は@SimpleDBAttributeのattributeではありません");
 		}
-
-		SelectResult result = this.sdb.select(selectRequest);
-		List<Item> items = result.getItems();
-		if (items.isEmpty()) {
-			return Collections.emptyList();
+		if (set && !property.isSet()) {
+			throw new SimpleDBMapperException(attributeName + "はSetのattributeではありません");
 		}
-		this.selectNextToken = result.getNextToken();
-
-		List<T> objects = new ArrayList<T>();
-		Field itemNameField = this.reflector.findItemNameField(clazz);
-		try {
-			// SDBのitemでループ
-			for (Item item : items) {
-				T instance;
-				instance = clazz.newInstance();
-
-				// ItemNameのセット
-				Class<?> type = itemNameField.getType();
-				String itemName = item.getName();
-				itemNameField.set(instance, this.reflector.decodeItemNameFromSimpleDBFormat(type, itemName));
-
-				// itemのattributesでループ
-				List<Attribute> attrs = item.getAttributes();
-				for (Attribute attr : attrs) {
-					String attributeName = attr.getName();
-					Field attrField = this.reflector.findFieldByAttributeName(clazz, attributeName);
-					if (attrField == null) {
-						continue;
-					}
-					// Blobの場合はLazyFetchをチェック
-					SimpleDBBlob blobAnno = attrField.getAnnotation(SimpleDBBlob.class);
-					if (blobAnno != null) {
-						String fieldName = attrField.getName();
-						if (this.blobEagerFetchList.contains(fieldName)) {
-							// 実行
-							this.reflector.setFieldValueFromAttribute(this.s3, clazz, instance, attr);
-						} else {
-							FetchType fetchType = blobAnno.fetch();
-							if (fetchType == FetchType.EAGER) {
-								// 実行
-								this.reflector.setFieldValueFromAttribute(this.s3, clazz, instance, attr);
-							}
-						}
-					} else {
-						this.reflector.setFieldValueFromAttribute(this.s3, clazz, instance, attr);
-					}
+		return property;
+	}
 
+	private PropertyMetadata getSetProperty(EntityMetadata metadata, String fieldName) {
+		for (PropertyMetadata property : metadata.getAttributeProperties()) {
+			if (property.getFieldName().equals(fieldName)) {
+				if (!property.isSet()) {
+					break;
 				}
-
-				//
-				objects.add(instance);
+				return property;
 			}
-
-		} catch (Exception e) {
-			throw new SimpleDBMapperException(e);
 		}
+		throw new SimpleDBMapperException(fieldName + "は@SimpleDBAttributeがついたSetのフィールドではありません");
+	}
 
-		return objects;
+	/**
+	 * 覚えているattributeの値がある場合は、SimpleDBに送った変更を反映します。
+	 */
+	private void updateSnapshot(Object object, List<ReplaceableAttribute> put, List<Attribute> deletedValues) {
+		if (!this.config.isDirtyTracking()) {
+			return;
+		}
+		Map<String, Set<String>> snapshot = this.snapshots.get(object);
+		if (snapshot != null) {
+			this.snapshots.put(object,
+					EntitySnapshots.apply(snapshot, put, Collections.<String> emptyList(), deletedValues));
+		}
 	}
 
-	private <T> String createQuery(Class<T> clazz, boolean isCount, String whereExpression, int limit) {
-		String domainName = this.reflector.getDomainName(clazz);
-		StringBuilder query = new StringBuilder("select ");
+	/**
+	 * 複数のオブジェクトをまとめてSimpleDBに保存します。
+	 * 
+	 * ドメインごとに25件ずつBatchPutAttributesにまとめ、並列に送信します。
+	 * {@link SimpleDBVersionAttribute}や{@link SimpleDBBlob}がついたフィールドを持つオブジェクトは、Conditional
+	 * PutやS3へのアップロードが必要なため、{@link #save(Object)}で一件ずつ保存します。
+	 * 同じitemNameのオブジェクトが複数ある場合は、後にあるものが保存されます。
+	 * 
+	 * @param objects
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @return 保存に失敗したオブジェクト。すべて成功した場合は空のList
+	 */
+	public <T> List<BatchFailure<T>> saveAll(Collection<T> objects) {
+		List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>();
+		Map<String, Map<String, BatchPutEntry<T>>> batches = new LinkedHashMap<String, Map<String, BatchPutEntry<T>>>();
+		List<Callable<List<BatchFailure<T>>>> tasks = new ArrayList<Callable<List<BatchFailure<T>>>>();
+		for (T object : objects) {
+			EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+			if (metadata.getVersionProperty() != null || metadata.hasBlob()) {
+				tasks.add(createSaveTask(object));
+				continue;
+			}
+			String itemName = null;
+			try {
+				itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+				List<String> nullKeys = new ArrayList<String>();
+				List<ReplaceableAttribute> attributes = createReplaceableAttributes(object, metadata, nullKeys);
+				List<Attribute> deletedValues = new ArrayList<Attribute>();
+				Map<String, Set<String>> snapshot = getSnapshot(object, metadata);
+				if (snapshot != null) {
+					attributes = diffAttributes(metadata, attributes, snapshot, nullKeys, deletedValues);
+					if (attributes.isEmpty() && nullKeys.isEmpty() && deletedValues.isEmpty()) {
+						// 何も変わっていない
+						continue;
+					}
+				}
+				Map<String, BatchPutEntry<T>> entries = batches.get(metadata.getDomainName());
+				if (entries == null) {
+					entries = new LinkedHashMap<String, BatchPutEntry<T>>();
+					batches.put(metadata.getDomainName(), entries);
+				}
+				// 同じリクエストに同じitemNameは含められないので、後のものだけを残す
+				entries.remove(itemName);
+				entries.put(itemName, new BatchPutEntry<T>(object, itemName, attributes, nullKeys, deletedValues,
+						snapshot));
+			} catch (RuntimeException e) {
+				failures.add(new BatchFailure<T>(object, itemName, e));
+			}
+		}
+
+		for (Map.Entry<String, Map<String, BatchPutEntry<T>>> batch : batches.entrySet()) {
+			List<BatchPutEntry<T>> entries = new ArrayList<BatchPutEntry<T>>(batch.getValue().values());
+			for (int i = 0; i < entries.size(); i += MAX_BATCH_ITEMS) {
+				List<BatchPutEntry<T>> chunk = entries.subList(i, Math.min(i + MAX_BATCH_ITEMS, entries.size()));
+				tasks.add(createBatchPutTask(batch.getKey(), chunk));
+			}
+		}
+
+		failures.addAll(invokeBatchTasks(tasks));
+		return failures;
+	}
+
+	private <T> Callable<List<BatchFailure<T>>> createSaveTask(final T object) {
+		return new Callable<List<BatchFailure<T>>>() {
+			@Override
+			public List<BatchFailure<T>> call() {
+				try {
+					save(object);
+					return Collections.emptyList();
+				} catch (RuntimeException e) {
+					return Collections.singletonList(new BatchFailure<T>(object, null, e));
+				}
+			}
+		};
+	}
+
+	private <T> Callable<List<BatchFailure<T>>> createBatchPutTask(final String domainName,
+			final List<BatchPutEntry<T>> entries) {
+		return new Callable<List<BatchFailure<T>>>() {
+			@Override
+			public List<BatchFailure<T>> call() {
+				List<ReplaceableItem> putItems = new ArrayList<ReplaceableItem>(entries.size());
+				List<DeletableItem> deleteItems = new ArrayList<DeletableItem>();
+				for (BatchPutEntry<T> entry : entries) {
+					if (!entry.attributes.isEmpty()) {
+						putItems.add(new ReplaceableItem(entry.itemName, entry.attributes));
+					}
+					if (!entry.nullKeys.isEmpty() || !entry.deletedValues.isEmpty()) {
+						// attributeを指定しないとitemごと削除されてしまうので、nullのものがある場合のみ
+						deleteItems.add(new DeletableItem(entry.itemName, toDeleteAttributes(entry.nullKeys,
+								entry.deletedValues)));
+					}
+				}
+				try {
+					if (!putItems.isEmpty()) {
+						SimpleDBMapper.this.sdb.batchPutAttributes(new BatchPutAttributesRequest(domainName, putItems));
+					}
+					if (!deleteItems.isEmpty()) {
+						SimpleDBMapper.this.sdb.batchDeleteAttributes(new BatchDeleteAttributesRequest(domainName,
+								deleteItems));
+					}
+					if (SimpleDBMapper.this.config.isDirtyTracking()) {
+						for (BatchPutEntry<T> entry : entries) {
+							SimpleDBMapper.this.snapshots.put(entry.object,
+									EntitySnapshots.apply(entry.snapshot, entry.attributes, entry.nullKeys,
+											entry.deletedValues));
+						}
+					}
+					return Collections.emptyList();
+				} catch (RuntimeException e) {
+					List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>(entries.size());
+					for (BatchPutEntry<T> entry : entries) {
+						failures.add(new BatchFailure<T>(entry.object, entry.itemName, e));
+					}
+					return failures;
+				}
+			}
+		};
+	}
+
+	private <T> List<BatchFailure<T>> invokeBatchTasks(List<Callable<List<BatchFailure<T>>>> tasks) {
+		List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>();
+		for (List<BatchFailure<T>> result : invokeTasks(tasks)) {
+			failures.addAll(result);
+		}
+		return failures;
+	}
+
+	private <R> List<R> invokeTasks(List<Callable<R>> tasks) {
+		List<R> results = new ArrayList<R>(tasks.size());
+		if (tasks.isEmpty()) {
+			return results;
+		}
+		if (isInSimpleDBTask()) {
+			// parallelScanのハンドラなどから呼ばれた
+			try {
+				for (Callable<R> task : tasks) {
+					results.add(task.call());
+				}
+			} catch (SimpleDBMapperException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new SimpleDBMapperException("バッチ処理に失敗", e);
+			}
+			return results;
+		}
+		List<Callable<R>> markedTasks = new ArrayList<Callable<R>>(tasks.size());
+		for (Callable<R> task : tasks) {
+			markedTasks.add(new SimpleDBTask<R>(task));
+		}
+		try {
+			for (Future<R> future : getSimpleDBExecutor().invokeAll(markedTasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimpleDBMapperException("バッチ処理が中断されました", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new SimpleDBMapperException("バッチ処理に失敗", e);
+		}
+		return results;
+	}
+
+	/**
+	 * @return SimpleDBのスレッドプールのタスクを実行中の場合はtrue
+	 */
+	boolean isInSimpleDBTask() {
+		return Boolean.TRUE.equals(IN_SIMPLEDB_TASK.get());
+	}
+
+	private ExecutorService getS3Executor() {
+		synchronized (this.executorLock) {
+			checkNotClosed();
+			if (this.s3Executor == null) {
+				this.s3Executor = this.config.getS3AccessExecutor();
+				if (this.s3Executor == null) {
+					this.s3Executor = createExecutor("s3", this.config.geS3AccessThreadPoolSize());
+				}
+			}
+			return this.s3Executor;
+		}
+	}
+
+	private ExecutorService getSimpleDBExecutor() {
+		synchronized (this.executorLock) {
+			checkNotClosed();
+			if (this.simpleDBExecutor == null) {
+				this.simpleDBExecutor = this.config.getSimpleDBAccessExecutor();
+				if (this.simpleDBExecutor == null) {
+					this.simpleDBExecutor = createExecutor("sdb", this.config.getSimpleDBAccessThreadPoolSize());
+				}
+			}
+			return this.simpleDBExecutor;
+		}
+	}
+
+	private ExecutorService createExecutor(String name, int poolSize) {
+		int size = Math.max(1, poolSize);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new MapperThreadFactory(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private void checkNotClosed() {
+		if (this.closed) {
+			throw new SimpleDBMapperException("SimpleDBMapperはすでにcloseされています");
+		}
+	}
+
+	/**
+	 * このインスタンスが作ったスレッドプールを終了します。実行中の処理は最後まで実行されます。
+	 * 
+	 * {@link SimpleDBMapperConfig}で指定された{@link ExecutorService}は呼び出し側のものなので、終了しません。
+	 * closeした後にBlobの保存やバッチ処理を行うと{@link SimpleDBMapperException}がスローされます。
+	 */
+	public void shutdown() {
+		synchronized (this.executorLock) {
+			this.closed = true;
+			if (this.s3Executor != null && this.s3Executor != this.config.getS3AccessExecutor()) {
+				this.s3Executor.shutdown();
+			}
+			if (this.simpleDBExecutor != null && this.simpleDBExecutor != this.config.getSimpleDBAccessExecutor()) {
+				this.simpleDBExecutor.shutdown();
+			}
+			this.s3Executor = null;
+			this.simpleDBExecutor = null;
+		}
+	}
+
+	/**
+	 * {@link #shutdown()}と同じです。
+	 */
+	@Override
+	public void close() {
+		shutdown();
+	}
+
+	private List<ReplaceableAttribute> createReplaceableAttributes(Object object, EntityMetadata metadata,
+			List<String> nullKeys) {
+		List<ReplaceableAttribute> replacableAttrs = new ArrayList<ReplaceableAttribute>();
+		Set<String> projection = getProjection(object);
+		for (PropertyMetadata property : metadata.getAttributeProperties()) {
+			String sdbAttributeName = property.getAttributeName();
+			if (projection != null && !projection.contains(sdbAttributeName)) {
+				// 取得しなかったattributeは、nullでも削除しない
+				continue;
+			}
+			Object sdbValue = property.getAccessor().get(object);
+			if (sdbValue == null) {
+				nullKeys.add(sdbAttributeName);// 削除対象キーリストに追加
+			} else if (property.isSet()) { // Set
+				TypeCodec<Object> codec = property.getCodec();
+				Set<?> c = (Set<?>) sdbValue;
+				for (Object val : c) {
+					replacableAttrs.add(new ReplaceableAttribute(sdbAttributeName, codec.encode(val), true));
+				}
+			} else {
+				replacableAttrs.add(new ReplaceableAttribute(sdbAttributeName, property.getCodec().encode(sdbValue),
+						true));
+			}
+		}
+		return replacableAttrs;
+	}
+
+	/**
+	 * @return attributeを指定して取得したPOJOの場合は、取得したattribute名。すべて取得した場合はnull
+	 */
+	private Set<String> getProjection(Object object) {
+		Map<String, Set<String>> projection = this.projections.get(object);
+		return projection == null ? null : projection.keySet();
+	}
+
+	/**
+	 * @return 覚えているattributeの値。dirty trackingを使わない場合、覚えていない場合、versionが違う場合はnull
+	 */
+	private Map<String, Set<String>> getSnapshot(Object object, EntityMetadata metadata) {
+		if (!this.config.isDirtyTracking()) {
+			return null;
+		}
+		Map<String, Set<String>> snapshot = this.snapshots.get(object);
+		PropertyMetadata versionProperty = metadata.getVersionProperty();
+		if (snapshot == null || versionProperty == null) {
+			return snapshot;
+		}
+		Object version = versionProperty.getAccessor().get(object);
+		Set<String> storedVersion = snapshot.get(versionProperty.getAttributeName());
+		if (version == null || storedVersion == null || !storedVersion.contains(version.toString())) {
+			return null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * snapshotと比べて、変わったattributeだけを残します。
+	 * 
+	 * Setは差分だけを保存します。増えた要素はreplace=falseで追加し、減った要素はdeletedValuesに追加します。空になったSetと、
+	 * もともと保存されていないnullKeysはnullKeysから取り除きます。
+	 * 
+	 * @return attributesのうち、snapshotと値が違うもの
+	 */
+	private List<ReplaceableAttribute> diffAttributes(EntityMetadata metadata, List<ReplaceableAttribute> attributes,
+			Map<String, Set<String>> snapshot, List<String> nullKeys, List<Attribute> deletedValues) {
+		Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+		for (ReplaceableAttribute attribute : attributes) {
+			EntitySnapshots.add(values, attribute.getName(), attribute.getValue());
+		}
+		List<ReplaceableAttribute> changed = new ArrayList<ReplaceableAttribute>();
+		for (ReplaceableAttribute attribute : attributes) {
+			String attributeName = attribute.getName();
+			Set<String> stored = snapshot.get(attributeName);
+			if (values.get(attributeName).equals(stored)) {
+				continue;
+			}
+			PropertyMetadata property = metadata.getProperty(attributeName);
+			if (stored != null && property != null && property.isSet()) {
+				if (!stored.contains(attribute.getValue())) {
+					changed.add(new ReplaceableAttribute(attributeName, attribute.getValue(), false));
+				}
+			} else {
+				changed.add(attribute);
+			}
+		}
+		for (PropertyMetadata property : metadata.getAttributeProperties()) {
+			Set<String> stored = snapshot.get(property.getAttributeName());
+			if (!property.isSet() || stored == null) {
+				continue;
+			}
+			Set<String> current = values.get(property.getAttributeName());
+			if (current == null) {
+				// 空のSetは保存できないので、attributeごと削除する
+				if (!nullKeys.contains(property.getAttributeName())) {
+					nullKeys.add(property.getAttributeName());
+				}
+				continue;
+			}
+			for (String value : stored) {
+				if (!current.contains(value)) {
+					deletedValues.add(new Attribute(property.getAttributeName(), value));
+				}
+			}
+		}
+		nullKeys.retainAll(snapshot.keySet());
+		return changed;
+	}
+
+	/**
+	 * @param attributeNames
+	 *            すべての値を削除するattribute名
+	 * @param values
+	 *            値を指定して削除するattribute
+	 */
+	private List<Attribute> toDeleteAttributes(List<String> attributeNames, List<Attribute> values) {
+		List<Attribute> attributes = new ArrayList<Attribute>(attributeNames.size() + values.size());
+		for (String attributeName : attributeNames) {
+			attributes.add(new Attribute(attributeName, null));
+		}
+		attributes.addAll(values);
+		return attributes;
+	}
+
+	/**
+	 * オブジェクトをSimpleDBから削除します
+	 * 
+	 * @param object
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 *            {@link SimpleDBVersionAttribute}
+	 *            がついたフィールドがある場合、トランザクション機能が働きます。（<a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConditionalDelete.html"
+	 *            >Conditional Delete</a>になります。）
+	 */
+	public void delete(Object object) {
+		EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+		String domainName = metadata.getDomainName();
+		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+		this.snapshots.remove(object);
+		this.projections.remove(object);
+
+		// S3 Blob削除対象をリストアップ
+		List<S3TaskResult> s3TaskResults = new ArrayList<S3TaskResult>();
+		if (metadata.hasBlob()) {
+			GetAttributesResult results = this.sdb.getAttributes(new GetAttributesRequest(domainName, itemName));
+			for (Attribute attr : results.getAttributes()) {
+				PropertyMetadata property = metadata.getProperty(attr.getName());
+				if (property != null && property.isBlob()) {
+					S3TaskResult taskResult = new S3TaskResult(Operation.DELETE, attr.getName(), null, null);
+					taskResult.setSimpleDBAttributeValue(attr.getValue());
+					s3TaskResults.add(taskResult);
+				}
+			}
+		}
+
+		DeleteAttributesRequest req = new DeleteAttributesRequest(domainName, itemName);
+		// versionが入っていたらConditional Delete
+		PropertyMetadata versionProperty = metadata.getVersionProperty();
+		if (versionProperty != null) {
+			Field versionField = versionProperty.getField();
+			try {
+				Object versionObject = versionProperty.getAccessor().get(object);
+				String versionAttributeName = versionProperty.getAttributeName();
+				if (versionObject != null) {
+					if (versionObject instanceof Long) {
+						Long currentVersion = (Long) versionObject;
+						UpdateCondition expected = new UpdateCondition();
+						expected.setName(versionAttributeName);
+						expected.setValue(currentVersion.toString());
+						req.setExpected(expected);
+					} else {
+						throw new SimpleDBMapperException("version属性はLongである必要があります。" + versionField);
+					}
+				}
+			} catch (Exception e) {
+				throw new SimpleDBMapperException("objectからversion取得に失敗: " + object, e);
+			}
+		}
+		this.sdb.deleteAttributes(req);
+
+		// S3削除
+		for (S3TaskResult s3TaskResult : s3TaskResults) {
+			this.s3.deleteObject(s3TaskResult.getBucketName(), s3TaskResult.getKey());
+		}
+	}
+
+	/**
+	 * 複数のオブジェクトをまとめてSimpleDBから削除します。
+	 * 
+	 * ドメインごとに25件ずつBatchDeleteAttributesにまとめ、並列に送信します。Blobの参照はitemName()
+	 * in (...)のselectでまとめて取得し、アイテムの削除に成功した後、S3のMulti-Object Deleteで削除します。
+	 * {@link SimpleDBVersionAttribute}がついたフィールドを持つオブジェクトは、Conditional
+	 * Deleteが必要なため、{@link #delete(Object)}で一件ずつ削除します。
+	 * 
+	 * @param objects
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @return 削除に失敗したオブジェクト。すべて成功した場合は空のList
+	 */
+	public <T> List<BatchFailure<T>> deleteAll(Collection<T> objects) {
+		List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>();
+		Map<Class<?>, Map<String, T>> batches = new LinkedHashMap<Class<?>, Map<String, T>>();
+		List<Callable<List<BatchFailure<T>>>> tasks = new ArrayList<Callable<List<BatchFailure<T>>>>();
+		for (T object : objects) {
+			EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+			this.snapshots.remove(object);
+			this.projections.remove(object);
+			if (metadata.getVersionProperty() != null) {
+				tasks.add(createDeleteTask(object));
+				continue;
+			}
+			String itemName = null;
+			try {
+				itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+				Map<String, T> entries = batches.get(object.getClass());
+				if (entries == null) {
+					entries = new LinkedHashMap<String, T>();
+					batches.put(object.getClass(), entries);
+				}
+				entries.put(itemName, object);
+			} catch (RuntimeException e) {
+				failures.add(new BatchFailure<T>(object, itemName, e));
+			}
+		}
+		failures.addAll(invokeBatchTasks(tasks));
+		for (Map.Entry<Class<?>, Map<String, T>> batch : batches.entrySet()) {
+			failures.addAll(deleteItems(this.reflector.getMetadata(batch.getKey()), batch.getValue()));
+		}
+		return failures;
+	}
+
+	/**
+	 * itemNameを指定して、複数のアイテムをまとめてSimpleDBから削除します。
+	 * 
+	 * {@link SimpleDBVersionAttribute}の値は確認せずに削除します。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param itemNames
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @return 削除に失敗したitemName。すべて成功した場合は空のList
+	 * @see #deleteAll(Collection)
+	 */
+	public <I> List<BatchFailure<I>> deleteAll(Class<?> clazz, Collection<I> itemNames) {
+		List<BatchFailure<I>> failures = new ArrayList<BatchFailure<I>>();
+		Map<String, I> entries = new LinkedHashMap<String, I>();
+		for (I itemName : itemNames) {
+			try {
+				if (!this.reflector.isItemNameSupportedType(itemName.getClass())) {
+					throw new SimpleDBMapperUnsupportedTypeException(itemName.getClass() + " is not supported.");
+				}
+				entries.put(this.reflector.encodeObjectAsSimpleDBFormat(itemName), itemName);
+			} catch (RuntimeException e) {
+				failures.add(new BatchFailure<I>(itemName, null, e));
+			}
+		}
+		failures.addAll(deleteItems(this.reflector.getMetadata(clazz), entries));
+		return failures;
+	}
+
+	private <T> Callable<List<BatchFailure<T>>> createDeleteTask(final T object) {
+		return new Callable<List<BatchFailure<T>>>() {
+			@Override
+			public List<BatchFailure<T>> call() {
+				try {
+					delete(object);
+					return Collections.emptyList();
+				} catch (RuntimeException e) {
+					return Collections.singletonList(new BatchFailure<T>(object, null, e));
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param entries
+	 *            SimpleDBのitemNameと、失敗時に返すオブジェクト
+	 */
+	private <T> List<BatchFailure<T>> deleteItems(EntityMetadata metadata, Map<String, T> entries) {
+		List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>();
+		List<String> itemNames = new ArrayList<String>(entries.keySet());
+
+		// Blobの参照をまとめて取得する
+		Map<String, List<S3TaskResult>> blobReferences = new HashMap<String, List<S3TaskResult>>();
+		if (metadata.hasBlob()) {
+			List<Callable<BlobLookupResult>> lookupTasks = new ArrayList<Callable<BlobLookupResult>>();
+			for (int i = 0; i < itemNames.size(); i += MAX_COMPARISONS_PER_PREDICATE) {
+				int end = Math.min(i + MAX_COMPARISONS_PER_PREDICATE, itemNames.size());
+				lookupTasks.add(createBlobLookupTask(metadata, itemNames.subList(i, end)));
+			}
+			for (BlobLookupResult lookup : invokeTasks(lookupTasks)) {
+				if (lookup.exception == null) {
+					blobReferences.putAll(lookup.references);
+					continue;
+				}
+				// Blobの参照が取れなかったアイテムは、S3にゴミが残らないように削除しない
+				for (String itemName : lookup.itemNames) {
+					failures.add(new BatchFailure<T>(entries.get(itemName), itemName, lookup.exception));
+					entries.remove(itemName);
+				}
+			}
+			itemNames = new ArrayList<String>(entries.keySet());
+		}
+
+		List<Callable<List<BatchFailure<T>>>> deleteTasks = new ArrayList<Callable<List<BatchFailure<T>>>>();
+		for (int i = 0; i < itemNames.size(); i += MAX_BATCH_ITEMS) {
+			Map<String, T> chunk = new LinkedHashMap<String, T>();
+			for (String itemName : itemNames.subList(i, Math.min(i + MAX_BATCH_ITEMS, itemNames.size()))) {
+				chunk.put(itemName, entries.get(itemName));
+			}
+			deleteTasks.add(createBatchDeleteTask(metadata.getDomainName(), chunk, blobReferences));
+		}
+		failures.addAll(invokeBatchTasks(deleteTasks));
+		return failures;
+	}
+
+	private Callable<BlobLookupResult> createBlobLookupTask(final EntityMetadata metadata,
+			final List<String> itemNames) {
+		return new Callable<BlobLookupResult>() {
+			@Override
+			public BlobLookupResult call() {
+				BlobLookupResult lookup = new BlobLookupResult(itemNames);
+				try {
+					StringBuilder query = new StringBuilder("select ");
+					for (Iterator<PropertyMetadata> iter = metadata.getBlobProperties().iterator(); iter.hasNext();) {
+						query.append(quoteName(iter.next().getAttributeName()));
+						if (iter.hasNext()) {
+							query.append(", ");
+						}
+					}
+					query.append(" from ").append(quoteName(metadata.getDomainName()));
+					query.append(" where itemName() in (").append(quoteValues(itemNames)).append(")");
+					SelectRequest request = new SelectRequest(query.toString(), SimpleDBMapper.this.config
+							.isConsistentRead());
+					do {
+						SelectResult result = SimpleDBMapper.this.sdb.select(request);
+						for (Item item : result.getItems()) {
+							List<S3TaskResult> references = new ArrayList<S3TaskResult>();
+							for (Attribute attr : item.getAttributes()) {
+								S3TaskResult reference = new S3TaskResult(Operation.DELETE, attr.getName(), null, null);
+								reference.setSimpleDBAttributeValue(attr.getValue());
+								references.add(reference);
+							}
+							lookup.references.put(item.getName(), references);
+						}
+						request.setNextToken(result.getNextToken());
+					} while (request.getNextToken() != null);
+				} catch (RuntimeException e) {
+					lookup.exception = e;
+				}
+				return lookup;
+			}
+		};
+	}
+
+	private <T> Callable<List<BatchFailure<T>>> createBatchDeleteTask(final String domainName,
+			final Map<String, T> entries, final Map<String, List<S3TaskResult>> blobReferences) {
+		return new Callable<List<BatchFailure<T>>>() {
+			@Override
+			public List<BatchFailure<T>> call() {
+				List<DeletableItem> deleteItems = new ArrayList<DeletableItem>(entries.size());
+				for (String itemName : entries.keySet()) {
+					// attributeを指定しないとitemごと削除される
+					deleteItems.add(new DeletableItem().withName(itemName));
+				}
+				try {
+					SimpleDBMapper.this.sdb.batchDeleteAttributes(new BatchDeleteAttributesRequest(domainName,
+							deleteItems));
+				} catch (RuntimeException e) {
+					return toBatchFailures(entries, entries.keySet(), e);
+				}
+
+				// S3削除
+				Map<String, List<String>> keysByBucket = new LinkedHashMap<String, List<String>>();
+				Map<String, Set<String>> itemNamesByBucket = new HashMap<String, Set<String>>();
+				for (String itemName : entries.keySet()) {
+					List<S3TaskResult> references = blobReferences.get(itemName);
+					if (references == null) {
+						continue;
+					}
+					for (S3TaskResult reference : references) {
+						List<String> keys = keysByBucket.get(reference.getBucketName());
+						if (keys == null) {
+							keys = new ArrayList<String>();
+							keysByBucket.put(reference.getBucketName(), keys);
+							itemNamesByBucket.put(reference.getBucketName(), new LinkedHashSet<String>());
+						}
+						keys.add(reference.getKey());
+						itemNamesByBucket.get(reference.getBucketName()).add(itemName);
+					}
+				}
+				List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>();
+				for (Map.Entry<String, List<String>> bucket : keysByBucket.entrySet()) {
+					try {
+						deleteS3Objects(bucket.getKey(), bucket.getValue());
+					} catch (RuntimeException e) {
+						SimpleDBMapperS3HandleException s3Exception = new SimpleDBMapperS3HandleException(
+								"S3削除操作に失敗", e);
+						failures.addAll(toBatchFailures(entries, itemNamesByBucket.get(bucket.getKey()), s3Exception));
+					}
+				}
+				return failures;
+			}
+		};
+	}
+
+	private void deleteS3Objects(String bucketName, List<String> keys) {
+		for (int i = 0; i < keys.size(); i += MAX_S3_DELETE_OBJECTS) {
+			List<KeyVersion> keyVersions = new ArrayList<KeyVersion>();
+			for (String key : keys.subList(i, Math.min(i + MAX_S3_DELETE_OBJECTS, keys.size()))) {
+				keyVersions.add(new KeyVersion(key));
+			}
+			DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName);
+			request.setKeys(keyVersions);
+			this.s3.deleteObjects(request);
+		}
+	}
+
+	private <T> List<BatchFailure<T>> toBatchFailures(Map<String, T> entries, Collection<String> itemNames,
+			Exception e) {
+		List<BatchFailure<T>> failures = new ArrayList<BatchFailure<T>>(itemNames.size());
+		for (String itemName : itemNames) {
+			failures.add(new BatchFailure<T>(entries.get(itemName), itemName, e));
+		}
+		return failures;
+	}
+
+	/**
+	 * {@link SimpleDBDomain}で指定されたドメイン内のアイテムをすべてカウントします。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param consistentRead
+	 *            一貫性読み込みオプション。
+	 * 
+	 *            <a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
+	 *            >AWSドキュメント参照</a>
+	 */
+	public <T> int countAll(Class<T> clazz) {
+		return count(clazz, null);
+	}
+
+	/**
+	 * {@link SimpleDBDomain}で指定されたドメイン内のアイテムを、セグメントに分割して並列にカウントします。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param segments
+	 *            セグメントの数
+	 * @see #count(Class, QueryExpression, int)
+	 */
+	public <T> int countAll(Class<T> clazz, int segments) {
+		return count(clazz, null, segments);
+	}
+
+	/**
+	 * {@link SimpleDBDomain}で指定されたドメイン内のアイテムを条件カウントします。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文
+	 * @param consistentRead
+	 *            一貫性読み込みオプション。
+	 * 
+	 *            <a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
+	 *            >AWSドキュメント参照</a>
+	 */
+	public <T> int count(Class<T> clazz, QueryExpression expression) {
+		String whereExpression = null;
+		if (expression != null) {
+			whereExpression = expression.describe(this.config.getTypeCodecRegistry());
+		}
+		return countPages(createQuery(clazz, true, null, whereExpression, 0));
+	}
+
+	/**
+	 * ドメインをitemNameの範囲でセグメントに分割して、並列にカウントします。
+	 * 
+	 * 分割点は、itemNameの最小値と最大値を2回のselectで調べ、その間を文字列として均等に分けて決めます。where文は評価しないので、
+	 * 分割点を決めるコストはアイテム数や条件に関係なく一定です。itemNameが均等に分布していない場合はセグメントの大きさに偏りが出るので、
+	 * 分割点がわかっている場合は{@link #count(Class, QueryExpression, List)}で指定してください。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文。nullの場合はすべてのアイテムが対象になります。orderByは指定できません
+	 * @param segments
+	 *            セグメントの数。1の場合は{@link #count(Class, QueryExpression)}と同じです
+	 */
+	public <T> int count(Class<T> clazz, QueryExpression expression, int segments) {
+		if (segments < 1) {
+			throw new IllegalArgumentException("segmentsは1以上である必要があります");
+		}
+		if (segments == 1) {
+			return count(clazz, expression);
+		}
+		return countSegments(clazz, describeScanExpression(expression), interpolateSplitPoints(clazz, segments));
+	}
+
+	/**
+	 * 指定した分割点でドメインをセグメントに分割して、並列にカウントします。n個の分割点を指定するとn+1個のセグメントになります。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文。nullの場合はすべてのアイテムが対象になります。orderByは指定できません
+	 * @param splitPoints
+	 *            分割点のitemName。{@link SimpleDBItemName}で指定した型のオブジェクト
+	 */
+	public <T> int count(Class<T> clazz, QueryExpression expression, List<?> splitPoints) {
+		return countSegments(clazz, describeScanExpression(expression), encodeSplitPoints(splitPoints));
+	}
+
+	private <T> int countSegments(Class<T> clazz, String whereExpression, List<String> splitPoints) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i <= splitPoints.size(); i++) {
+			final String query = createQuery(clazz, true, null, describeSegment(whereExpression, splitPoints, i), 0);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return countPages(query);
+				}
+			});
+		}
+
+		int total = 0;
+		for (Integer count : invokeTasks(tasks)) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * count(*)のselectを実行します。SimpleDBは5秒で打ち切った途中までの件数とnextTokenを返すので、nextTokenがなくなるまで足し合わせます。
+	 */
+	private int countPages(String query) {
+		int count = 0;
+		String nextToken = null;
+		do {
+			SelectResult result = selectItems(query, nextToken);
+			if (!result.getItems().isEmpty()) {
+				String countValue = result.getItems().get(0).getAttributes().get(0).getValue();
+				count += Integer.parseInt(countValue);
+			}
+			nextToken = result.getNextToken();
+		} while (nextToken != null);
+		return count;
+	}
+
+	/**
+	 * selectを実行します。件数の最大値は2500件です。
+	 * 
+	 * <a href=
+	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/UsingSelect.html"
+	 * >AWSドキュメント参照</a>
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param consistentRead
+	 *            一貫性読み込みオプション。
+	 * 
+	 *            <a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
+	 *            >AWSドキュメント参照</a>
+	 * @return 0件の場合は空のListが返ってきます。
+	 */
+	public <T> List<T> selectAll(Class<T> clazz) {
+		String query = createQuery(clazz, false, null, null, MAX_QUERY_LIMIT);
+		Set<String> noEagerBlobs = Collections.emptySet();
+		return new ArrayList<T>(fetch(clazz, query, null, noEagerBlobs, null).getItems());
+	}
+
+	/**
+	 * selectを実行します。
+	 * 
+	 * <a href=
+	 * "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/UsingSelect.html"
+	 * >AWSドキュメント参照</a>
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文
+	 * @param consistentRead
+	 *            一貫性読み込みオプション。
+	 * 
+	 *            <a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
+	 *            >AWSドキュメント参照</a>
+	 * @return 0件の場合は空のListが返ってきます。
+	 */
+	public <T> List<T> select(Class<T> clazz, QueryExpression expression) {
+		return new ArrayList<T>(query(clazz, expression).getItems());
+	}
+
+	/**
+	 * selectを実行し、残りのアイテムがある場合は次のページを取得できる{@link QueryResult}を返します。
+	 * 
+	 * <pre>
+	 * QueryResult&lt;Book&gt; result = mapper.query(Book.class, expression);
+	 * books.addAll(result.getItems());
+	 * while (result.hasNext()) {
+	 * 	result = result.nextPage();
+	 * 	books.addAll(result.getItems());
+	 * }
+	 * </pre>
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文
+	 */
+	public <T> QueryResult<T> query(Class<T> clazz, QueryExpression expression) {
+		String whereExpression = expression.describe(this.config.getTypeCodecRegistry());
+		List<String> attributeNames = withVersionAttribute(this.reflector.getMetadata(clazz),
+				expression.getSelectAttributes());
+		String query = createQuery(clazz, false, attributeNames, whereExpression, expression.getLimit());
+		long t = System.currentTimeMillis();
+		QueryResult<T> result = fetch(clazz, query, null, new HashSet<String>(expression.getEagerBlobFetchFields()),
+				attributeNames);
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("fetch time: %s(msec) query: %s", (System.currentTimeMillis() - t), query));
+		}
+		return result;
+	}
+
+	/**
+	 * itemNameを指定してloadします。selectではなくGetAttributesで取得し、
+	 * {@link SimpleDBMapperConfig#setConsistentRead(boolean)}の設定に従います。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param itemName
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @param consistentRead
+	 *            一貫性読み込みオプション。 <a href=
+	 *            "http://docs.amazonwebservices.com/AmazonSimpleDB/latest/DeveloperGuide/ConsistencySummary.html"
+	 *            >AWSドキュメント参照</a>
+	 * @throws SimpleDBMapperNotFoundException
+	 *             見つからなかった場合にスローされます
+	 * @throws SimpleDBMapperUnsupportedTypeException
+	 */
+	public <T> T load(Class<T> clazz, Object itemName) throws SimpleDBMapperNotFoundException {
+		Set<String> noEagerBlobs = Collections.emptySet();
+		return load(clazz, itemName, noEagerBlobs);
+	}
+
+	/**
+	 * {@link FetchType#LAZY}で指定されたBlobもS3から取得してloadします。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param itemName
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @param eagerBlobFetchFields
+	 *            S3から取得する{@link SimpleDBBlob}のフィールド名
+	 * @throws SimpleDBMapperNotFoundException
+	 *             見つからなかった場合にスローされます
+	 */
+	public <T> T load(Class<T> clazz, Object itemName, Collection<String> eagerBlobFetchFields)
+			throws SimpleDBMapperNotFoundException {
+		return getItem(clazz, itemName, null, new HashSet<String>(eagerBlobFetchFields));
+	}
+
+	/**
+	 * 指定したattributeだけをloadします。指定しなかったattributeのフィールドはnullのままです。
+	 * 
+	 * 戻り値をsaveすると、指定したattributeだけを保存します。指定しなかったattributeやS3のBlobは変更も削除もしません。
+	 * {@link SimpleDBVersionAttribute}のattributeは指定しなくても取得するので、saveはConditional Putになります。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param itemName
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @param attributeNames
+	 *            取得するattribute名
+	 * @throws SimpleDBMapperNotFoundException
+	 *             見つからなかった場合、指定したattributeが一つもなかった場合にスローされます
+	 */
+	public <T> T loadAttributes(Class<T> clazz, Object itemName, String... attributeNames)
+			throws SimpleDBMapperNotFoundException {
+		Set<String> noEagerBlobs = Collections.emptySet();
+		return getItem(clazz, itemName,
+				withVersionAttribute(this.reflector.getMetadata(clazz), Arrays.asList(attributeNames)), noEagerBlobs);
+	}
+
+	/**
+	 * 取得するattributeに{@link SimpleDBVersionAttribute}のattributeを加えます。versionを取得しないと、saveした時に
+	 * Conditional Putにならず、他の更新を上書きしてしまうためです。
+	 * 
+	 * @return 取得するattribute名。すべて取得する場合はnull
+	 */
+	private List<String> withVersionAttribute(EntityMetadata metadata, Collection<String> attributeNames) {
+		if (attributeNames == null || attributeNames.isEmpty()) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>(attributeNames);
+		PropertyMetadata versionProperty = metadata.getVersionProperty();
+		if (versionProperty != null && !names.contains(versionProperty.getAttributeName())) {
+			names.add(versionProperty.getAttributeName());
+		}
+		return names;
+	}
+
+	/**
+	 * GetAttributesでアイテムを一件取得します。selectよりも安く、速く取得できます。
+	 * 
+	 * @param attributeNames
+	 *            取得するattribute名。すべて取得する場合はnull
+	 */
+	private <T> T getItem(Class<T> clazz, Object itemName, List<String> attributeNames,
+			Set<String> eagerBlobFetchFields) throws SimpleDBMapperNotFoundException {
+		if (!this.reflector.isItemNameSupportedType(itemName.getClass())) {
+			throw new SimpleDBMapperUnsupportedTypeException(itemName.getClass() + " is not supported.");
+		}
+		EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		String encodedItemName = this.reflector.encodeObjectAsSimpleDBFormat(itemName);
+
+		GetAttributesRequest request = new GetAttributesRequest(metadata.getDomainName(), encodedItemName);
+		request.setConsistentRead(this.config.isConsistentRead());
+		if (attributeNames != null && !attributeNames.isEmpty()) {
+			request.setAttributeNames(attributeNames);
+		}
+		GetAttributesResult result = this.sdb.getAttributes(request);
+		if (result.getAttributes().isEmpty()) {
+			// GetAttributesは、アイテムがない場合も空の結果を返す
+			throw new SimpleDBMapperNotFoundException("見つかりません。domain=" + metadata.getDomainName()
+					+ ", itemName=" + encodedItemName);
+		}
+
+		List<BlobDownload> downloads = new ArrayList<BlobDownload>();
+		T object = toObject(clazz, metadata, new Item(encodedItemName, result.getAttributes()), eagerBlobFetchFields,
+				attributeNames, downloads);
+		downloadBlobs(downloads);
+		return object;
+	}
+
+	/**
+	 * itemNameを指定して、複数のアイテムをまとめてloadします。
+	 * 
+	 * itemNameを20件ずつitemName() in (...)のselectにまとめ、並列に取得します。{@link FetchType#EAGER}のBlobも取得されます。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param itemNames
+	 *            SimpleDBのitemNameで、{@link SimpleDBItemName}で指定した型のオブジェクト
+	 */
+	public <I, T> BatchLoadResult<I, T> batchLoad(Class<T> clazz, Collection<I> itemNames) {
+		EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		List<BatchFailure<I>> failures = new ArrayList<BatchFailure<I>>();
+		Map<String, I> entries = new LinkedHashMap<String, I>();
+		for (I itemName : itemNames) {
+			try {
+				if (!this.reflector.isItemNameSupportedType(itemName.getClass())) {
+					throw new SimpleDBMapperUnsupportedTypeException(itemName.getClass() + " is not supported.");
+				}
+				entries.put(this.reflector.encodeObjectAsSimpleDBFormat(itemName), itemName);
+			} catch (RuntimeException e) {
+				failures.add(new BatchFailure<I>(itemName, null, e));
+			}
+		}
+
+		List<String> names = new ArrayList<String>(entries.keySet());
+		List<Callable<BatchLoadChunk<T>>> tasks = new ArrayList<Callable<BatchLoadChunk<T>>>();
+		for (int i = 0; i < names.size(); i += MAX_COMPARISONS_PER_PREDICATE) {
+			int end = Math.min(i + MAX_COMPARISONS_PER_PREDICATE, names.size());
+			tasks.add(createBatchLoadTask(clazz, metadata, names.subList(i, end)));
+		}
+		Map<String, T> objects = new HashMap<String, T>();
+		for (BatchLoadChunk<T> chunk : invokeTasks(tasks)) {
+			if (chunk.exception == null) {
+				objects.putAll(chunk.objects);
+				continue;
+			}
+			for (String itemName : chunk.itemNames) {
+				failures.add(new BatchFailure<I>(entries.remove(itemName), itemName, chunk.exception));
+			}
+		}
+
+		Map<I, T> items = new LinkedHashMap<I, T>();
+		List<I> notFound = new ArrayList<I>();
+		for (Map.Entry<String, I> entry : entries.entrySet()) {
+			T object = objects.get(entry.getKey());
+			if (object == null) {
+				notFound.add(entry.getValue());
+			} else {
+				items.put(entry.getValue(), object);
+			}
+		}
+		return new BatchLoadResult<I, T>(items, notFound, failures);
+	}
+
+	/**
+	 * 複数のスレッドから同時に呼ばれたloadをまとめて{@link #batchLoad(Class, Collection)}で取得する{@link BatchingLoader}を作ります。
+	 * 
+	 * 使い終わったら{@link BatchingLoader#close()}を呼んでください。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param window
+	 *            最初のloadからまとめて取得するまでに待つ時間
+	 * @param unit
+	 *            windowの単位
+	 * @param maxBatchSize
+	 *            この件数が集まったら、時間を待たずに取得します
+	 */
+	public <I, T> BatchingLoader<I, T> batchingLoader(Class<T> clazz, long window, TimeUnit unit, int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSizeは1以上である必要があります");
+		}
+		checkNotClosed();
+		return new BatchingLoader<I, T>(this, clazz, window, unit, maxBatchSize,
+				this.config.getSimpleDBAccessThreadPoolSize());
+	}
+
+	private <T> Callable<BatchLoadChunk<T>> createBatchLoadTask(final Class<T> clazz, final EntityMetadata metadata,
+			final List<String> itemNames) {
+		return new Callable<BatchLoadChunk<T>>() {
+			@Override
+			public BatchLoadChunk<T> call() {
+				BatchLoadChunk<T> chunk = new BatchLoadChunk<T>(itemNames);
+				try {
+					String where = "itemName() in (" + quoteValues(itemNames) + ")";
+					String query = createQuery(clazz, false, null, where, 0);
+					Set<String> noEagerBlobs = Collections.emptySet();
+					List<BlobDownload> downloads = new ArrayList<BlobDownload>();
+					String nextToken = null;
+					do {
+						SelectResult result = selectItems(query, nextToken);
+						for (Item item : result.getItems()) {
+							chunk.objects.put(item.getName(),
+									toObject(clazz, metadata, item, noEagerBlobs, null, downloads));
+						}
+						nextToken = result.getNextToken();
+					} while (nextToken != null);
+					downloadBlobs(downloads);
+				} catch (RuntimeException e) {
+					chunk.exception = e;
+				}
+				return chunk;
+			}
+		};
+	}
+
+	/**
+	 * selectを実行して1ページ分を取得します。ページングの状態は戻り値だけが持つので、複数スレッドから同時に呼ぶことができます。
+	 * 
+	 * @param nextToken
+	 *            前のページの{@link QueryResult#getNextToken()}。最初のページの場合はnull
+	 * @param eagerBlobFetchFields
+	 *            {@link FetchType#LAZY}でもS3から取得するBlobのフィールド名
+	 * @param attributeNames
+	 *            queryで取得するattribute名。すべて取得する場合はnullか空
+	 */
+	<T> QueryResult<T> fetch(Class<T> clazz, String query, String nextToken, Set<String> eagerBlobFetchFields,
+			Collection<String> attributeNames) {
+		SelectResult result = selectItems(query, nextToken);
+		List<T> objects = new ArrayList<T>();
+		EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		List<BlobDownload> downloads = new ArrayList<BlobDownload>();
+		// SDBのitemでループ
+		for (Item item : result.getItems()) {
+			objects.add(toObject(clazz, metadata, item, eagerBlobFetchFields, attributeNames, downloads));
+		}
+		// ページ内のBlobをまとめて並列にダウンロードする
+		downloadBlobs(downloads);
+		return new QueryResult<T>(this, clazz, query, eagerBlobFetchFields, attributeNames, objects,
+				result.getNextToken());
+	}
+
+	/**
+	 * @param nextToken
+	 *            最初のページの場合はnull
+	 */
+	SelectResult selectItems(String query, String nextToken) {
+		SelectRequest selectRequest = new SelectRequest(query, this.config.isConsistentRead());
+		selectRequest.setNextToken(nextToken);
+		return this.sdb.select(selectRequest);
+	}
+
+	/**
+	 * SimpleDBのitemをPOJOに変換します。
+	 * 
+	 * @param eagerBlobFetchFields
+	 *            {@link FetchType#LAZY}でもS3から取得するBlobのフィールド名
+	 * @param attributeNames
+	 *            itemを取得した時に指定したattribute名。すべて取得した場合はnullか空
+	 */
+	<T> T toObject(Class<T> clazz, EntityMetadata metadata, Item item, Set<String> eagerBlobFetchFields,
+			Collection<String> attributeNames) {
+		List<BlobDownload> downloads = new ArrayList<BlobDownload>();
+		T instance = toObject(clazz, metadata, item, eagerBlobFetchFields, attributeNames, downloads);
+		downloadBlobs(downloads);
+		return instance;
+	}
+
+	/**
+	 * SimpleDBのitemをPOJOに変換します。Blobはダウンロードせずに、downloadsに追加します。
+	 */
+	private <T> T toObject(Class<T> clazz, EntityMetadata metadata, Item item, Set<String> eagerBlobFetchFields,
+			Collection<String> attributeNames, List<BlobDownload> downloads) {
+		try {
+			T instance = clazz.cast(metadata.newInstance());
+
+			// ItemNameのセット
+			String itemName = item.getName();
+			Object itemNameValue = this.reflector.decodeItemNameFromSimpleDBFormat(metadata, itemName);
+			metadata.getItemNameAccessor().set(instance, itemNameValue);
+
+			// itemのattributesでループ
+			List<Attribute> attrs = item.getAttributes();
+			for (Attribute attr : attrs) {
+				PropertyMetadata property = metadata.getProperty(attr.getName());
+				if (property == null) {
+					continue;
+				}
+				// Blobの場合はLazyFetchをチェック
+				if (property.isBlob()) {
+					S3TaskResult reference = parseBlobReference(property, attr.getValue());
+					if (eagerBlobFetchFields.contains(property.getFieldName())
+							|| this.defaultEagerBlobFetchFields.contains(property.getFieldName())
+							|| property.getFetchType() == FetchType.EAGER) {
+						downloads.add(new BlobDownload(instance, property, reference));
+					} else if (property.isLazyBlob()) {
+						// S3の場所だけ覚えておき、アクセスされた時に取得する
+						String bucketName = reference.getBucketName();
+						property.getAccessor().set(instance,
+								LazyBlob.unloaded(this, property, bucketName, reference.getKey()));
+					}
+				} else {
+					this.reflector.setFieldValueFromAttribute(instance, property, attr.getValue());
+				}
+			}
+			if (this.config.isDirtyTracking()) {
+				this.snapshots.put(instance, EntitySnapshots.fromAttributes(attrs));
+			}
+			if (attributeNames != null && !attributeNames.isEmpty()) {
+				Map<String, Set<String>> projection = new HashMap<String, Set<String>>();
+				for (String attributeName : attributeNames) {
+					projection.put(attributeName, Collections.<String> emptySet());
+				}
+				this.projections.put(instance, projection);
+			}
+			return instance;
+		} catch (Exception e) {
+			throw new SimpleDBMapperException(e);
+		}
+	}
+
+	/**
+	 * BlobをS3の{@link ExecutorService}で並列にダウンロードし、すべて終わってからフィールドにセットします。
+	 * 
+	 * 同時に読み込むバイト数は{@link SimpleDBMapperConfig#getMaxBlobDownloadBytes()}までに制限されます。
+	 */
+	private void downloadBlobs(List<BlobDownload> downloads) {
+		if (downloads.isEmpty()) {
+			return;
+		}
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (BlobDownload download : downloads) {
+			tasks.add(createBlobDownloadTask(download));
+		}
+		List<Object> values = new ArrayList<Object>();
+		boolean success = false;
+		try {
+			if (tasks.size() == 1) {
+				// 1つだけならスレッドプールは使わない
+				values.add(tasks.get(0).call());
+			} else {
+				List<Future<Object>> futures = getS3Executor().invokeAll(tasks);
+				ExecutionException failure = null;
+				// 失敗しても、ダウンロードできたものは後片付けできるように、すべての結果を受け取る
+				for (Future<Object> future : futures) {
+					try {
+						values.add(future.get());
+					} catch (ExecutionException e) {
+						if (failure == null) {
+							failure = e;
+						}
+					}
+				}
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			success = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作が中断されました", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作に失敗", (Exception) e.getCause());
+		} catch (SimpleDBMapperException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作に失敗", e);
+		} finally {
+			if (!success) {
+				for (Object value : values) {
+					discardBlobValue(value);
+				}
+			}
+		}
+		for (int i = 0; i < downloads.size(); i++) {
+			BlobDownload download = downloads.get(i);
+			Object value = values.get(i);
+			if (download.property.isLazyBlob()) {
+				value = LazyBlob.loaded(this, download.property, download.reference.getBucketName(),
+						download.reference.getKey(), value);
+			}
+			download.property.getAccessor().set(download.instance, value);
+		}
+	}
+
+	/**
+	 * 使われなかったBlobの一時ファイルを削除します。
+	 */
+	private void discardBlobValue(Object value) {
+		if (value instanceof InputStream) {
+			IOUtils.closeQuietly((InputStream) value);
+		} else if (value instanceof File) {
+			((File) value).delete();
+		}
+	}
+
+	private Callable<Object> createBlobDownloadTask(final BlobDownload download) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() {
+				return downloadBlob(download.property, download.reference.getBucketName(), download.reference.getKey());
+			}
+		};
+	}
+
+	/**
+	 * S3からBlobをダウンロードして、フィールドの型に変換します。
+	 * 
+	 * 同時に読み込むバイト数は{@link SimpleDBMapperConfig#getMaxBlobDownloadBytes()}までに制限されます。メモリに読み込む型のBlobは、
+	 * HEADでサイズを調べて枠を確保してからGETするので、S3へのリクエストが一回増えます。
+	 * 
+	 * @return S3にない場合はnull
+	 */
+	Object downloadBlob(PropertyMetadata property, String bucketName, String key) {
+		if (this.reflector.isStreamingBlobType(property.getBlobValueType())) {
+			// メモリには読み込まない
+			S3Object s3Object = getBlobObject(bucketName, key);
+			if (s3Object == null) {
+				return null;
+			}
+			Object value = this.reflector.readBlobValue(property, s3Object.getObjectContent(), s3Object
+					.getObjectMetadata().getContentLength());
+			if (value instanceof InputStream) {
+				this.readStreams.put((InputStream) value, Boolean.TRUE);
+			}
+			return value;
+		}
+		// 枠を待つ間にS3のコネクションを開いたままにしないように、HEADでサイズを調べて枠を確保してからGETする
+		ObjectMetadata s3Metadata;
+		try {
+			s3Metadata = this.s3.getObjectMetadata(bucketName, key);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return null;
+			}
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作に失敗: " + key, e);
+		}
+		// サイズが上限を超えるBlobも、一つだけなら読めるようにする
+		int permits = (int) Math.max(1, Math.min(s3Metadata.getContentLength(), this.maxBlobDownloadBytes));
+		try {
+			this.blobDownloadPermits.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作が中断されました", e);
+		}
+		try {
+			S3Object s3Object = getBlobObject(bucketName, key);
+			if (s3Object == null) {
+				return null;
+			}
+			return this.reflector.readBlobValue(property, s3Object.getObjectContent(), s3Object.getObjectMetadata()
+					.getContentLength());
+		} finally {
+			this.blobDownloadPermits.release(permits);
+		}
+	}
+
+	/**
+	 * @return S3にない場合はnull
+	 */
+	private S3Object getBlobObject(String bucketName, String key) {
+		try {
+			return this.s3.getObject(bucketName, key);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return null;
+			}
+			throw new SimpleDBMapperS3HandleException("S3ダウンロード操作に失敗: " + key, e);
+		}
+	}
+
+	/**
+	 * SimpleDBに保存されている、blobListのBlobの参照情報を取得します。
+	 * 
+	 * @return attribute名と参照情報のMap
+	 */
+	private Map<String, S3TaskResult> getStoredBlobReferences(EntityMetadata metadata, String itemName,
+			List<S3BlobReference> blobList) {
+		List<String> attributeNames = new ArrayList<String>();
+		for (S3BlobReference s3BlobRef : blobList) {
+			if (s3BlobRef.getObject() != null) {
+				attributeNames.add(s3BlobRef.getAttributeName());
+			}
+		}
+		Map<String, S3TaskResult> references = new HashMap<String, S3TaskResult>();
+		if (attributeNames.isEmpty()) {
+			return references;
+		}
+		GetAttributesRequest request = new GetAttributesRequest(metadata.getDomainName(), itemName);
+		request.setAttributeNames(attributeNames);
+		request.setConsistentRead(true);
+		GetAttributesResult result = this.sdb.getAttributes(request);
+		for (Attribute attr : result.getAttributes()) {
+			PropertyMetadata property = metadata.getProperty(attr.getName());
+			if (property != null && property.isBlob()) {
+				references.put(attr.getName(), parseBlobReference(property, attr.getValue()));
+			}
+		}
+		return references;
+	}
+
+	/**
+	 * @param stored
+	 *            SimpleDBに保存されているBlobの参照情報。ない場合はnull
+	 * @return 保存されているBlobが、同じ場所にある同じ内容のものであればtrue
+	 */
+	private boolean isBlobUnchanged(S3TaskResult stored, String bucketName, String key, String md5) {
+		if (stored == null || !stored.isSuccess() || !md5.equals(stored.getMD5())
+				|| !bucketName.equals(stored.getBucketName()) || !key.equals(stored.getKey())) {
+			return false;
+		}
+		if (!this.config.isVerifyUnchangedBlobWithS3()) {
+			return true;
+		}
+		ObjectMetadata s3Metadata;
+		try {
+			s3Metadata = this.s3.getObjectMetadata(bucketName, key);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return false;
+			}
+			throw new SimpleDBMapperS3HandleException("S3のメタデータ取得に失敗: " + key, e);
+		}
+		String s3MD5 = s3Metadata.getUserMetadata().get("md5");
+		if (s3MD5 == null) {
+			// ユーザーメタデータがない場合は、マルチパートでなければETagがMD5になる
+			s3MD5 = s3Metadata.getETag();
+		}
+		return md5.equalsIgnoreCase(s3MD5);
+	}
+
+	private S3TaskResult parseBlobReference(PropertyMetadata property, String attributeValue) {
+		S3TaskResult reference = new S3TaskResult(Operation.DOWNLOAD, property.getAttributeName(), null, null);
+		reference.setSimpleDBAttributeValue(attributeValue);
+		return reference;
+	}
+
+	private String createS3Key(String prefix, String itemName, String attributeName) {
+		if (prefix == null) {
+			throw new SimpleDBMapperException("Blobのprefixにnullは指定できません");
+		}
+		StringBuilder s3Key = new StringBuilder();
+		prefix = prefix.trim();
+		s3Key.append(prefix);
+		if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+			s3Key.append("/");
+		}
+		s3Key.append(itemName).append("/").append(attributeName);
+		return s3Key.toString();
+	}
+
+	/**
+	 * {@link FetchType#LAZY}で取得しなかったBlobを、S3から取得してフィールドにセットします。SimpleDBへのqueryは行いません。
+	 * 
+	 * @param object
+	 *            {@link SimpleDBItemName}に値が入っているPOJO
+	 * @param fieldName
+	 *            {@link SimpleDBBlob}がついたフィールド名
+	 * @return 取得した値。S3にない場合はnull
+	 */
+	public Object loadBlob(Object object, String fieldName) {
+		EntityMetadata metadata = this.reflector.getMetadata(object.getClass());
+		PropertyMetadata property = null;
+		for (PropertyMetadata blobProperty : metadata.getBlobProperties()) {
+			if (blobProperty.getFieldName().equals(fieldName)) {
+				property = blobProperty;
+				break;
+			}
+		}
+		if (property == null) {
+			throw new SimpleDBMapperException(fieldName + "は@SimpleDBBlobがついたフィールドではありません");
+		}
+		Object current = property.getAccessor().get(object);
+		if (current instanceof LazyBlob) {
+			return ((LazyBlob<?>) current).get();
+		}
+		String itemName = this.reflector.encodeItemNameAsSimpleDBFormat(object, metadata);
+		String key = createS3Key(metadata.getS3KeyPrefix(), itemName, property.getAttributeName());
+		Object value = downloadBlob(property, metadata.getS3BucketName(), key);
+		property.getAccessor().set(object, value);
+		return value;
+	}
+
+	/**
+	 * selectを実行し、結果を一件ずつ返す{@link Iterator}を返します。
+	 * 
+	 * nextTokenをたどって次のページを自動的に取得します。メモリに持つのは今のページだけで、POJOへの変換は{@link Iterator#next()}
+	 * が呼ばれた時に行うので、大量のアイテムがあるドメインでも使えます。
+	 * 
+	 * {@link QueryExpression#setPrefetchDepth(int)}を指定した場合は、次のページをバックグラウンドで取得します。
+	 * {@link QueryExpression#setLimit(int)}を指定した場合は、その件数を返したところで終わります。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文
+	 */
+	public <T> Iterator<T> iterate(Class<T> clazz, QueryExpression expression) {
+		String whereExpression = expression.describe(this.config.getTypeCodecRegistry());
+		EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		List<String> attributeNames = withVersionAttribute(metadata, expression.getSelectAttributes());
+		String query = createQuery(clazz, false, attributeNames, whereExpression, expression.getLimit());
+		int prefetchDepth = expression.getPrefetchDepth();
+		// スレッドプールのタスクの中ではプリフェッチしない
+		ExecutorService prefetchExecutor = prefetchDepth > 0 && !isInSimpleDBTask() ? getSimpleDBExecutor() : null;
+		return new QueryIterator<T>(this, clazz, metadata, query, new HashSet<String>(
+				expression.getEagerBlobFetchFields()), attributeNames, expression.getLimit(), prefetchExecutor,
+				prefetchDepth);
+	}
+
+	/**
+	 * ドメインをitemNameの範囲でセグメントに分割して、並列にselectします。
+	 * 
+	 * 分割点は、itemNameだけのselectでドメイン全体をたどり、一定の間隔でサンプリングして決めます。そのためのselectが
+	 * (アイテム数 / 2500)回かかります。分割点がわかっている場合は{@link #parallelScan(Class, QueryExpression, List, ScanHandler)}
+	 * で指定してください。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文。nullの場合はすべてのアイテムが対象になります。orderByは指定できません。limitはすべてのセグメントを合わせた件数です
+	 * @param segments
+	 *            セグメントの数
+	 * @param handler
+	 *            取得したアイテムを受け取る。スレッドプールのスレッドから呼ばれます。この中で呼んだsaveAllやbatchLoadなどは、
+	 *            スレッドプールを使わずにこのスレッドで順番に実行されます
+	 * @return 取得したアイテムの数
+	 */
+	public <T> int parallelScan(Class<T> clazz, QueryExpression expression, int segments, ScanHandler<T> handler) {
+		if (segments < 1) {
+			throw new IllegalArgumentException("segmentsは1以上である必要があります");
+		}
+		List<String> splitPoints = sampleSplitPoints(clazz, describeScanExpression(expression), segments);
+		return scanSegments(clazz, expression, splitPoints, handler);
+	}
+
+	/**
+	 * ドメイン全体のitemNameを一定の間隔でサンプリングして、セグメントの分割点を決めます。
+	 * 
+	 * アイテム数は事前にわからないので、サンプルが上限に達したら一つおきに間引いて間隔を倍にします。
+	 */
+	private List<String> sampleSplitPoints(Class<?> clazz, String whereExpression, int segments) {
+		List<String> splitPoints = new ArrayList<String>();
+		if (segments <= 1) {
+			return splitPoints;
+		}
+		StringBuilder query = new StringBuilder("select itemName() from ");
+		query.append(quoteName(getDomainName(clazz)));
+		if (whereExpression != null) {
+			query.append(" where ").append(whereExpression);
+		}
+		query.append(" limit ").append(MAX_QUERY_LIMIT);
+		List<String> samples = new ArrayList<String>();
+		long seen = 0;
+		long stride = 1;
+		String nextToken = null;
+		do {
+			SelectResult result = selectItems(query.toString(), nextToken);
+			for (Item item : result.getItems()) {
+				if (seen++ % stride != 0) {
+					continue;
+				}
+				samples.add(item.getName());
+				if (samples.size() >= MAX_SPLIT_SAMPLES) {
+					List<String> thinned = new ArrayList<String>(samples.size() / 2);
+					for (int i = 0; i < samples.size(); i += 2) {
+						thinned.add(samples.get(i));
+					}
+					samples = thinned;
+					stride *= 2;
+				}
+			}
+			nextToken = result.getNextToken();
+		} while (nextToken != null);
+
+		Collections.sort(samples);
+		for (int i = 1; i < segments && !samples.isEmpty(); i++) {
+			String splitPoint = samples.get(i * samples.size() / segments);
+			if (!splitPoints.contains(splitPoint)) {
+				splitPoints.add(splitPoint);
+			}
+		}
+		return splitPoints;
+	}
+
+	/**
+	 * itemNameの最小値と最大値の間を、文字列として均等に分けた分割点を作ります。selectは2回だけです。
+	 * 
+	 * 共通の接頭辞より後ろの文字を、両端の文字の範囲を基数とする数として扱い、その間を分けます。ゼロパディングされた数値のitemNameなら、
+	 * 10進数として均等に分けることになります。
+	 */
+	private List<String> interpolateSplitPoints(Class<?> clazz, int segments) {
+		List<String> splitPoints = new ArrayList<String>();
+		String first = selectBoundaryItemName(clazz, "asc");
+		String last = selectBoundaryItemName(clazz, "desc");
+		if (first == null || last == null || first.compareTo(last) >= 0) {
+			return splitPoints;
+		}
+		int prefix = 0;
+		while (prefix < first.length() && prefix < last.length() && first.charAt(prefix) == last.charAt(prefix)) {
+			prefix++;
+		}
+		char minChar = Character.MAX_VALUE;
+		char maxChar = Character.MIN_VALUE;
+		for (String itemName : new String[] { first, last }) {
+			for (int i = prefix; i < itemName.length(); i++) {
+				minChar = (char) Math.min(minChar, itemName.charAt(i));
+				maxChar = (char) Math.max(maxChar, itemName.charAt(i));
+			}
+		}
+		int base = Math.max(maxChar - minChar + 1, 2);
+		// 両端の長さまで。ただし(最大値 - 最小値) * segmentsがlongに収まる桁数まで
+		int length = Math.max(first.length(), last.length()) - prefix;
+		int digits = 1;
+		long scale = base;
+		while ((digits < length || scale < segments) && scale <= Long.MAX_VALUE / base / segments) {
+			scale *= base;
+			digits++;
+		}
+		long low = toDigits(first, prefix, digits, minChar, base);
+		long high = toDigits(last, prefix, digits, minChar, base);
+		for (int i = 1; i < segments; i++) {
+			long value = low + (high - low) * i / segments;
+			char[] chars = new char[digits];
+			for (int j = digits - 1; j >= 0; j--) {
+				chars[j] = (char) (minChar + value % base);
+				value /= base;
+			}
+			String splitPoint = first.substring(0, prefix) + new String(chars);
+			if (splitPoint.compareTo(first) > 0 && splitPoint.compareTo(last) <= 0
+					&& !splitPoints.contains(splitPoint)) {
+				splitPoints.add(splitPoint);
+			}
+		}
+		return splitPoints;
+	}
+
+	private long toDigits(String itemName, int prefix, int digits, char minChar, int base) {
+		long value = 0;
+		for (int i = 0; i < digits; i++) {
+			int index = prefix + i;
+			int digit = index < itemName.length() ? itemName.charAt(index) - minChar : 0;
+			value = value * base + Math.max(0, Math.min(digit, base - 1));
+		}
+		return value;
+	}
+
+	/**
+	 * @param order
+	 *            ascなら最小値、descなら最大値
+	 * @return ドメインが空の場合はnull
+	 */
+	private String selectBoundaryItemName(Class<?> clazz, String order) {
+		return selectFirstItemName("select itemName() from " + quoteName(getDomainName(clazz))
+				+ " where itemName() is not null order by itemName() " + order + " limit 1");
+	}
+
+	/**
+	 * 時間切れで空のページが返ることがあるので、アイテムが見つかるかnextTokenがなくなるまで続けます
+	 * 
+	 * @return アイテムがない場合はnull
+	 */
+	private String selectFirstItemName(String query) {
+		String nextToken = null;
+		do {
+			SelectResult result = selectItems(query, nextToken);
+			if (!result.getItems().isEmpty()) {
+				return result.getItems().get(0).getName();
+			}
+			nextToken = result.getNextToken();
+		} while (nextToken != null);
+		return null;
+	}
+
+	/**
+	 * 指定した分割点でドメインをセグメントに分割して、並列にselectします。n個の分割点を指定するとn+1個のセグメントになります。
+	 * 
+	 * @param clazz
+	 *            {@link SimpleDBDomain}アノテーションがついたPOJO
+	 * @param expression
+	 *            where文。nullの場合はすべてのアイテムが対象になります。orderByは指定できません。limitはすべてのセグメントを合わせた件数です
+	 * @param splitPoints
+	 *            分割点のitemName。{@link SimpleDBItemName}で指定した型のオブジェクト
+	 * @param handler
+	 *            取得したアイテムを受け取る。スレッドプールのスレッドから呼ばれます。この中で呼んだsaveAllやbatchLoadなどは、
+	 *            スレッドプールを使わずにこのスレッドで順番に実行されます
+	 * @return 取得したアイテムの数
+	 */
+	public <T> int parallelScan(Class<T> clazz, QueryExpression expression, List<?> splitPoints,
+			ScanHandler<T> handler) {
+		return scanSegments(clazz, expression, encodeSplitPoints(splitPoints), handler);
+	}
+
+	/**
+	 * @return SimpleDBの形式にして、重複を除いて並べた分割点
+	 */
+	private List<String> encodeSplitPoints(List<?> splitPoints) {
+		Set<String> encoded = new HashSet<String>();
+		for (Object splitPoint : splitPoints) {
+			encoded.add(this.reflector.encodeObjectAsSimpleDBFormat(splitPoint));
+		}
+		List<String> sorted = new ArrayList<String>(encoded);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private <T> int scanSegments(final Class<T> clazz, QueryExpression expression, List<String> splitPoints,
+			final ScanHandler<T> handler) {
+		String whereExpression = describeScanExpression(expression);
+		int limit = expression != null && expression.getLimit() > 0 ? expression.getLimit() : MAX_QUERY_LIMIT;
+		// limitはすべてのセグメントを合わせた件数の上限。指定がなければnull
+		final AtomicInteger remaining = expression != null && expression.getLimit() > 0 ? new AtomicInteger(
+				expression.getLimit()) : null;
+		final Set<String> eagerBlobFetchFields = new HashSet<String>();
+		final EntityMetadata metadata = this.reflector.getMetadata(clazz);
+		final List<String> attributeNames = expression != null ? withVersionAttribute(metadata,
+				expression.getSelectAttributes()) : null;
+		if (expression != null) {
+			eagerBlobFetchFields.addAll(expression.getEagerBlobFetchFields());
+		}
+
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i <= splitPoints.size(); i++) {
+			final String query = createQuery(clazz, false, attributeNames,
+					describeSegment(whereExpression, splitPoints, i), limit);
+			final int segment = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					Iterator<T> iterator = new QueryIterator<T>(SimpleDBMapper.this, clazz, metadata, query,
+							eagerBlobFetchFields, attributeNames, 0, null, 0);
+					int count = 0;
+					while (iterator.hasNext()) {
+						if (remaining != null && remaining.getAndDecrement() <= 0) {
+							break;
+						}
+						handler.handle(segment, iterator.next());
+						count++;
+					}
+					return count;
+				}
+			});
+		}
+
+		int total = 0;
+		for (Integer count : invokeTasks(tasks)) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * i番目のセグメントのwhere文を作ります。条件がない場合はnullを返します。
+	 */
+	private String describeSegment(String whereExpression, List<String> splitPoints, int i) {
+		StringBuilder where = new StringBuilder();
+		if (whereExpression != null) {
+			where.append("(").append(whereExpression.trim()).append(")");
+		}
+		if (i > 0) {
+			where.append(where.length() > 0 ? " and " : "");
+			where.append("itemName() >= ").append(quoteValue(splitPoints.get(i - 1)));
+		}
+		if (i < splitPoints.size()) {
+			where.append(where.length() > 0 ? " and " : "");
+			where.append("itemName() < ").append(quoteValue(splitPoints.get(i)));
+		}
+		return where.length() > 0 ? where.toString() : null;
+	}
+
+	private String describeScanExpression(QueryExpression expression) {
+		if (expression == null) {
+			return null;
+		}
+		if (expression.getSort() != null) {
+			throw new SimpleDBMapperException("parallelScanではorderByは指定できません");
+		}
+		return expression.describe(this.config.getTypeCodecRegistry());
+	}
+
+	/**
+	 * @param attributeNames
+	 *            取得するattribute名。nullか空の場合はすべて取得します
+	 */
+	private <T> String createQuery(Class<T> clazz, boolean isCount, Collection<String> attributeNames,
+			String whereExpression, int limit) {
+		String domainName = getDomainName(clazz);
+		StringBuilder query = new StringBuilder("select ");
 		if (isCount) {
 			query.append("count(*)");
-		} else {
+		} else if (attributeNames == null || attributeNames.isEmpty()) {
 			query.append("*");
+		} else {
+			String separator = "";
+			for (String attributeName : attributeNames) {
+				query.append(separator).append(quoteName(attributeName));
+				separator = ", ";
+			}
 		}
 		query.append(" from ");
 		query.append(quoteName(domainName));
@@ -661,4 +2579,96 @@ public class SimpleDBMapper {
 		return new QueryExpressionBuilder<T>(clazz, this);
 	}
 
+	/**
+	 * JVMの終了を妨げないように、デーモンスレッドを作ります
+	 */
+	static class MapperThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		MapperThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			String threadName = "simpledb-mapper-" + this.name + "-" + this.threadNumber.getAndIncrement();
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * 実行中はスレッドに印をつけるタスクです。
+	 */
+	private static class SimpleDBTask<R> implements Callable<R> {
+		private final Callable<R> task;
+
+		SimpleDBTask(Callable<R> task) {
+			this.task = task;
+		}
+
+		@Override
+		public R call() throws Exception {
+			IN_SIMPLEDB_TASK.set(Boolean.TRUE);
+			try {
+				return this.task.call();
+			} finally {
+				IN_SIMPLEDB_TASK.remove();
+			}
+		}
+	}
+
+	private static class BlobDownload {
+		final Object instance;
+		final PropertyMetadata property;
+		final S3TaskResult reference;
+
+		BlobDownload(Object instance, PropertyMetadata property, S3TaskResult reference) {
+			this.instance = instance;
+			this.property = property;
+			this.reference = reference;
+		}
+	}
+
+	private static class BlobLookupResult {
+		final List<String> itemNames;
+		final Map<String, List<S3TaskResult>> references = new HashMap<String, List<S3TaskResult>>();
+		RuntimeException exception;
+
+		BlobLookupResult(List<String> itemNames) {
+			this.itemNames = itemNames;
+		}
+	}
+
+	private static class BatchLoadChunk<T> {
+		final List<String> itemNames;
+		final Map<String, T> objects = new HashMap<String, T>();
+		RuntimeException exception;
+
+		BatchLoadChunk(List<String> itemNames) {
+			this.itemNames = itemNames;
+		}
+	}
+
+	private static class BatchPutEntry<T> {
+		final T object;
+		final String itemName;
+		final List<ReplaceableAttribute> attributes;
+		final List<String> nullKeys;
+		final List<Attribute> deletedValues;
+		final Map<String, Set<String>> snapshot;
+
+		BatchPutEntry(T object, String itemName, List<ReplaceableAttribute> attributes, List<String> nullKeys,
+				List<Attribute> deletedValues, Map<String, Set<String>> snapshot) {
+			this.object = object;
+			this.itemName = itemName;
+			this.attributes = attributes;
+			this.nullKeys = nullKeys;
+			this.deletedValues = deletedValues;
+			this.snapshot = snapshot;
+		}
+	}
+
 }
@@ -15,6 +15,13 @@
  */
 package com.dateofrock.simpledbmapper;
 
+import java.util.concurrent.ExecutorService;
+
+import com.dateofrock.simpledbmapper.accessor.AccessorFactory;
+import com.dateofrock.simpledbmapper.accessor.GeneratedAccessorFactory;
+import com.dateofrock.simpledbmapper.codec.TypeCodecRegistry;
+import com.dateofrock.simpledbmapper.s3.MultipartUpload;
+
 /**
  * 
  * @author Takehito Tanabe (dateofrock at gmail dot com)
@@ -24,10 +31,25 @@ public class SimpleDBMapperConfig {
 	public static final SimpleDBMapperConfig DEFAULT;
 
 	public static final int DEFAULT_S3_ACCESS_THREAD_POOL_SIZE = 2;
+	public static final int DEFAULT_SIMPLEDB_ACCESS_THREAD_POOL_SIZE = 4;
 	public static final boolean DEFAULT_CONSISTENT_READ = true;
+	public static final int DEFAULT_MAX_BLOB_DOWNLOAD_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_MULTIPART_UPLOAD_THRESHOLD = 16 * 1024 * 1024;
+	public static final int DEFAULT_MULTIPART_UPLOAD_PART_SIZE = MultipartUpload.MIN_PART_SIZE;
 
 	private int s3AccessThreadPoolSize;
+	private int simpleDBAccessThreadPoolSize;
+	private ExecutorService s3AccessExecutor;
+	private ExecutorService simpleDBAccessExecutor;
 	private boolean consistentRead;
+	private int maxBlobDownloadBytes;
+	private int multipartUploadThreshold;
+	private int multipartUploadPartSize;
+	private boolean skipUnchangedBlobUpload;
+	private boolean verifyUnchangedBlobWithS3;
+	private boolean dirtyTracking;
+	private AccessorFactory accessorFactory;
+	private TypeCodecRegistry typeCodecRegistry;
 
 	static {
 		DEFAULT = new SimpleDBMapperConfig();
@@ -36,17 +58,143 @@ public class SimpleDBMapperConfig {
 	public SimpleDBMapperConfig() {
 		super();
 		this.s3AccessThreadPoolSize = DEFAULT_S3_ACCESS_THREAD_POOL_SIZE;
+		this.simpleDBAccessThreadPoolSize = DEFAULT_SIMPLEDB_ACCESS_THREAD_POOL_SIZE;
 		this.consistentRead = DEFAULT_CONSISTENT_READ;
+		this.maxBlobDownloadBytes = DEFAULT_MAX_BLOB_DOWNLOAD_BYTES;
+		this.multipartUploadThreshold = DEFAULT_MULTIPART_UPLOAD_THRESHOLD;
+		this.multipartUploadPartSize = DEFAULT_MULTIPART_UPLOAD_PART_SIZE;
+		this.accessorFactory = new GeneratedAccessorFactory();
+		this.typeCodecRegistry = new TypeCodecRegistry();
 	}
 
 	public int geS3AccessThreadPoolSize() {
 		return this.s3AccessThreadPoolSize;
 	}
 
+	/**
+	 * S3に同時にアクセスするスレッド数を指定します。スレッドプールは{@link SimpleDBMapper}ごとに一つだけ作られ、
+	 * {@link SimpleDBMapper#close()}で終了します。
+	 */
 	public void setS3AccessThreadPoolSize(int s3UploadThreadPoolSize) {
 		this.s3AccessThreadPoolSize = s3UploadThreadPoolSize;
 	}
 
+	public int getSimpleDBAccessThreadPoolSize() {
+		return this.simpleDBAccessThreadPoolSize;
+	}
+
+	/**
+	 * {@link SimpleDBMapper#saveAll(java.util.Collection)}などのバッチ処理で、同時にSimpleDBにアクセスするスレッド数を指定します。
+	 */
+	public void setSimpleDBAccessThreadPoolSize(int simpleDBAccessThreadPoolSize) {
+		this.simpleDBAccessThreadPoolSize = simpleDBAccessThreadPoolSize;
+	}
+
+	public ExecutorService getS3AccessExecutor() {
+		return this.s3AccessExecutor;
+	}
+
+	/**
+	 * S3へのアクセスに使う{@link ExecutorService}を指定します。指定した場合、
+	 * {@link #setS3AccessThreadPoolSize(int)}は使われず、{@link SimpleDBMapper#close()}でも終了しません。
+	 */
+	public void setS3AccessExecutor(ExecutorService s3AccessExecutor) {
+		this.s3AccessExecutor = s3AccessExecutor;
+	}
+
+	public ExecutorService getSimpleDBAccessExecutor() {
+		return this.simpleDBAccessExecutor;
+	}
+
+	/**
+	 * バッチ処理でSimpleDBへのアクセスに使う{@link ExecutorService}を指定します。指定した場合、
+	 * {@link #setSimpleDBAccessThreadPoolSize(int)}は使われず、{@link SimpleDBMapper#close()}でも終了しません。
+	 * バッチ処理の中でS3にアクセスすることがあるので、{@link #setS3AccessExecutor(ExecutorService)}とは別のものを指定してください。
+	 */
+	public void setSimpleDBAccessExecutor(ExecutorService simpleDBAccessExecutor) {
+		this.simpleDBAccessExecutor = simpleDBAccessExecutor;
+	}
+
+	public int getMaxBlobDownloadBytes() {
+		return this.maxBlobDownloadBytes;
+	}
+
+	/**
+	 * Blobを並列にダウンロードする際に、同時に読み込むバイト数の上限を指定します。デフォルトは64MBです。
+	 * 
+	 * 上限より大きいBlobは、他のダウンロードが終わってから一つずつ読み込みます。設定は{@link SimpleDBMapper}を作る時に反映されます。
+	 */
+	public void setMaxBlobDownloadBytes(int maxBlobDownloadBytes) {
+		this.maxBlobDownloadBytes = maxBlobDownloadBytes;
+	}
+
+	public int getMultipartUploadThreshold() {
+		return this.multipartUploadThreshold;
+	}
+
+	/**
+	 * BlobをS3のマルチパートアップロードで保存するサイズを指定します。デフォルトは16MBです。
+	 * 
+	 * 長さのわからないInputStreamのBlobは、このサイズまで先読みして判断します。
+	 */
+	public void setMultipartUploadThreshold(int multipartUploadThreshold) {
+		this.multipartUploadThreshold = multipartUploadThreshold;
+	}
+
+	public int getMultipartUploadPartSize() {
+		return this.multipartUploadPartSize;
+	}
+
+	/**
+	 * マルチパートアップロードのパートのサイズを指定します。S3の制限により、5MBより小さい値は5MBになります。
+	 * 
+	 * 一つのBlobにつき、最大で(S3にアクセスするスレッド数 + 1) × パートのサイズのメモリを使います。
+	 */
+	public void setMultipartUploadPartSize(int multipartUploadPartSize) {
+		this.multipartUploadPartSize = multipartUploadPartSize;
+	}
+
+	public boolean isSkipUnchangedBlobUpload() {
+		return this.skipUnchangedBlobUpload;
+	}
+
+	/**
+	 * trueの場合、saveする前にSimpleDBに保存されているBlobのMD5と比べ、変わっていないBlobはS3にアップロードしません。デフォルトはfalseです。
+	 * 
+	 * 比べるためにsaveごとにGetAttributesを一回呼びます。FileのBlobはMD5を計算するために一度読み込みます。長さがしきい値を超えるInputStreamのBlobは、常にアップロードします。
+	 */
+	public void setSkipUnchangedBlobUpload(boolean skipUnchangedBlobUpload) {
+		this.skipUnchangedBlobUpload = skipUnchangedBlobUpload;
+	}
+
+	public boolean isVerifyUnchangedBlobWithS3() {
+		return this.verifyUnchangedBlobWithS3;
+	}
+
+	/**
+	 * trueの場合、{@link #setSkipUnchangedBlobUpload(boolean)}で変わっていないと判断したBlobを、S3のHEADでも確認します。デフォルトはfalseです。
+	 * 
+	 * S3のオブジェクトが削除されていたり、SimpleDBMapperの外で書き換えられていた場合はアップロードします。
+	 */
+	public void setVerifyUnchangedBlobWithS3(boolean verifyUnchangedBlobWithS3) {
+		this.verifyUnchangedBlobWithS3 = verifyUnchangedBlobWithS3;
+	}
+
+	public boolean isDirtyTracking() {
+		return this.dirtyTracking;
+	}
+
+	/**
+	 * trueの場合、loadやsaveしたPOJOのattributeの値を覚えておき、saveでは変わったattributeだけを保存します。デフォルトはfalseです。
+	 * 
+	 * nullになったattributeは、もともと保存されていたものだけを削除します。何も変わっていない場合はSimpleDBにアクセスしません。
+	 * {@link SimpleDBVersionAttribute}がある場合は、覚えている値とversionが違えばすべてのattributeを保存します。
+	 * SimpleDBMapperの外でSimpleDBを書き換える場合は使わないでください。
+	 */
+	public void setDirtyTracking(boolean dirtyTracking) {
+		this.dirtyTracking = dirtyTracking;
+	}
+
 	public boolean isConsistentRead() {
 		return this.consistentRead;
 	}
@@ -55,4 +203,28 @@ public class SimpleDBMapperConfig {
 		this.consistentRead = consistentRead;
 	}
 
+	public AccessorFactory getAccessorFactory() {
+		return this.accessorFactory;
+	}
+
+	/**
+	 * POJOのインスタンス生成とフィールドの読み書きに使う{@link AccessorFactory}を指定します。デフォルトは
+	 * {@link GeneratedAccessorFactory}です。
+	 */
+	public void setAccessorFactory(AccessorFactory accessorFactory) {
+		this.accessorFactory = accessorFactory;
+	}
+
+	public TypeCodecRegistry getTypeCodecRegistry() {
+		return this.typeCodecRegistry;
+	}
+
+	/**
+	 * attribute、itemName、検索条件の値の変換に使う{@link TypeCodecRegistry}を指定します。独自の型を使いたい場合は、
+	 * {@link #getTypeCodecRegistry()}にコーデックを登録するか、このメソッドで差し替えてください。
+	 */
+	public void setTypeCodecRegistry(TypeCodecRegistry typeCodecRegistry) {
+		this.typeCodecRegistry = typeCodecRegistry;
+	}
+
 }
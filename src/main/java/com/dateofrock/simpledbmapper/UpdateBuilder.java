@@ -0,0 +1,200 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * POJOをloadせずに、アイテムのattributeを部分的に更新します。{@link SimpleDBMapper#update(Class, Object)}で作ります。
+ * 
+ * {@link #execute()}で、一回のPutAttributesと、必要な場合は一回のDeleteAttributesにまとめて送信します。attributeは
+ * {@link SimpleDBAttribute}で指定したattribute名で指定します。Blobは更新できません。
+ * 
+ * <pre>
+ * mapper.update(Book.class, 1L).set(&quot;price&quot;, 1000).addToSet(&quot;authors&quot;, &quot;Tanabe&quot;).expectVersion(version).execute();
+ * </pre>
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class UpdateBuilder<T> {
+
+	private final SimpleDBMapper mapper;
+	private final Class<T> clazz;
+	private final Object itemName;
+	private final Map<String, Collection<?>> replaced = new LinkedHashMap<String, Collection<?>>();
+	private final Map<String, Collection<?>> added = new LinkedHashMap<String, Collection<?>>();
+	private final Map<String, Collection<?>> removedValues = new LinkedHashMap<String, Collection<?>>();
+	private final Set<String> removed = new LinkedHashSet<String>();
+	private Long expectedVersion;
+
+	UpdateBuilder(SimpleDBMapper mapper, Class<T> clazz, Object itemName) {
+		this.mapper = mapper;
+		this.clazz = clazz;
+		this.itemName = itemName;
+	}
+
+	/**
+	 * attributeの値を置き換えます。Setのattributeの場合は{@link Collection}を指定します。nullの場合は{@link #remove(String)}
+	 * と同じです。
+	 */
+	public UpdateBuilder<T> set(String attributeName, Object value) {
+		if (value == null) {
+			return remove(attributeName);
+		}
+		clear(attributeName);
+		if (value instanceof Collection) {
+			this.replaced.put(attributeName, new ArrayList<Object>((Collection<?>) value));
+		} else {
+			this.replaced.put(attributeName, new ArrayList<Object>(Arrays.asList(value)));
+		}
+		return this;
+	}
+
+	/**
+	 * attributeを削除します。
+	 */
+	public UpdateBuilder<T> remove(String attributeName) {
+		clear(attributeName);
+		this.removed.add(attributeName);
+		return this;
+	}
+
+	/**
+	 * Setのattributeに要素を追加します。追加する要素だけをreplace=falseで送信します。
+	 * 
+	 * 同じattributeに先に指定した操作とは、呼んだ順に適用した結果になるようにまとめます。{@link #remove(String)}の後なら
+	 * 追加する要素だけに置き換え、{@link #removeFromSet(String, Object...)}で削除する要素からは除きます。
+	 */
+	public UpdateBuilder<T> addToSet(String attributeName, Object... values) {
+		removeAll(this.removedValues, attributeName, values);
+		if (this.removed.remove(attributeName)) {
+			// PutAttributesはDeleteAttributesより先に送るので、削除してから追加する場合は置き換えにする
+			append(this.replaced, attributeName, values);
+		} else if (this.replaced.containsKey(attributeName)) {
+			append(this.replaced, attributeName, values);
+		} else {
+			append(this.added, attributeName, values);
+		}
+		return this;
+	}
+
+	/**
+	 * Setのattributeから要素を削除します。削除する要素だけを値を指定して送信します。
+	 * 
+	 * 同じattributeに先に指定した操作とは、呼んだ順に適用した結果になるようにまとめます。
+	 */
+	public UpdateBuilder<T> removeFromSet(String attributeName, Object... values) {
+		removeAll(this.added, attributeName, values);
+		if (this.removed.contains(attributeName)) {
+			// attributeごと削除する
+			return this;
+		}
+		if (this.replaced.containsKey(attributeName)) {
+			removeAll(this.replaced, attributeName, values);
+			if (!this.replaced.containsKey(attributeName)) {
+				this.removed.add(attributeName);
+			}
+			return this;
+		}
+		append(this.removedValues, attributeName, values);
+		return this;
+	}
+
+	/**
+	 * {@link SimpleDBVersionAttribute}の値がversionの場合だけ更新します（Conditional Put）。
+	 * 
+	 * 指定しない場合もversionは新しい値に更新されます。
+	 */
+	public UpdateBuilder<T> expectVersion(Long version) {
+		this.expectedVersion = version;
+		return this;
+	}
+
+	/**
+	 * 更新を送信します。
+	 * 
+	 * @return 新しいversion。{@link SimpleDBVersionAttribute}がない場合はnull
+	 */
+	public Long execute() {
+		return this.mapper.executeUpdate(this);
+	}
+
+	private void clear(String attributeName) {
+		this.replaced.remove(attributeName);
+		this.added.remove(attributeName);
+		this.removedValues.remove(attributeName);
+		this.removed.remove(attributeName);
+	}
+
+	/**
+	 * mapのattributeNameの要素からvaluesを除きます。要素がなくなったらattributeNameごと除きます。
+	 */
+	private void removeAll(Map<String, Collection<?>> map, String attributeName, Object[] values) {
+		Collection<?> current = map.get(attributeName);
+		if (current == null) {
+			return;
+		}
+		current.removeAll(Arrays.asList(values));
+		if (current.isEmpty()) {
+			map.remove(attributeName);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void append(Map<String, Collection<?>> map, String attributeName, Object[] values) {
+		Collection<Object> current = (Collection<Object>) map.get(attributeName);
+		if (current == null) {
+			current = new ArrayList<Object>();
+			map.put(attributeName, current);
+		}
+		current.addAll(Arrays.asList(values));
+	}
+
+	Class<T> getEntityClass() {
+		return this.clazz;
+	}
+
+	Object getItemName() {
+		return this.itemName;
+	}
+
+	Map<String, Collection<?>> getReplaced() {
+		return this.replaced;
+	}
+
+	Map<String, Collection<?>> getAdded() {
+		return this.added;
+	}
+
+	Map<String, Collection<?>> getRemovedValues() {
+		return this.removedValues;
+	}
+
+	Set<String> getRemoved() {
+		return this.removed;
+	}
+
+	Long getExpectedVersion() {
+		return this.expectedVersion;
+	}
+}
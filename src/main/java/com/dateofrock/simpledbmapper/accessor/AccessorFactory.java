@@ -0,0 +1,45 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import java.lang.reflect.Field;
+
+/**
+ * {@link FieldAccessor}、{@link Instantiator}、{@link EntityMapping}を作るためのファクトリです。
+ * 
+ * {@link com.dateofrock.simpledbmapper.SimpleDBMapperConfig#setAccessorFactory(AccessorFactory)}
+ * で差し替えることができます。作られたアクセサはクラスごとにキャッシュされるので、このファクトリが呼ばれるのはクラスごとに一度だけです。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public interface AccessorFactory {
+
+	<T> Instantiator<T> createInstantiator(Class<T> clazz);
+
+	/**
+	 * @param entityClass
+	 *            {@link com.dateofrock.simpledbmapper.SimpleDBDomain}がついたクラス
+	 * @param field
+	 *            entityClassもしくはそのスーパークラスで宣言されたフィールド
+	 */
+	FieldAccessor createFieldAccessor(Class<?> entityClass, Field field);
+
+	/**
+	 * @return コンパイル時に読み取った{@link EntityMapping}。提供できない場合はnullを返し、実行時にアノテーションから読み取られます
+	 */
+	EntityMapping createEntityMapping(Class<?> entityClass);
+
+}
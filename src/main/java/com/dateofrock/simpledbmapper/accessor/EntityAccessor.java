@@ -0,0 +1,47 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import java.lang.reflect.Field;
+
+/**
+ * {@link com.dateofrock.simpledbmapper.SimpleDBDomain}がついたクラスごとのアクセサです。
+ * 
+ * 通常は{@link com.dateofrock.simpledbmapper.apt.SimpleDBDomainProcessor}
+ * によってコンパイル時に生成され、{@link GeneratedAccessorFactory}から使われます。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public interface EntityAccessor<T> {
+
+	/**
+	 * @return インスタンスを生成する{@link Instantiator}。生成コードからインスタンスを作れない場合はnull
+	 */
+	Instantiator<T> getInstantiator();
+
+	/**
+	 * @param field
+	 *            対象クラスもしくはそのスーパークラスで宣言されたフィールド
+	 * @return フィールドの{@link FieldAccessor}。生成コードからアクセスできないフィールドの場合はnull
+	 */
+	FieldAccessor getFieldAccessor(Field field);
+
+	/**
+	 * @return 対象クラスの{@link EntityMapping}。生成コードから参照できないクラスにフィールドが宣言されている場合はnull
+	 */
+	EntityMapping getEntityMapping();
+
+}
@@ -0,0 +1,179 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+
+/**
+ * {@link com.dateofrock.simpledbmapper.SimpleDBDomain}がついたクラスのマッピング情報です。
+ * 
+ * 通常は{@link com.dateofrock.simpledbmapper.apt.SimpleDBDomainProcessor}がコンパイル時にアノテーションから読み取って生成し、
+ * 実行時のアノテーションの走査を省くために使われます。フィールドはサブクラスから順に登録してください。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public final class EntityMapping {
+
+	public enum Kind {
+		ATTRIBUTE, BLOB, VERSION
+	}
+
+	private final String domainName;
+	private final String s3BucketName;
+	private final String s3KeyPrefix;
+	private Class<?> itemNameDeclaringClass;
+	private String itemNameFieldName;
+	private final List<PropertyMapping> properties;
+
+	public EntityMapping(String domainName, String s3BucketName, String s3KeyPrefix) {
+		this.domainName = domainName;
+		this.s3BucketName = s3BucketName;
+		this.s3KeyPrefix = s3KeyPrefix;
+		this.properties = new ArrayList<PropertyMapping>();
+	}
+
+	public EntityMapping itemName(Class<?> declaringClass, String fieldName) {
+		this.itemNameDeclaringClass = declaringClass;
+		this.itemNameFieldName = fieldName;
+		return this;
+	}
+
+	/**
+	 * @param setElementType
+	 *            {@link java.util.Set}の要素の型。{@link java.util.Set}でない場合はnull
+	 */
+	public EntityMapping attribute(Class<?> declaringClass, String fieldName, String attributeName,
+			Class<?> setElementType) {
+		this.properties.add(new PropertyMapping(Kind.ATTRIBUTE, declaringClass, fieldName, attributeName,
+				setElementType, null, null));
+		return this;
+	}
+
+	/**
+	 * @param valueType
+	 *            Blobの値の型。{@link com.dateofrock.simpledbmapper.LazyBlob}の場合は型引数
+	 */
+	public EntityMapping blob(Class<?> declaringClass, String fieldName, String attributeName, String contentType,
+			FetchType fetchType, Class<?> valueType) {
+		this.properties.add(new PropertyMapping(Kind.BLOB, declaringClass, fieldName, attributeName, valueType,
+				contentType, fetchType));
+		return this;
+	}
+
+	public EntityMapping version(Class<?> declaringClass, String fieldName, String attributeName) {
+		this.properties.add(new PropertyMapping(Kind.VERSION, declaringClass, fieldName, attributeName, null, null,
+				null));
+		return this;
+	}
+
+	public String getDomainName() {
+		return this.domainName;
+	}
+
+	public String getS3BucketName() {
+		return this.s3BucketName;
+	}
+
+	public String getS3KeyPrefix() {
+		return this.s3KeyPrefix;
+	}
+
+	/**
+	 * @return {@link com.dateofrock.simpledbmapper.SimpleDBItemName}がついたフィールドを宣言したクラス。存在しない場合はnull
+	 */
+	public Class<?> getItemNameDeclaringClass() {
+		return this.itemNameDeclaringClass;
+	}
+
+	/**
+	 * @return {@link com.dateofrock.simpledbmapper.SimpleDBItemName}がついたフィールドの名前。存在しない場合はnull
+	 */
+	public String getItemNameFieldName() {
+		return this.itemNameFieldName;
+	}
+
+	public List<PropertyMapping> getProperties() {
+		return Collections.unmodifiableList(this.properties);
+	}
+
+	/**
+	 * {@link com.dateofrock.simpledbmapper.SimpleDBAttribute}、{@link com.dateofrock.simpledbmapper.SimpleDBBlob}、
+	 * {@link com.dateofrock.simpledbmapper.SimpleDBVersionAttribute}のいずれかがついたフィールドのマッピング情報です。
+	 */
+	public static final class PropertyMapping {
+
+		private final Kind kind;
+		private final Class<?> declaringClass;
+		private final String fieldName;
+		private final String attributeName;
+		private final Class<?> valueType;
+		private final String contentType;
+		private final FetchType fetchType;
+
+		PropertyMapping(Kind kind, Class<?> declaringClass, String fieldName, String attributeName,
+				Class<?> valueType, String contentType, FetchType fetchType) {
+			this.kind = kind;
+			this.declaringClass = declaringClass;
+			this.fieldName = fieldName;
+			this.attributeName = attributeName;
+			this.valueType = valueType;
+			this.contentType = contentType;
+			this.fetchType = fetchType;
+		}
+
+		public Kind getKind() {
+			return this.kind;
+		}
+
+		public Class<?> getDeclaringClass() {
+			return this.declaringClass;
+		}
+
+		public String getFieldName() {
+			return this.fieldName;
+		}
+
+		public String getAttributeName() {
+			return this.attributeName;
+		}
+
+		/**
+		 * @return attributeの場合は{@link java.util.Set}の要素の型、Blobの場合はBlobの値の型。それ以外はnull
+		 */
+		public Class<?> getValueType() {
+			return this.valueType;
+		}
+
+		/**
+		 * @return Blobの場合のみ
+		 */
+		public String getContentType() {
+			return this.contentType;
+		}
+
+		/**
+		 * @return Blobの場合のみ
+		 */
+		public FetchType getFetchType() {
+			return this.fetchType;
+		}
+	}
+
+}
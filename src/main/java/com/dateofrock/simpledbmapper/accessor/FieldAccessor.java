@@ -0,0 +1,31 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+/**
+ * フィールドの値を読み書きするためのアクセサです。
+ * 
+ * {@link AccessorFactory}によってフィールドごとに一度だけ作られ、マッピングのたびに再利用されます。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public interface FieldAccessor {
+
+	Object get(Object instance);
+
+	void set(Object instance, Object value);
+
+}
@@ -0,0 +1,124 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+
+/**
+ * コンパイル時に生成された{@link EntityAccessor}を使う{@link AccessorFactory}の実装です。デフォルトではこれが使われます。
+ * 
+ * 対象クラスと同じパッケージに「クラス名 + {@link #CLASS_NAME_SUFFIX}」という名前の{@link EntityAccessor}
+ * があればそれを使い、ない場合や生成コードから扱えないフィールドの場合は、フォールバックの{@link AccessorFactory}を使います。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class GeneratedAccessorFactory implements AccessorFactory {
+
+	public static final String CLASS_NAME_SUFFIX = "_SimpleDBAccessor";
+
+	private static final EntityAccessor<Object> NOT_FOUND = new EntityAccessor<Object>() {
+		@Override
+		public Instantiator<Object> getInstantiator() {
+			return null;
+		}
+
+		@Override
+		public FieldAccessor getFieldAccessor(Field field) {
+			return null;
+		}
+
+		@Override
+		public EntityMapping getEntityMapping() {
+			return null;
+		}
+	};
+
+	private final AccessorFactory fallback;
+	private final ConcurrentMap<Class<?>, EntityAccessor<?>> entityAccessors;
+
+	public GeneratedAccessorFactory() {
+		this(new ReflectionAccessorFactory());
+	}
+
+	/**
+	 * @param fallback
+	 *            生成された{@link EntityAccessor}がない場合に使う{@link AccessorFactory}
+	 */
+	public GeneratedAccessorFactory(AccessorFactory fallback) {
+		this.fallback = fallback;
+		this.entityAccessors = new ConcurrentHashMap<Class<?>, EntityAccessor<?>>();
+	}
+
+	@Override
+	public <T> Instantiator<T> createInstantiator(Class<T> clazz) {
+		Instantiator<T> instantiator = findEntityAccessor(clazz).getInstantiator();
+		if (instantiator != null) {
+			return instantiator;
+		}
+		return this.fallback.createInstantiator(clazz);
+	}
+
+	@Override
+	public FieldAccessor createFieldAccessor(Class<?> entityClass, Field field) {
+		FieldAccessor accessor = findEntityAccessor(entityClass).getFieldAccessor(field);
+		if (accessor != null) {
+			return accessor;
+		}
+		return this.fallback.createFieldAccessor(entityClass, field);
+	}
+
+	@Override
+	public EntityMapping createEntityMapping(Class<?> entityClass) {
+		EntityMapping mapping = findEntityAccessor(entityClass).getEntityMapping();
+		if (mapping != null) {
+			return mapping;
+		}
+		return this.fallback.createEntityMapping(entityClass);
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> EntityAccessor<T> findEntityAccessor(Class<T> clazz) {
+		EntityAccessor<?> accessor = this.entityAccessors.get(clazz);
+		if (accessor == null) {
+			accessor = loadEntityAccessor(clazz);
+			this.entityAccessors.putIfAbsent(clazz, accessor);
+		}
+		return (EntityAccessor<T>) accessor;
+	}
+
+	private EntityAccessor<?> loadEntityAccessor(Class<?> clazz) {
+		String accessorClassName = clazz.getName() + CLASS_NAME_SUFFIX;
+		Class<?> accessorClass;
+		try {
+			accessorClass = Class.forName(accessorClassName, true, clazz.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return NOT_FOUND;
+		}
+		if (!EntityAccessor.class.isAssignableFrom(accessorClass)) {
+			return NOT_FOUND;
+		}
+		try {
+			return (EntityAccessor<?>) accessorClass.newInstance();
+		} catch (Exception e) {
+			throw new SimpleDBMapperException("生成されたアクセサのインスタンス化に失敗: " + accessorClassName, e);
+		}
+	}
+
+}
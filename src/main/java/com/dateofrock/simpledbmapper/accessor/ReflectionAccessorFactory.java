@@ -0,0 +1,115 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+
+/**
+ * java.lang.reflectを使った{@link AccessorFactory}の実装です。{@link GeneratedAccessorFactory}のフォールバックとして使われます。
+ * 
+ * {@link Field}と{@link Constructor}はアクセスチェックを外した状態で保持されるので、public以外のフィールドも扱えます。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class ReflectionAccessorFactory implements AccessorFactory {
+
+	@Override
+	public <T> Instantiator<T> createInstantiator(Class<T> clazz) {
+		Constructor<T> constructor = null;
+		try {
+			constructor = clazz.getDeclaredConstructor();
+			makeAccessible(constructor);
+		} catch (NoSuchMethodException ignore) {
+			// saveだけで使うクラスもあるので、インスタンス生成時に例外とする
+		}
+		return new ReflectionInstantiator<T>(clazz, constructor);
+	}
+
+	@Override
+	public FieldAccessor createFieldAccessor(Class<?> entityClass, Field field) {
+		makeAccessible(field);
+		return new ReflectionFieldAccessor(field);
+	}
+
+	@Override
+	public EntityMapping createEntityMapping(Class<?> entityClass) {
+		// アノテーションはReflectorが読み取る
+		return null;
+	}
+
+	private void makeAccessible(AccessibleObject object) {
+		try {
+			object.setAccessible(true);
+		} catch (SecurityException ignore) {
+			// SecurityManagerに拒否された場合は、通常のアクセスチェックのまま使う
+		}
+	}
+
+	static class ReflectionInstantiator<T> implements Instantiator<T> {
+
+		private final Class<T> clazz;
+		private final Constructor<T> constructor;
+
+		ReflectionInstantiator(Class<T> clazz, Constructor<T> constructor) {
+			this.clazz = clazz;
+			this.constructor = constructor;
+		}
+
+		@Override
+		public T newInstance() {
+			if (this.constructor == null) {
+				throw new SimpleDBMapperException(this.clazz + " には引数なしのコンストラクタが必要です");
+			}
+			try {
+				return this.constructor.newInstance();
+			} catch (Exception e) {
+				throw new SimpleDBMapperException("インスタンスの生成に失敗: " + this.clazz, e);
+			}
+		}
+	}
+
+	static class ReflectionFieldAccessor implements FieldAccessor {
+
+		private final Field field;
+
+		ReflectionFieldAccessor(Field field) {
+			this.field = field;
+		}
+
+		@Override
+		public Object get(Object instance) {
+			try {
+				return this.field.get(instance);
+			} catch (IllegalAccessException e) {
+				throw new SimpleDBMapperException("フィールドの値取得に失敗: " + this.field, e);
+			}
+		}
+
+		@Override
+		public void set(Object instance, Object value) {
+			try {
+				this.field.set(instance, value);
+			} catch (IllegalAccessException e) {
+				throw new SimpleDBMapperException("フィールドの値セットに失敗: " + this.field, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * POJOのインスタンス生成とフィールドの読み書きを差し替えるためのパッケージ
+ */
+package com.dateofrock.simpledbmapper.accessor;
@@ -0,0 +1,512 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.apt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import com.dateofrock.simpledbmapper.SimpleDBAttribute;
+import com.dateofrock.simpledbmapper.LazyBlob;
+import com.dateofrock.simpledbmapper.SimpleDBBlob;
+import com.dateofrock.simpledbmapper.SimpleDBDomain;
+import com.dateofrock.simpledbmapper.SimpleDBItemName;
+import com.dateofrock.simpledbmapper.SimpleDBVersionAttribute;
+import com.dateofrock.simpledbmapper.accessor.GeneratedAccessorFactory;
+
+/**
+ * {@link SimpleDBDomain}がついたクラスを検証し、
+ * {@link com.dateofrock.simpledbmapper.accessor.EntityAccessor}を生成するアノテーションプロセッサです。
+ * 
+ * 自動では登録されないので、使う場合はjavacの-processorオプションなどで明示的に指定してください。
+ * 生成されたクラスは実行時に{@link GeneratedAccessorFactory}から使われ、リフレクションを使わずにPOJOを読み書きします。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+@SupportedAnnotationTypes("com.dateofrock.simpledbmapper.SimpleDBDomain")
+public class SimpleDBDomainProcessor extends AbstractProcessor {
+
+	private static final String[] ITEM_NAME_TYPES = { "java.lang.String", "java.lang.Integer", "java.lang.Long",
+			"java.lang.Float" };
+
+	private static final String[] UNSUPPORTED_ITEM_NAME_TYPES = { "java.lang.Boolean", "java.util.Date" };
+
+	private static final String[] ATTRIBUTE_TYPES = { "java.lang.String", "java.lang.Integer", "java.lang.Long",
+			"java.lang.Float", "java.lang.Boolean", "java.util.Date" };
+
+	private static final String[] BLOB_TYPES = { "java.lang.String", "byte[]", "java.io.File", "java.io.InputStream" };
+	private static final String LAZY_BLOB_TYPE = LazyBlob.class.getName();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(SimpleDBDomain.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@SimpleDBDomainはクラスにのみ指定できます");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			List<VariableElement> fields = listAllFields(type);
+			if (validate(type, fields)) {
+				generate(type, fields);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * サブクラスから順にスーパークラスのフィールドを列挙します
+	 */
+	private List<VariableElement> listAllFields(TypeElement type) {
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		TypeElement current = type;
+		while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+			fields.addAll(ElementFilter.fieldsIn(current.getEnclosedElements()));
+			TypeMirror superclass = current.getSuperclass();
+			if (superclass.getKind() != TypeKind.DECLARED) {
+				break;
+			}
+			current = (TypeElement) ((DeclaredType) superclass).asElement();
+		}
+		return fields;
+	}
+
+	private boolean validate(TypeElement type, List<VariableElement> fields) {
+		boolean valid = true;
+		VariableElement itemNameField = null;
+		for (VariableElement field : fields) {
+			TypeMirror fieldType = field.asType();
+			if (field.getAnnotation(SimpleDBItemName.class) != null) {
+				if (itemNameField != null) {
+					error(field, "@SimpleDBItemNameは一つのクラスに一つだけ指定できます: " + itemNameField.getSimpleName());
+					valid = false;
+				}
+				itemNameField = field;
+				if (isOneOf(fieldType, UNSUPPORTED_ITEM_NAME_TYPES)) {
+					error(field, "@SimpleDBItemNameに指定できない型です: " + fieldType);
+					valid = false;
+				} else if (!isOneOf(fieldType, ITEM_NAME_TYPES) && !isEnum(fieldType)) {
+					warning(field, "@SimpleDBItemNameの型 " + fieldType + " にはTypeCodecの登録が必要です");
+				}
+			}
+			if (field.getAnnotation(SimpleDBAttribute.class) != null) {
+				TypeMirror checkType = fieldType;
+				if (isSet(fieldType)) {
+					checkType = getSetElementType(fieldType);
+				}
+				if (checkType == null) {
+					error(field, "@SimpleDBAttributeに指定できない型です: " + fieldType);
+					valid = false;
+				} else if (!isOneOf(checkType, ATTRIBUTE_TYPES) && !isEnum(checkType)) {
+					// 独自のTypeCodecが登録されているかどうかはコンパイル時にはわからない
+					warning(field, "@SimpleDBAttributeの型 " + fieldType + " にはTypeCodecの登録が必要です");
+				}
+			} else if (field.getAnnotation(SimpleDBBlob.class) != null) {
+				TypeMirror checkType = fieldType;
+				if (isOneOf(fieldType, LAZY_BLOB_TYPE)) {
+					checkType = getTypeArgument(fieldType);
+				}
+				if (checkType == null || !isOneOf(checkType, BLOB_TYPES)) {
+					error(field, "@SimpleDBBlobに指定できない型です: " + fieldType);
+					valid = false;
+				}
+			} else if (field.getAnnotation(SimpleDBVersionAttribute.class) != null) {
+				if (!isOneOf(fieldType, "java.lang.Long")) {
+					error(field, "@SimpleDBVersionAttributeはLongである必要があります: " + fieldType);
+					valid = false;
+				}
+			}
+		}
+		if (itemNameField == null) {
+			error(type, "@SimpleDBItemNameがついたフィールドがありません");
+			valid = false;
+		}
+		return valid;
+	}
+
+	private void generate(TypeElement type, List<VariableElement> fields) {
+		if (!isAccessible(type)) {
+			note(type, "privateなクラスなのでアクセサを生成しません");
+			return;
+		}
+		String packageName = getPackage(type).getQualifiedName().toString();
+		String binaryName = this.processingEnv.getElementUtils().getBinaryName(type).toString();
+		String accessorSimpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1)
+				+ GeneratedAccessorFactory.CLASS_NAME_SUFFIX;
+		String accessorName = packageName.length() == 0 ? accessorSimpleName : packageName + "."
+				+ accessorSimpleName;
+		String entityName = type.getQualifiedName().toString();
+
+		// 宣言クラスごとに、生成コードからアクセスできるフィールドをまとめる
+		Map<TypeElement, List<VariableElement>> accessibleFields;
+		accessibleFields = new LinkedHashMap<TypeElement, List<VariableElement>>();
+		for (VariableElement field : fields) {
+			if (!isMapped(field) || !isAccessible(type, field)) {
+				continue;
+			}
+			TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+			List<VariableElement> list = accessibleFields.get(declaringType);
+			if (list == null) {
+				list = new ArrayList<VariableElement>();
+				accessibleFields.put(declaringType, list);
+			}
+			list.add(field);
+		}
+
+		StringBuilder source = new StringBuilder();
+		if (packageName.length() > 0) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("import java.lang.reflect.Field;\n\n");
+		source.append("import com.dateofrock.simpledbmapper.accessor.EntityAccessor;\n");
+		source.append("import com.dateofrock.simpledbmapper.accessor.EntityMapping;\n");
+		source.append("import com.dateofrock.simpledbmapper.accessor.FieldAccessor;\n");
+		source.append("import com.dateofrock.simpledbmapper.accessor.Instantiator;\n\n");
+		source.append("/**\n");
+		source.append(" * {@link ").append(entityName).append("}のアクセサです。\n");
+		source.append(" * \n");
+		source.append(" * ").append(getClass().getName()).append("によって生成されました。編集しないでください。\n");
+		source.append(" */\n");
+		source.append("public final class ").append(accessorSimpleName).append(" implements EntityAccessor<")
+				.append(entityName).append("> {\n\n");
+
+		// Instantiator
+		source.append("\tpublic Instantiator<").append(entityName).append("> getInstantiator() {\n");
+		if (isInstantiable(type)) {
+			source.append("\t\treturn new Instantiator<").append(entityName).append(">() {\n");
+			source.append("\t\t\tpublic ").append(entityName).append(" newInstance() {\n");
+			source.append("\t\t\t\treturn new ").append(entityName).append("();\n");
+			source.append("\t\t\t}\n");
+			source.append("\t\t};\n");
+		} else {
+			source.append("\t\treturn null;\n");
+		}
+		source.append("\t}\n\n");
+
+		// FieldAccessor
+		source.append("\t@SuppressWarnings(\"unchecked\")\n");
+		source.append("\tpublic FieldAccessor getFieldAccessor(Field field) {\n");
+		source.append("\t\tClass<?> declaringClass = field.getDeclaringClass();\n");
+		source.append("\t\tString name = field.getName();\n");
+		for (Map.Entry<TypeElement, List<VariableElement>> entry : accessibleFields.entrySet()) {
+			String declaringName = entry.getKey().getQualifiedName().toString();
+			source.append("\t\tif (declaringClass == ").append(declaringName).append(".class) {\n");
+			for (VariableElement field : entry.getValue()) {
+				String fieldName = field.getSimpleName().toString();
+				String castType = toReferenceTypeName(field.asType());
+				source.append("\t\t\tif (\"").append(fieldName).append("\".equals(name)) {\n");
+				source.append("\t\t\t\treturn new FieldAccessor() {\n");
+				source.append("\t\t\t\t\tpublic Object get(Object instance) {\n");
+				source.append("\t\t\t\t\t\treturn ((").append(declaringName).append(") instance).").append(fieldName)
+						.append(";\n");
+				source.append("\t\t\t\t\t}\n\n");
+				source.append("\t\t\t\t\tpublic void set(Object instance, Object value) {\n");
+				source.append("\t\t\t\t\t\t((").append(declaringName).append(") instance).").append(fieldName)
+						.append(" = (").append(castType).append(") value;\n");
+				source.append("\t\t\t\t\t}\n");
+				source.append("\t\t\t\t};\n");
+				source.append("\t\t\t}\n");
+			}
+			source.append("\t\t}\n");
+		}
+		source.append("\t\treturn null;\n");
+		source.append("\t}\n\n");
+
+		// EntityMapping
+		source.append("\tpublic EntityMapping getEntityMapping() {\n");
+		appendEntityMapping(source, type, fields);
+		source.append("\t}\n\n");
+		source.append("}\n");
+
+		Writer writer = null;
+		try {
+			writer = this.processingEnv.getFiler().createSourceFile(accessorName, type).openWriter();
+			writer.write(source.toString());
+		} catch (IOException e) {
+			error(type, "アクセサの生成に失敗しました: " + e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 実行時にアノテーションを走査しなくて済むように、マッピング情報を生成します
+	 */
+	private void appendEntityMapping(StringBuilder source, TypeElement type, List<VariableElement> fields) {
+		List<String> calls = new ArrayList<String>();
+		boolean itemNameFound = false;
+		for (VariableElement field : fields) {
+			if (!isMapped(field)) {
+				continue;
+			}
+			TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+			if (!isReferable(type, declaringType)) {
+				// クラスリテラルを書けないので、実行時にアノテーションから読み取る
+				source.append("\t\treturn null;\n");
+				return;
+			}
+			String fieldName = field.getSimpleName().toString();
+			String declaring = declaringType.getQualifiedName() + ".class, " + literal(fieldName);
+			if (!itemNameFound && field.getAnnotation(SimpleDBItemName.class) != null) {
+				itemNameFound = true;
+				calls.add("itemName(" + declaring + ")");
+			}
+			SimpleDBAttribute attribute = field.getAnnotation(SimpleDBAttribute.class);
+			SimpleDBBlob blob = field.getAnnotation(SimpleDBBlob.class);
+			SimpleDBVersionAttribute version = field.getAnnotation(SimpleDBVersionAttribute.class);
+			if (attribute != null) {
+				String setElementType = "null";
+				if (isSet(field.asType())) {
+					TypeMirror elementType = getSetElementType(field.asType());
+					if (!isReferable(type, (TypeElement) ((DeclaredType) elementType).asElement())) {
+						source.append("\t\treturn null;\n");
+						return;
+					}
+					setElementType = toClassLiteral(elementType);
+				}
+				calls.add("attribute(" + declaring + ", " + literal(attributeName(attribute.attributeName(), field))
+						+ ", " + setElementType + ")");
+			} else if (blob != null) {
+				TypeMirror valueType = field.asType();
+				if (isOneOf(valueType, LAZY_BLOB_TYPE)) {
+					valueType = getTypeArgument(valueType);
+				}
+				calls.add("blob(" + declaring + ", " + literal(attributeName(blob.attributeName(), field)) + ", "
+						+ literal(blob.contentType()) + ", " + SimpleDBBlob.FetchType.class.getCanonicalName() + "."
+						+ blob.fetch().name() + ", " + toClassLiteral(valueType) + ")");
+			} else if (version != null) {
+				calls.add("version(" + declaring + ", " + literal(attributeName(version.attributeName(), field)) + ")");
+			}
+		}
+		SimpleDBDomain domain = type.getAnnotation(SimpleDBDomain.class);
+		source.append("\t\treturn new EntityMapping(").append(literal(domain.domainName())).append(", ")
+				.append(literal(domain.s3BucketName())).append(", ").append(literal(domain.s3KeyPrefix())).append(")");
+		for (String call : calls) {
+			source.append("\n\t\t\t\t.").append(call);
+		}
+		source.append(";\n");
+	}
+
+	private String attributeName(String attributeName, VariableElement field) {
+		if (attributeName.isEmpty()) {
+			return field.getSimpleName().toString();
+		}
+		return attributeName;
+	}
+
+	private String literal(String value) {
+		return this.processingEnv.getElementUtils().getConstantExpression(value);
+	}
+
+	private String toClassLiteral(TypeMirror type) {
+		return this.processingEnv.getTypeUtils().erasure(type) + ".class";
+	}
+
+	/**
+	 * 生成コード（対象クラスと同じパッケージ）からクラスリテラルを書けるかどうか
+	 */
+	private boolean isReferable(TypeElement type, TypeElement referencedType) {
+		if (!isAccessible(referencedType)) {
+			return false;
+		}
+		if (getPackage(referencedType).equals(getPackage(type))) {
+			return true;
+		}
+		Element element = referencedType;
+		while (element.getKind().isClass() || element.getKind().isInterface()) {
+			if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+				return false;
+			}
+			element = element.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private boolean isMapped(VariableElement field) {
+		return field.getAnnotation(SimpleDBItemName.class) != null
+				|| field.getAnnotation(SimpleDBAttribute.class) != null
+				|| field.getAnnotation(SimpleDBBlob.class) != null
+				|| field.getAnnotation(SimpleDBVersionAttribute.class) != null;
+	}
+
+	/**
+	 * 生成コード（対象クラスと同じパッケージ）からクラスを参照できるかどうか
+	 */
+	private boolean isAccessible(TypeElement type) {
+		Element element = type;
+		while (element.getKind().isClass() || element.getKind().isInterface()) {
+			if (element.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			element = element.getEnclosingElement();
+		}
+		return true;
+	}
+
+	/**
+	 * 生成コード（対象クラスと同じパッケージ）からフィールドを読み書きできるかどうか
+	 */
+	private boolean isAccessible(TypeElement type, VariableElement field) {
+		Set<Modifier> modifiers = field.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)
+				|| modifiers.contains(Modifier.FINAL)) {
+			return false;
+		}
+		if (field.asType().getKind() == TypeKind.TYPEVAR) {
+			return false;
+		}
+		TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+		if (!isAccessible(declaringType)) {
+			return false;
+		}
+		if (getPackage(declaringType).equals(getPackage(type))) {
+			return true;
+		}
+		return modifiers.contains(Modifier.PUBLIC) && declaringType.getModifiers().contains(Modifier.PUBLIC);
+	}
+
+	private boolean isInstantiable(TypeElement type) {
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private PackageElement getPackage(Element element) {
+		return this.processingEnv.getElementUtils().getPackageOf(element);
+	}
+
+	private boolean isSet(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return false;
+		}
+		Types types = this.processingEnv.getTypeUtils();
+		TypeMirror setType = this.processingEnv.getElementUtils().getTypeElement("java.util.Set").asType();
+		return types.isAssignable(types.erasure(type), types.erasure(setType));
+	}
+
+	private TypeMirror getSetElementType(TypeMirror type) {
+		List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+		if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		return arguments.get(0);
+	}
+
+	/**
+	 * @return {@link LazyBlob}の型引数。Stringもしくはbyte[]の場合があるので、配列も返します
+	 */
+	private TypeMirror getTypeArgument(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+		if (arguments.size() != 1) {
+			return null;
+		}
+		return arguments.get(0);
+	}
+
+	private boolean isEnum(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return false;
+		}
+		return ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+	}
+
+	private boolean isOneOf(TypeMirror type, String... typeNames) {
+		String name = toReferenceTypeName(type);
+		if (type.getKind() == TypeKind.DECLARED) {
+			name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+		}
+		for (String typeName : typeNames) {
+			if (typeName.equals(name)) {
+				return true;
+			}
+			if (typeName.equals("java.util.Date") && type.getKind() == TypeKind.DECLARED) {
+				TypeMirror dateType = this.processingEnv.getElementUtils().getTypeElement(typeName).asType();
+				if (this.processingEnv.getTypeUtils().isAssignable(type, dateType)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * プリミティブ型はラッパークラスにして、キャストに使える型名を返します
+	 */
+	private String toReferenceTypeName(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			Types types = this.processingEnv.getTypeUtils();
+			return types.boxedClass(types.getPrimitiveType(type.getKind())).getQualifiedName().toString();
+		}
+		return type.toString();
+	}
+
+	private void error(Element element, String message) {
+		this.processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+
+	private void warning(Element element, String message) {
+		this.processingEnv.getMessager().printMessage(Kind.WARNING, message, element);
+	}
+
+	private void note(Element element, String message) {
+		this.processingEnv.getMessager().printMessage(Kind.NOTE, message, element);
+	}
+
+}
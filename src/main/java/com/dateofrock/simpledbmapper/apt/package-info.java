@@ -0,0 +1,4 @@
+/**
+ * コンパイル時に{@link com.dateofrock.simpledbmapper.accessor.EntityAccessor}を生成するアノテーションプロセッサのパッケージ
+ */
+package com.dateofrock.simpledbmapper.apt;
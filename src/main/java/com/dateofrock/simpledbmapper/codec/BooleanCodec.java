@@ -0,0 +1,43 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+/**
+ * {@link Boolean}のコーデックです。"true"もしくは"false"として格納します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class BooleanCodec implements TypeCodec<Boolean> {
+
+	@Override
+	public String encode(Boolean value) {
+		return encodeBoolean(value.booleanValue());
+	}
+
+	@Override
+	public Boolean decode(String value) {
+		return Boolean.valueOf(decodeBoolean(value));
+	}
+
+	public String encodeBoolean(boolean value) {
+		return value ? "true" : "false";
+	}
+
+	public boolean decodeBoolean(String value) {
+		return Boolean.parseBoolean(value);
+	}
+
+}
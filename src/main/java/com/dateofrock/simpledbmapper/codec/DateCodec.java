@@ -0,0 +1,45 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+import com.dateofrock.simpledbmapper.util.SimpleDBFormat;
+
+/**
+ * {@link Date}のコーデックです。ISO8601形式（例: 2012-01-20T00:00:00.000+09:00）で格納します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class DateCodec implements TypeCodec<Date> {
+
+	@Override
+	public String encode(Date value) {
+		return SimpleDBFormat.encodeDate(value);
+	}
+
+	@Override
+	public Date decode(String value) {
+		try {
+			return SimpleDBFormat.decodeDate(value);
+		} catch (ParseException e) {
+			throw new SimpleDBMapperException("日付の形式が不正です: " + value, e);
+		}
+	}
+
+}
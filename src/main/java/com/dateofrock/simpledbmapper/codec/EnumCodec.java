@@ -0,0 +1,43 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+/**
+ * enumのコーデックです。{@link Enum#name()}で格納します。
+ * 
+ * {@link TypeCodecRegistry}に登録がないenumには、このコーデックが自動的に使われます。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class EnumCodec<E extends Enum<E>> implements TypeCodec<E> {
+
+	private final Class<E> enumClass;
+
+	public EnumCodec(Class<E> enumClass) {
+		this.enumClass = enumClass;
+	}
+
+	@Override
+	public String encode(E value) {
+		return value.name();
+	}
+
+	@Override
+	public E decode(String value) {
+		return Enum.valueOf(this.enumClass, value);
+	}
+
+}
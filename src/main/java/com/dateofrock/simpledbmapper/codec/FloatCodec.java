@@ -0,0 +1,85 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+import com.dateofrock.simpledbmapper.SimpleDBAttribute;
+import com.dateofrock.simpledbmapper.util.SimpleDBFormat;
+
+/**
+ * {@link Float}のコーデックです。
+ * 
+ * デフォルトでは辞書順で比較できるように、整数部を{@link SimpleDBAttribute#DEFAULT_ZERO_PADDING_LENGTH}桁でゼロパディングして格納します。
+ * 負の値を扱いたい場合は、オフセットを指定したコーデックを{@link TypeCodecRegistry}に登録してください。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class FloatCodec implements TypeCodec<Float> {
+
+	private final int maxDigitsLeft;
+	private final int maxDigitsRight;
+	private final int offsetValue;
+	private final boolean realNumberRange;
+
+	public FloatCodec() {
+		this.maxDigitsLeft = SimpleDBAttribute.DEFAULT_ZERO_PADDING_LENGTH;
+		this.maxDigitsRight = 0;
+		this.offsetValue = 0;
+		this.realNumberRange = false;
+	}
+
+	/**
+	 * 値を小数点以下maxDigitsRight桁の固定小数点数にし、offsetValueを足してからゼロパディングするコーデックを作ります。
+	 * 
+	 * @param maxDigitsLeft
+	 *            offsetValueを足した値の整数部の最大桁数
+	 * @param maxDigitsRight
+	 *            小数点以下の桁数。これより下の桁は丸められます
+	 * @param offsetValue
+	 *            扱う値の最小値の絶対値以上を指定してください
+	 */
+	public FloatCodec(int maxDigitsLeft, int maxDigitsRight, int offsetValue) {
+		this.maxDigitsLeft = maxDigitsLeft;
+		this.maxDigitsRight = maxDigitsRight;
+		this.offsetValue = offsetValue;
+		this.realNumberRange = true;
+	}
+
+	@Override
+	public String encode(Float value) {
+		return encodeFloat(value.floatValue());
+	}
+
+	@Override
+	public Float decode(String value) {
+		return Float.valueOf(decodeFloat(value));
+	}
+
+	public String encodeFloat(float value) {
+		if (this.realNumberRange) {
+			return SimpleDBFormat.encodeRealNumberRange(value, this.maxDigitsLeft, this.maxDigitsRight,
+					this.offsetValue);
+		}
+		return SimpleDBFormat.encodeZeroPadding(value, this.maxDigitsLeft);
+	}
+
+	public float decodeFloat(String value) {
+		if (this.realNumberRange) {
+			return SimpleDBFormat.decodeRealNumberRangeFloat(value, this.maxDigitsRight, this.offsetValue);
+		}
+		return SimpleDBFormat.decodeZeroPaddingFloat(value);
+	}
+
+}
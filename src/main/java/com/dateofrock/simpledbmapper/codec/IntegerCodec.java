@@ -0,0 +1,79 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+import com.dateofrock.simpledbmapper.SimpleDBAttribute;
+import com.dateofrock.simpledbmapper.util.SimpleDBFormat;
+
+/**
+ * {@link Integer}のコーデックです。
+ * 
+ * デフォルトでは辞書順で比較できるように、{@link SimpleDBAttribute#DEFAULT_ZERO_PADDING_LENGTH}桁でゼロパディングして格納します。
+ * 負の値を扱いたい場合は、オフセットを指定したコーデックを{@link TypeCodecRegistry}に登録してください。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class IntegerCodec implements TypeCodec<Integer> {
+
+	private final int maxNumDigits;
+	private final int offsetValue;
+	private final boolean realNumberRange;
+
+	public IntegerCodec() {
+		this.maxNumDigits = SimpleDBAttribute.DEFAULT_ZERO_PADDING_LENGTH;
+		this.offsetValue = 0;
+		this.realNumberRange = false;
+	}
+
+	/**
+	 * 値にoffsetValueを足してから、maxNumDigits桁でゼロパディングするコーデックを作ります。
+	 * 
+	 * @param maxNumDigits
+	 *            offsetValueを足した値の最大桁数
+	 * @param offsetValue
+	 *            扱う値の最小値の絶対値以上を指定してください
+	 */
+	public IntegerCodec(int maxNumDigits, int offsetValue) {
+		this.maxNumDigits = maxNumDigits;
+		this.offsetValue = offsetValue;
+		this.realNumberRange = true;
+	}
+
+	@Override
+	public String encode(Integer value) {
+		return encodeInt(value.intValue());
+	}
+
+	@Override
+	public Integer decode(String value) {
+		return Integer.valueOf(decodeInt(value));
+	}
+
+	public String encodeInt(int value) {
+		if (this.realNumberRange) {
+			return SimpleDBFormat.encodeRealNumberRange(value, this.maxNumDigits, this.offsetValue);
+		}
+		return SimpleDBFormat.encodeZeroPadding(value, this.maxNumDigits);
+	}
+
+	public int decodeInt(String value) {
+		if (this.realNumberRange) {
+			return SimpleDBFormat.decodeRealNumberRangeInt(value, this.offsetValue);
+		}
+		return SimpleDBFormat.decodeZeroPaddingInt(value);
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+/**
+ * Javaの値とSimpleDBに格納する文字列を相互に変換するコーデックです。
+ * 
+ * SimpleDBの比較はすべて文字列の辞書順で行われるので、大小比較やソートをしたい型では、値の順序と文字列の順序が一致するように
+ * encodeする必要があります。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ * @see TypeCodecRegistry
+ */
+public interface TypeCodec<T> {
+
+	/**
+	 * @param value
+	 *            nullは渡されません
+	 */
+	String encode(T value);
+
+	/**
+	 * @param value
+	 *            nullは渡されません
+	 */
+	T decode(String value);
+
+}
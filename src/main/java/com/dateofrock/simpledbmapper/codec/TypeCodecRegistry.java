@@ -0,0 +1,129 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperUnsupportedTypeException;
+
+/**
+ * 型ごとの{@link TypeCodec}を管理します。
+ * 
+ * 以下の型のコーデックは最初から登録されています。それ以外の型（BigDecimal、UUIDなど）を使いたい場合は
+ * {@link #register(Class, TypeCodec)}で登録してください。enumは登録がなくても{@link EnumCodec}で変換されます。
+ * <ul>
+ * <li>{@link java.lang.String}</li>
+ * <li>{@link java.lang.Integer}、int</li>
+ * <li>{@link java.lang.Long}、long</li>
+ * <li>{@link java.lang.Float}、float</li>
+ * <li>{@link java.lang.Boolean}、boolean</li>
+ * <li>{@link java.util.Date}</li>
+ * </ul>
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class TypeCodecRegistry {
+
+	private final ConcurrentMap<Class<?>, TypeCodec<?>> codecs;
+
+	public TypeCodecRegistry() {
+		this.codecs = new ConcurrentHashMap<Class<?>, TypeCodec<?>>();
+		IntegerCodec integerCodec = new IntegerCodec();
+		LongCodec longCodec = new LongCodec();
+		FloatCodec floatCodec = new FloatCodec();
+		BooleanCodec booleanCodec = new BooleanCodec();
+		this.codecs.put(String.class, new StringCodec());
+		this.codecs.put(Integer.class, integerCodec);
+		this.codecs.put(int.class, integerCodec);
+		this.codecs.put(Long.class, longCodec);
+		this.codecs.put(long.class, longCodec);
+		this.codecs.put(Float.class, floatCodec);
+		this.codecs.put(float.class, floatCodec);
+		this.codecs.put(Boolean.class, booleanCodec);
+		this.codecs.put(boolean.class, booleanCodec);
+		this.codecs.put(Date.class, new DateCodec());
+	}
+
+	/**
+	 * コーデックを登録します。すでに登録されている型の場合は上書きします。
+	 */
+	public <T> void register(Class<T> type, TypeCodec<T> codec) {
+		if (type == null || codec == null) {
+			throw new IllegalArgumentException("typeとcodecにnullは指定できません");
+		}
+		this.codecs.put(type, codec);
+	}
+
+	/**
+	 * 型に対応するコーデックを探します。登録がない場合はスーパークラスのコーデックを探します。
+	 * 
+	 * @return 見つからない場合はnull
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> TypeCodec<T> findCodec(Class<T> type) {
+		Class<?> cls = type;
+		while (cls != null) {
+			TypeCodec<?> codec = this.codecs.get(cls);
+			if (codec != null) {
+				return (TypeCodec<T>) codec;
+			}
+			if (cls.isEnum()) {
+				return (TypeCodec<T>) createEnumCodec(cls);
+			}
+			cls = cls.getSuperclass();
+		}
+		return null;
+	}
+
+	/**
+	 * 型に対応するコーデックを取得します。
+	 * 
+	 * @throws SimpleDBMapperUnsupportedTypeException
+	 *             コーデックが見つからない場合
+	 */
+	public <T> TypeCodec<T> getCodec(Class<T> type) {
+		TypeCodec<T> codec = findCodec(type);
+		if (codec == null) {
+			throw new SimpleDBMapperUnsupportedTypeException(type + " is not supprted.");
+		}
+		return codec;
+	}
+
+	/**
+	 * 値の型に対応するコーデックでencodeします。
+	 * 
+	 * @throws SimpleDBMapperUnsupportedTypeException
+	 *             コーデックが見つからない場合
+	 */
+	@SuppressWarnings("unchecked")
+	public String encode(Object value) {
+		TypeCodec<Object> codec = (TypeCodec<Object>) getCodec(value.getClass());
+		return codec.encode(value);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private TypeCodec<?> createEnumCodec(Class<?> enumClass) {
+		TypeCodec<?> codec = new EnumCodec(enumClass);
+		TypeCodec<?> existing = this.codecs.putIfAbsent(enumClass, codec);
+		if (existing != null) {
+			return existing;
+		}
+		return codec;
+	}
+
+}
@@ -16,11 +16,10 @@
 package com.dateofrock.simpledbmapper.query;
 
 import static com.amazonaws.services.simpledb.util.SimpleDBUtils.*;
-import static com.dateofrock.simpledbmapper.SimpleDBAttribute.*;
-
-import java.util.Date;
 
 import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+import com.dateofrock.simpledbmapper.codec.TypeCodec;
+import com.dateofrock.simpledbmapper.codec.TypeCodecRegistry;
 
 /**
  * 条件文
@@ -29,6 +28,8 @@ import com.dateofrock.simpledbmapper.SimpleDBMapperException;
  */
 public class Condition {
 
+	private static final TypeCodecRegistry DEFAULT_CODEC_REGISTRY = new TypeCodecRegistry();
+
 	private ComparisonOperator comparisonOperator;
 	private String attributeName;
 	private Object attributeValue;
@@ -44,6 +45,15 @@ public class Condition {
 	}
 
 	public String describe() {
+		return describe(DEFAULT_CODEC_REGISTRY);
+	}
+
+	/**
+	 * @param codecRegistry
+	 *            attributeValueの変換に使うコーデック
+	 */
+	@SuppressWarnings("unchecked")
+	public String describe(TypeCodecRegistry codecRegistry) {
 		StringBuilder expression = new StringBuilder();
 		if (this.attributeName.equalsIgnoreCase("itemName()")) {
 			expression.append(this.attributeName);
@@ -64,23 +74,13 @@ public class Condition {
 			}
 		}
 
-		expression.append("'");
-		if (this.attributeValue instanceof String) {
-			expression.append((String) this.attributeValue);
-		} else if (this.attributeValue instanceof Date) {
-			expression.append(encodeDate((Date) this.attributeValue));
-		} else if (this.attributeValue instanceof Integer) {
-			expression.append(encodeZeroPadding((Integer) this.attributeValue, DEFAULT_ZERO_PADDING_LENGTH));
-		} else if (this.attributeValue instanceof Float) {
-			expression.append(encodeZeroPadding((Float) this.attributeValue, DEFAULT_ZERO_PADDING_LENGTH));
-		} else if (this.attributeValue instanceof Long) {
-			expression.append(encodeZeroPadding((Long) this.attributeValue, DEFAULT_ZERO_PADDING_LENGTH));
-		} else if (this.attributeValue instanceof Boolean) {
-			expression.append(String.valueOf(this.attributeValue));
-		} else {
+		TypeCodec<Object> codec = (TypeCodec<Object>) codecRegistry.findCodec(this.attributeValue.getClass());
+		if (codec == null) {
 			throw new SimpleDBMapperException("attributeValueの型が非サポートです。" + this.attributeValue);
 		}
 		expression.append("'");
+		expression.append(codec.encode(this.attributeValue));
+		expression.append("'");
 
 		return expression.toString();
 	}
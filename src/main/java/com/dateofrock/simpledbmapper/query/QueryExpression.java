@@ -16,31 +16,58 @@
 package com.dateofrock.simpledbmapper.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import com.dateofrock.simpledbmapper.SimpleDBBlob;
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
 import com.dateofrock.simpledbmapper.SimpleDBDomain;
 import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+import com.dateofrock.simpledbmapper.codec.TypeCodecRegistry;
 
 /**
  * select queryを発行する際のwhere文を表現するクラスです。
  * 
+ * where文のほか、limitやBlobの取得方法など、一つのqueryだけに関係する設定を持ちます。
+ * 
  * @author Takehito Tanabe (dateofrock at gmail dot com)
  */
 public class QueryExpression {
 
+	private static final TypeCodecRegistry DEFAULT_CODEC_REGISTRY = new TypeCodecRegistry();
+
 	private Condition defaultCondition;
 
 	private List<Map<String, Condition>> conditions;
 	private Sort sort;
 	private int limit;
+	private Set<String> eagerBlobFetchFields = new LinkedHashSet<String>();
+	private Set<String> selectAttributes = new LinkedHashSet<String>();
+	private int prefetchDepth;
+
+	/**
+	 * 条件なし、つまりドメイン内のすべてのアイテムを対象にします。
+	 */
+	public QueryExpression() {
+		this(null);
+	}
 
 	public QueryExpression(Condition condition) {
 		this.defaultCondition = condition;
 		this.conditions = new ArrayList<Map<String, Condition>>();
 	}
 
+	/**
+	 * 最初の条件をセットします。
+	 */
+	public void setCondition(Condition condition) {
+		this.defaultCondition = condition;
+	}
+
 	public void addAndCondtion(Condition condition) {
 		Map<String, Condition> cond = new HashMap<String, Condition>();
 		cond.put("and", condition);
@@ -63,6 +90,10 @@ public class QueryExpression {
 		this.sort = sort;
 	}
 
+	public Sort getSort() {
+		return this.sort;
+	}
+
 	/**
 	 * @param limit
 	 *            戻り値の最大数。SimpleDBの制限より設定できる最大値は2500（
@@ -83,18 +114,95 @@ public class QueryExpression {
 		return this.limit;
 	}
 
+	/**
+	 * {@link FetchType#LAZY}で指定されたBlobを、このqueryに限ってS3から取得するようにします。
+	 * 
+	 * @param fieldName
+	 *            {@link SimpleDBBlob}がついたフィールド名
+	 */
+	public void addEagerBlobFetch(String fieldName) {
+		this.eagerBlobFetchFields.add(fieldName);
+	}
+
+	public void removeEagerBlobFetch(String fieldName) {
+		this.eagerBlobFetchFields.remove(fieldName);
+	}
+
+	/**
+	 * 取得するattributeを追加します。一つも指定しない場合は、すべてのattributeを取得します（select *）。
+	 * 
+	 * 指定しなかったattributeのフィールドはnullのままで、Blobも取得しません。取得したPOJOをsaveしても、指定しなかったattributeは変更しません。
+	 * {@link com.dateofrock.simpledbmapper.SimpleDBVersionAttribute}のattributeは指定しなくても取得するので、
+	 * saveはConditional Putになります。
+	 * 
+	 * @param attributeName
+	 *            取得するattribute名
+	 */
+	public void addSelectAttribute(String attributeName) {
+		this.selectAttributes.add(attributeName);
+	}
+
+	/**
+	 * @return 取得するattribute名。空の場合はすべて取得します。変更できません
+	 */
+	public Set<String> getSelectAttributes() {
+		return Collections.unmodifiableSet(this.selectAttributes);
+	}
+
+	/**
+	 * iterateする際に、今のページを処理している間に先に取得しておくページ数を指定します。0の場合はプリフェッチしません。
+	 * 
+	 * 上限はページ数だけで、バイト数では制限しません。SimpleDBのselectの結果は1ページあたり1MBまでなので、
+	 * プリフェッチで使うメモリはおよそprefetchDepth MBまでになります。大きなattributeが多い場合は小さな値を指定してください。
+	 * 
+	 * @param prefetchDepth
+	 *            先に取得しておくページ数
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		if (prefetchDepth < 0) {
+			throw new IllegalArgumentException("prefetchDepthは0以上である必要があります");
+		}
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public int getPrefetchDepth() {
+		return this.prefetchDepth;
+	}
+
+	/**
+	 * @return S3から取得するBlobのフィールド名。変更できません
+	 */
+	public Set<String> getEagerBlobFetchFields() {
+		return Collections.unmodifiableSet(this.eagerBlobFetchFields);
+	}
+
 	public String describe() {
+		return describe(DEFAULT_CODEC_REGISTRY);
+	}
+
+	/**
+	 * @param codecRegistry
+	 *            条件の値の変換に使うコーデック
+	 * @return where文。条件がない場合はnull
+	 */
+	public String describe(TypeCodecRegistry codecRegistry) {
+		if (this.defaultCondition == null) {
+			if (!this.conditions.isEmpty() || this.sort != null) {
+				throw new SimpleDBMapperException("最初の条件がセットされていません");
+			}
+			return null;
+		}
 		List<String> attributeNames = new ArrayList<String>();
 
 		StringBuilder expression = new StringBuilder();
-		expression.append(this.defaultCondition.describe()).append(" ");
+		expression.append(this.defaultCondition.describe(codecRegistry)).append(" ");
 		attributeNames.add(this.defaultCondition.getAttributeName());
 
 		for (Map<String, Condition> conditionMap : this.conditions) {
 			for (String key : conditionMap.keySet()) {
 				expression.append(key).append(" ");
 				Condition condition = conditionMap.get(key);
-				expression.append(condition.describe());
+				expression.append(condition.describe(codecRegistry));
 				expression.append(" ");
 				attributeNames.add(condition.getAttributeName());
 			}
@@ -15,8 +15,11 @@
  */
 package com.dateofrock.simpledbmapper.query;
 
+import java.util.Iterator;
 import java.util.List;
 
+import com.dateofrock.simpledbmapper.QueryResult;
+import com.dateofrock.simpledbmapper.ScanHandler;
 import com.dateofrock.simpledbmapper.SimpleDBMapper;
 
 /**
@@ -31,12 +34,25 @@ public class QueryExpressionBuilder<T> {
 	public QueryExpressionBuilder(Class<T> clazz, SimpleDBMapper mapper) {
 		this.clazz = clazz;
 		this.mapper = mapper;
+		this.expression = new QueryExpression();
+	}
+
+	/**
+	 * 取得するattributeを指定します。指定しなかったattributeのフィールドはnullのままで、Blobも取得しません。
+	 * 
+	 * @see QueryExpression#addSelectAttribute(String)
+	 */
+	public QueryExpressionBuilder<T> select(String... attributeNames) {
+		for (String attributeName : attributeNames) {
+			this.expression.addSelectAttribute(attributeName);
+		}
+		return this;
 	}
 
 	public QueryExpressionBuilder<T> where(String attributeName, ComparisonOperator comparisonOperator,
 			Object attributeValue) {
 		Condition condition = new Condition(attributeName, comparisonOperator, attributeValue);
-		this.expression = new QueryExpression(condition);
+		this.expression.setCondition(condition);
 		return this;
 	}
 
@@ -78,11 +94,23 @@ public class QueryExpressionBuilder<T> {
 
 	public QueryExpressionBuilder<T> eagerBlobFetch(String... blobAttributeNames) {
 		for (String blobAttributeName : blobAttributeNames) {
-			this.mapper.addEagerBlobFetch(blobAttributeName);
+			this.expression.addEagerBlobFetch(blobAttributeName);
 		}
 		return this;
 	}
 
+	/**
+	 * {@link #iterate()}で、今のページを処理している間に次のページをバックグラウンドで取得します。
+	 * 
+	 * @param depth
+	 *            先に取得しておくページ数
+	 * @see QueryExpression#setPrefetchDepth(int)
+	 */
+	public QueryExpressionBuilder<T> prefetch(int depth) {
+		this.expression.setPrefetchDepth(depth);
+		return this;
+	}
+
 	// public QueryExpressionBuilder<T> offset(int offset) {
 	// return this;
 	// }
@@ -91,8 +119,44 @@ public class QueryExpressionBuilder<T> {
 		return this.mapper.select(this.clazz, this.expression);
 	}
 
+	/**
+	 * 残りのアイテムがあるかどうかも含めて取得します。
+	 * 
+	 * @see QueryResult#nextPage()
+	 */
+	public QueryResult<T> fetchPage() {
+		return this.mapper.query(this.clazz, this.expression);
+	}
+
+	/**
+	 * 結果を一件ずつ返す{@link Iterator}を返します。残りのアイテムがある場合は次のページを自動的に取得します。
+	 * 
+	 * @see SimpleDBMapper#iterate(Class, QueryExpression)
+	 */
+	public Iterator<T> iterate() {
+		return this.mapper.iterate(this.clazz, this.expression);
+	}
+
+	/**
+	 * itemNameの範囲で分割して、並列にselectします。
+	 * 
+	 * @see SimpleDBMapper#parallelScan(Class, QueryExpression, int, ScanHandler)
+	 */
+	public int parallelScan(int segments, ScanHandler<T> handler) {
+		return this.mapper.parallelScan(this.clazz, this.expression, segments, handler);
+	}
+
 	public int count() {
 		return this.mapper.count(this.clazz, this.expression);
 	}
 
+	/**
+	 * itemNameの範囲で分割して、並列にカウントします。
+	 * 
+	 * @see SimpleDBMapper#count(Class, QueryExpression, int)
+	 */
+	public int count(int segments) {
+		return this.mapper.count(this.clazz, this.expression, segments);
+	}
+
 }
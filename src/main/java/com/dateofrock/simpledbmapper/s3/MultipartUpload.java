@@ -0,0 +1,171 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+import com.dateofrock.simpledbmapper.util.IOUtils;
+
+/**
+ * 大きなBlobをS3のマルチパートアップロードで保存します。
+ * 
+ * InputStreamをpartSizeずつ読み込み、パートを並列にアップロードします。同時にメモリに持つのは最大でmaxInFlight + 1パート分です。
+ * パートのアップロードは呼び出し側とは別のスレッドプールで行うので、このクラスをそのスレッドプールの中で使わないでください。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class MultipartUpload {
+
+	/** S3のマルチパートアップロードで指定できる最小のパートサイズ */
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	private String simpleDBAttributeName;
+	private AmazonS3 s3;
+	private InputStream input;
+	private String bucketName, key, contentType;
+	private int partSize;
+	private ExecutorService executor;
+	private int maxInFlight;
+	private String md5;
+
+	public MultipartUpload(AmazonS3 s3, String simpleDBAttributeName, InputStream input, String bucketName, String key,
+			String contentType, int partSize, ExecutorService executor, int maxInFlight) {
+		this.simpleDBAttributeName = simpleDBAttributeName;
+		this.s3 = s3;
+		this.input = input;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.contentType = contentType;
+		this.partSize = Math.max(MIN_PART_SIZE, partSize);
+		this.executor = executor;
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+
+	/**
+	 * inputの内容のMD5（16進数）を指定します。SimpleDBの参照情報と、S3のユーザーメタデータ「md5」に保存されます。
+	 */
+	public void setMD5(String md5) {
+		this.md5 = md5;
+	}
+
+	/**
+	 * アップロードします。失敗した場合はマルチパートアップロードを中止し、失敗した結果を返します。inputはcloseされます。
+	 */
+	public S3TaskResult upload() {
+		S3TaskResult taskResult = new S3TaskResult(Operation.UPLOAD, this.simpleDBAttributeName, this.bucketName,
+				this.key);
+		String uploadId = null;
+		LinkedList<Future<PartETag>> inFlight = new LinkedList<Future<PartETag>>();
+		try {
+			InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(this.bucketName,
+					this.key);
+			if (this.contentType != null || this.md5 != null) {
+				ObjectMetadata meta = new ObjectMetadata();
+				if (this.contentType != null) {
+					meta.setContentType(this.contentType);
+				}
+				if (this.md5 != null) {
+					// マルチパートアップロードのETagはMD5にならないので、ユーザーメタデータに保存する
+					meta.addUserMetadata("md5", this.md5);
+				}
+				initiateRequest.setObjectMetadata(meta);
+			}
+			uploadId = this.s3.initiateMultipartUpload(initiateRequest).getUploadId();
+
+			List<PartETag> partETags = new ArrayList<PartETag>();
+			int partNumber = 1;
+			byte[] buffer;
+			while ((buffer = readPart()) != null) {
+				if (inFlight.size() >= this.maxInFlight) {
+					partETags.add(inFlight.removeFirst().get());
+				}
+				inFlight.add(this.executor.submit(createPartTask(uploadId, partNumber++, buffer)));
+			}
+			while (!inFlight.isEmpty()) {
+				partETags.add(inFlight.removeFirst().get());
+			}
+
+			this.s3.completeMultipartUpload(new CompleteMultipartUploadRequest(this.bucketName, this.key, uploadId,
+					partETags));
+			taskResult.setMD5(this.md5);
+			taskResult.setSuccess(true);
+		} catch (Exception e) {
+			for (Future<PartETag> future : inFlight) {
+				future.cancel(true);
+			}
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			if (uploadId != null) {
+				try {
+					this.s3.abortMultipartUpload(new AbortMultipartUploadRequest(this.bucketName, this.key, uploadId));
+				} catch (Exception ignore) {
+				}
+			}
+			taskResult.setSuccess(false);
+			taskResult.setS3Exception(e);
+		} finally {
+			IOUtils.closeQuietly(this.input);
+		}
+		return taskResult;
+	}
+
+	/**
+	 * @return 読み込んだパート。最後まで読んだ場合はnull
+	 */
+	private byte[] readPart() throws IOException {
+		byte[] buffer = new byte[this.partSize];
+		int length = IOUtils.readFully(this.input, buffer);
+		if (length == 0) {
+			return null;
+		}
+		if (length < buffer.length) {
+			byte[] lastPart = new byte[length];
+			System.arraycopy(buffer, 0, lastPart, 0, length);
+			return lastPart;
+		}
+		return buffer;
+	}
+
+	private Callable<PartETag> createPartTask(final String uploadId, final int partNumber, final byte[] part) {
+		return new Callable<PartETag>() {
+			@Override
+			public PartETag call() {
+				UploadPartRequest request = new UploadPartRequest().withBucketName(MultipartUpload.this.bucketName)
+						.withKey(MultipartUpload.this.key).withUploadId(uploadId).withPartNumber(partNumber)
+						.withInputStream(new ByteArrayInputStream(part)).withPartSize(part.length);
+				return MultipartUpload.this.s3.uploadPart(request).getPartETag();
+			}
+		};
+	}
+
+}
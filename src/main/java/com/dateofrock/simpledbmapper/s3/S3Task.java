@@ -34,6 +34,8 @@ public class S3Task implements Callable<S3TaskResult> {
 	private AmazonS3 s3;
 	private InputStream input;
 	private String bucketName, key, contentType;
+	private long contentLength = -1;
+	private String md5;
 
 	public S3Task(AmazonS3 s3, String simpleDBAttributeName, InputStream input, String bucketName, String key,
 			String contentType) {
@@ -45,17 +47,43 @@ public class S3Task implements Callable<S3TaskResult> {
 		this.contentType = contentType;
 	}
 
+	/**
+	 * @param contentLength
+	 *            inputのバイト数。指定しないとAWS SDKがinputをすべてメモリに読み込みます
+	 */
+	public S3Task(AmazonS3 s3, String simpleDBAttributeName, InputStream input, String bucketName, String key,
+			String contentType, long contentLength) {
+		this(s3, simpleDBAttributeName, input, bucketName, key, contentType);
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * inputの内容のMD5（16進数）を指定します。SimpleDBの参照情報と、S3のユーザーメタデータ「md5」に保存されます。
+	 */
+	public void setMD5(String md5) {
+		this.md5 = md5;
+	}
+
 	@Override
 	public S3TaskResult call() throws Exception {
 		S3TaskResult taskResult = new S3TaskResult(Operation.UPLOAD, this.simpleDBAttributeName, this.bucketName,
 				this.key);
 		try {
 			ObjectMetadata meta = null;
-			if (this.contentType != null) {
+			if (this.contentType != null || this.contentLength >= 0 || this.md5 != null) {
 				meta = new ObjectMetadata();
-				meta.setContentType(this.contentType);
+				if (this.contentType != null) {
+					meta.setContentType(this.contentType);
+				}
+				if (this.contentLength >= 0) {
+					meta.setContentLength(this.contentLength);
+				}
+				if (this.md5 != null) {
+					meta.addUserMetadata("md5", this.md5);
+				}
 			}
 			this.s3.putObject(this.bucketName, this.key, this.input, meta);
+			taskResult.setMD5(this.md5);
 			taskResult.setSuccess(true);
 		} catch (Exception e) {
 			taskResult.setSuccess(false);
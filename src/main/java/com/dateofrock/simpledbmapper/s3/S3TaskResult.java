@@ -37,6 +37,7 @@ public class S3TaskResult {
 	private boolean success;
 	private String simpleDBAttributeName;
 	private String bucketName, key;
+	private String md5;
 	private Exception s3Exception;
 
 	public S3TaskResult(Operation operation, String simpleDBAttributeName, String bucketName, String key) {
@@ -52,6 +53,9 @@ public class S3TaskResult {
 		prop.put("bucketName", this.bucketName);
 		prop.put("key", this.key);
 		prop.put("success", String.valueOf(this.success));
+		if (this.md5 != null) {
+			prop.put("md5", this.md5);
+		}
 		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
 		try {
 			prop.store(byteOut, null);
@@ -79,6 +83,8 @@ public class S3TaskResult {
 		this.bucketName = prop.get("bucketName").toString();
 		this.key = prop.get("key").toString();
 		this.success = new Boolean(prop.get("success").toString());
+		// md5がない参照は古いバージョンで保存したもの
+		this.md5 = prop.getProperty("md5");
 	}
 
 	public String getSimpleDBAttributeName() {
@@ -93,6 +99,17 @@ public class S3TaskResult {
 		return this.key;
 	}
 
+	/**
+	 * @return Blobの内容のMD5（16進数）。わからない場合はnull
+	 */
+	public String getMD5() {
+		return this.md5;
+	}
+
+	public void setMD5(String md5) {
+		this.md5 = md5;
+	}
+
 	public Operation getOperation() {
 		return this.operation;
 	}
@@ -15,15 +15,18 @@
  */
 package com.dateofrock.simpledbmapper.util;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * 
@@ -32,42 +35,182 @@ import java.io.Writer;
  */
 public class IOUtils {
 
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * 読み込み用のバッファです。スレッドごとに使い回します。
+	 */
+	private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
 	public static String readString(InputStream input, String encoding) {
-		InputStreamReader reader = null;
-		StringWriter writer = null;
+		return readString(input, encoding, -1);
+	}
+
+	/**
+	 * inputを最後まで読み込み、まとめてデコードします。inputはcloseされます。
+	 * 
+	 * @param contentLength
+	 *            わかっている場合はバイト数（S3のContent-Lengthなど）。わからない場合は-1
+	 */
+	public static String readString(InputStream input, String encoding, long contentLength) {
+		byte[] bytes = toByteArray(input, contentLength);
+		try {
+			return new String(bytes, encoding);
+		} catch (UnsupportedEncodingException e) {
+			throw new IOUtilsRuntimeException("Failed to read InputStream", e);
+		}
+	}
+
+	public static byte[] readBytes(InputStream input) {
+		return toByteArray(input, -1);
+	}
+
+	/**
+	 * inputを最後まで読み込みます。inputはcloseされます。
+	 * 
+	 * contentLengthがわかっている場合は、その長さの配列に直接読み込みます。実際の長さと違っていても正しく読み込みます。
+	 * 
+	 * @param contentLength
+	 *            わかっている場合はバイト数（S3のContent-Lengthなど）。わからない場合は-1
+	 */
+	public static byte[] toByteArray(InputStream input, long contentLength) {
 		try {
-			reader = new InputStreamReader(input, encoding);
-			writer = new StringWriter();
-			int c;
-			while ((c = reader.read()) != -1) {
-				writer.write(c);
+			if (contentLength > 0 && contentLength < Integer.MAX_VALUE) {
+				byte[] bytes = new byte[(int) contentLength];
+				int length = readFully(input, bytes);
+				if (length < bytes.length) {
+					return Arrays.copyOf(bytes, length);
+				}
+				int next = input.read();
+				if (next == -1) {
+					return bytes;
+				}
+				// Content-Lengthより長かった場合は残りを読み込む
+				ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length + BUFFER_SIZE);
+				output.write(bytes);
+				output.write(next);
+				transfer(input, output);
+				return output.toByteArray();
 			}
-			return writer.toString();
-		} catch (Exception e) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+			transfer(input, output);
+			return output.toByteArray();
+		} catch (IOException e) {
 			throw new IOUtilsRuntimeException("Failed to read InputStream", e);
 		} finally {
-			IOUtils.closeQuietly(reader);
-			IOUtils.closeQuietly(writer);
 			IOUtils.closeQuietly(input);
 		}
 	}
 
-	public static byte[] readBytes(InputStream input) {
-		ByteArrayOutputStream byteout = new ByteArrayOutputStream();
-		BufferedOutputStream bufout = new BufferedOutputStream(byteout);
-		int c;
+	private static void transfer(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = BUFFER.get();
+		int n;
+		while ((n = input.read(buffer)) != -1) {
+			output.write(buffer, 0, n);
+		}
+	}
+
+	/**
+	 * 最大でlimitバイトまで読み込みます。inputはcloseしません。
+	 * 
+	 * @return 読み込んだバイト。長さがlimitより小さい場合は最後まで読んでいます
+	 */
+	public static byte[] readBytes(InputStream input, int limit) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(limit, BUFFER_SIZE));
+		byte[] buffer = BUFFER.get();
+		int total = 0;
+		while (total < limit) {
+			int n = input.read(buffer, 0, Math.min(buffer.length, limit - total));
+			if (n == -1) {
+				break;
+			}
+			output.write(buffer, 0, n);
+			total += n;
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * bufferがいっぱいになるか、最後まで読み込みます。inputはcloseしません。
+	 * 
+	 * @return 読み込んだバイト数。buffer.lengthより小さい場合は最後まで読み込んでいます。すでに最後まで読んでいた場合は0
+	 */
+	public static int readFully(InputStream input, byte[] buffer) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int n = input.read(buffer, total, buffer.length - total);
+			if (n == -1) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * inputをoutputにコピーします。inputとoutputはcloseされます。
+	 */
+	public static void copy(InputStream input, OutputStream output) {
 		try {
-			while ((c = input.read()) != -1) {
-				bufout.write(c);
+			transfer(input, output);
+			output.flush();
+		} catch (IOException e) {
+			throw new IOUtilsRuntimeException("Failed to copy InputStream", e);
+		} finally {
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * @return bytesのMD5（16進数）
+	 */
+	public static String md5Hex(byte[] bytes) {
+		MessageDigest digest = newMD5();
+		digest.update(bytes);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @return fileの内容のMD5（16進数）
+	 */
+	public static String md5Hex(File file) {
+		MessageDigest digest = newMD5();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			byte[] buffer = BUFFER.get();
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
 			}
 		} catch (IOException e) {
-			throw new IOUtilsRuntimeException("Failed to read InputStream", e);
+			throw new IOUtilsRuntimeException("Failed to read File", e);
 		} finally {
-			IOUtils.closeQuietly(bufout);
-			IOUtils.closeQuietly(byteout);
 			IOUtils.closeQuietly(input);
 		}
-		return byteout.toByteArray();
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newMD5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOUtilsRuntimeException("MD5 is not supported", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
 	}
 
 	public static void closeQuietly(OutputStream output) {
@@ -0,0 +1,401 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.util;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+
+/**
+ * 数値と日付をSimpleDBの辞書順で比較できる文字列に変換するユーティリティです。
+ * 
+ * {@link SimpleDBUtils}と同じ形式の文字列を生成しますが、String.formatやSimpleDateFormatを使わず、スレッドごとに再利用する
+ * char配列に直接書き込むので、大量のデータを変換する際のオブジェクト生成が少なくなります。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBFormat {
+
+	private static final int BUFFER_SIZE = 64;
+
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[BUFFER_SIZE];
+		}
+	};
+
+	private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+	private static final long MILLIS_PER_DAY = 24L * 60L * MILLIS_PER_MINUTE;
+
+	/** yyyy-MM-ddTHH:mm:ss.SSS+hh:mm */
+	private static final int DATE_LENGTH = 29;
+
+	/** グレゴリオ暦への切り替え（1582-10-15）以降の最初の年。これより前はSimpleDBUtilsに任せる */
+	private static final int MIN_FAST_YEAR = 1583;
+	private static final int MAX_FAST_YEAR = 9999;
+
+	private SimpleDBFormat() {
+	}
+
+	/**
+	 * @see SimpleDBUtils#encodeZeroPadding(int, int)
+	 */
+	public static String encodeZeroPadding(int number, int maxNumDigits) {
+		return encodeZeroPadding((long) number, maxNumDigits);
+	}
+
+	/**
+	 * @see SimpleDBUtils#encodeZeroPadding(long, int)
+	 */
+	public static String encodeZeroPadding(long number, int maxNumDigits) {
+		int length = stringSize(number);
+		int numZeroes = Math.max(maxNumDigits - length, 0);
+		char[] buf = buffer(numZeroes + length);
+		fillZeroes(buf, numZeroes);
+		writeLong(buf, numZeroes + length, number);
+		return new String(buf, 0, numZeroes + length);
+	}
+
+	/**
+	 * 小数点より前の桁数がmaxNumDigitsになるようにゼロパディングします。
+	 * 
+	 * 小数部の表現は{@link Float#toString(float)}と同じである必要があるため、この変換だけは文字列を一つ生成します。
+	 * 
+	 * @see SimpleDBUtils#encodeZeroPadding(float, int)
+	 */
+	public static String encodeZeroPadding(float number, int maxNumDigits) {
+		String floatString = Float.toString(number);
+		int numBeforeDecimal = floatString.indexOf('.');
+		if (numBeforeDecimal < 0) {
+			numBeforeDecimal = floatString.length();
+		}
+		int numZeroes = Math.max(maxNumDigits - numBeforeDecimal, 0);
+		int length = numZeroes + floatString.length();
+		char[] buf = buffer(length);
+		fillZeroes(buf, numZeroes);
+		floatString.getChars(0, floatString.length(), buf, numZeroes);
+		return new String(buf, 0, length);
+	}
+
+	/**
+	 * 負の値も辞書順で比較できるように、offsetValueを足してからゼロパディングします。
+	 * 
+	 * @throws IllegalArgumentException
+	 *             offsetValueを足しても負の値になる場合
+	 * @see SimpleDBUtils#encodeRealNumberRange(int, int, int)
+	 */
+	public static String encodeRealNumberRange(int number, int maxNumDigits, int offsetValue) {
+		long offsetNumber = number + offsetValue;
+		return encodeOffsetNumber(offsetNumber, maxNumDigits, number);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             offsetValueを足しても負の値になる場合
+	 * @see SimpleDBUtils#encodeRealNumberRange(long, int, long)
+	 */
+	public static String encodeRealNumberRange(long number, int maxNumDigits, long offsetValue) {
+		long offsetNumber = number + offsetValue;
+		return encodeOffsetNumber(offsetNumber, maxNumDigits, number);
+	}
+
+	/**
+	 * 小数点以下maxDigitsRight桁までの固定小数点数として、offsetValueを足してからゼロパディングします。
+	 * 
+	 * {@link SimpleDBUtils}と違い、桁をずらした値がintの範囲を超えてもあふれません。
+	 * 
+	 * @throws IllegalArgumentException
+	 *             offsetValueを足しても負の値になる場合
+	 * @see SimpleDBUtils#encodeRealNumberRange(float, int, int, int)
+	 */
+	public static String encodeRealNumberRange(float number, int maxDigitsLeft, int maxDigitsRight, int offsetValue) {
+		int shiftMultiplier = (int) Math.pow(10, maxDigitsRight);
+		// SimpleDBUtilsと同じ値になるようにfloatのまま掛け、intに丸めずにlongへ丸める
+		long shiftedNumber = Math.round((double) (number * shiftMultiplier));
+		long shiftedOffset = (long) offsetValue * shiftMultiplier;
+		long offsetNumber = shiftedNumber + shiftedOffset;
+		return encodeOffsetNumber(offsetNumber, maxDigitsLeft + maxDigitsRight, number);
+	}
+
+	private static String encodeOffsetNumber(long offsetNumber, int maxNumDigits, Object number) {
+		if (offsetNumber < 0) {
+			throw new IllegalArgumentException(number + " is too negative for the offset value.");
+		}
+		return encodeZeroPadding(offsetNumber, maxNumDigits);
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeZeroPaddingInt(String)
+	 */
+	public static int decodeZeroPaddingInt(String value) {
+		return Integer.parseInt(value, 10);
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeZeroPaddingLong(String)
+	 */
+	public static long decodeZeroPaddingLong(String value) {
+		return Long.parseLong(value, 10);
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeZeroPaddingFloat(String)
+	 */
+	public static float decodeZeroPaddingFloat(String value) {
+		return Float.parseFloat(value);
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeRealNumberRangeInt(String, int)
+	 */
+	public static int decodeRealNumberRangeInt(String value, int offsetValue) {
+		return (int) (Long.parseLong(value, 10) - offsetValue);
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeRealNumberRangeLong(String, long)
+	 */
+	public static long decodeRealNumberRangeLong(String value, long offsetValue) {
+		return Long.parseLong(value, 10) - offsetValue;
+	}
+
+	/**
+	 * @see SimpleDBUtils#decodeRealNumberRangeFloat(String, int, int)
+	 */
+	public static float decodeRealNumberRangeFloat(String value, int maxDigitsRight, int offsetValue) {
+		long offsetNumber = Long.parseLong(value, 10);
+		int shiftMultiplier = (int) Math.pow(10, maxDigitsRight);
+		double tempVal = offsetNumber - (long) offsetValue * shiftMultiplier;
+		return (float) (tempVal / shiftMultiplier);
+	}
+
+	/**
+	 * デフォルトのタイムゾーンで、ISO8601形式（例: 2012-01-20T00:00:00.000+09:00）の文字列にします。
+	 * 
+	 * @see SimpleDBUtils#encodeDate(Date)
+	 */
+	public static String encodeDate(Date date) {
+		char[] buf = buffer(DATE_LENGTH);
+		if (!writeDate(buf, date.getTime(), TimeZone.getDefault())) {
+			// グレゴリオ暦以前や5桁の年はSimpleDateFormatに任せる
+			return SimpleDBUtils.encodeDate(date);
+		}
+		return new String(buf, 0, DATE_LENGTH);
+	}
+
+	/**
+	 * {@link #encodeDate(Date)}の形式の文字列をパースします。形式が厳密に一致しない場合は{@link SimpleDBUtils}でパースします。
+	 * 
+	 * @see SimpleDBUtils#decodeDate(String)
+	 */
+	public static Date decodeDate(String value) throws ParseException {
+		long millis = parseDate(value);
+		if (millis == Long.MIN_VALUE) {
+			return SimpleDBUtils.decodeDate(value);
+		}
+		return new Date(millis);
+	}
+
+	private static boolean writeDate(char[] buf, long millis, TimeZone timeZone) {
+		int offset = timeZone.getOffset(millis);
+		long localMillis = millis + offset;
+		long days = floorDiv(localMillis, MILLIS_PER_DAY);
+		int millisOfDay = (int) (localMillis - days * MILLIS_PER_DAY);
+
+		// days from civil (http://howardhinnant.github.io/date_algorithms.html)
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR) {
+			return false;
+		}
+
+		int offsetMinutes = offset / (int) MILLIS_PER_MINUTE;
+		char sign = '+';
+		if (offsetMinutes < 0) {
+			sign = '-';
+			offsetMinutes = -offsetMinutes;
+		}
+		if (offsetMinutes / 60 > 99) {
+			return false;
+		}
+
+		writeDigits(buf, 0, (int) year, 4);
+		buf[4] = '-';
+		writeDigits(buf, 5, month, 2);
+		buf[7] = '-';
+		writeDigits(buf, 8, day, 2);
+		buf[10] = 'T';
+		writeDigits(buf, 11, millisOfDay / 3600000, 2);
+		buf[13] = ':';
+		writeDigits(buf, 14, millisOfDay / 60000 % 60, 2);
+		buf[16] = ':';
+		writeDigits(buf, 17, millisOfDay / 1000 % 60, 2);
+		buf[19] = '.';
+		writeDigits(buf, 20, millisOfDay % 1000, 3);
+		buf[23] = sign;
+		writeDigits(buf, 24, offsetMinutes / 60, 2);
+		buf[26] = ':';
+		writeDigits(buf, 27, offsetMinutes % 60, 2);
+		return true;
+	}
+
+	/**
+	 * @return パースできない場合はLong.MIN_VALUE
+	 */
+	private static long parseDate(String value) {
+		if (value.length() != DATE_LENGTH || value.charAt(4) != '-' || value.charAt(7) != '-'
+				|| value.charAt(10) != 'T' || value.charAt(13) != ':' || value.charAt(16) != ':'
+				|| value.charAt(19) != '.' || value.charAt(26) != ':') {
+			return Long.MIN_VALUE;
+		}
+		char sign = value.charAt(23);
+		if (sign != '+' && sign != '-') {
+			return Long.MIN_VALUE;
+		}
+		int year = parseDigits(value, 0, 4);
+		int month = parseDigits(value, 5, 2);
+		int day = parseDigits(value, 8, 2);
+		int hour = parseDigits(value, 11, 2);
+		int minute = parseDigits(value, 14, 2);
+		int second = parseDigits(value, 17, 2);
+		int millis = parseDigits(value, 20, 3);
+		int offsetHour = parseDigits(value, 24, 2);
+		int offsetMinute = parseDigits(value, 27, 2);
+		if (year < MIN_FAST_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0
+				|| offsetHour < 0 || offsetMinute < 0 || offsetMinute > 59) {
+			// 範囲外の値はSimpleDateFormat（lenient）と同じ解釈にするため、フォールバックさせる
+			return Long.MIN_VALUE;
+		}
+		long offsetMillis = (offsetHour * 60L + offsetMinute) * MILLIS_PER_MINUTE;
+		if (sign == '-') {
+			offsetMillis = -offsetMillis;
+		}
+		long localMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L
+				+ second * 1000L + millis;
+		return localMillis - offsetMillis;
+	}
+
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * @return 数字以外が含まれる場合は-1
+	 */
+	private static int parseDigits(String value, int start, int length) {
+		int result = 0;
+		for (int i = start; i < start + length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static void writeDigits(char[] buf, int start, int value, int length) {
+		int v = value;
+		for (int i = start + length - 1; i >= start; i--) {
+			buf[i] = (char) ('0' + v % 10);
+			v /= 10;
+		}
+	}
+
+	/**
+	 * {@link Long#toString(long)}と同じ文字列をbufのendより前に書き込みます
+	 */
+	private static void writeLong(char[] buf, int end, long value) {
+		// Long.MIN_VALUEを扱えるように、負の数のまま計算する
+		long q = value < 0 ? value : -value;
+		int pos = end;
+		do {
+			buf[--pos] = (char) ('0' - (q % 10));
+			q /= 10;
+		} while (q != 0);
+		if (value < 0) {
+			buf[--pos] = '-';
+		}
+	}
+
+	/**
+	 * @return {@link Long#toString(long)}の文字数
+	 */
+	private static int stringSize(long value) {
+		long q = value < 0 ? value : -value;
+		int size = value < 0 ? 2 : 1;
+		while (q <= -10) {
+			q /= 10;
+			size++;
+		}
+		return size;
+	}
+
+	private static void fillZeroes(char[] buf, int numZeroes) {
+		for (int i = 0; i < numZeroes; i++) {
+			buf[i] = '0';
+		}
+	}
+
+	private static char[] buffer(int size) {
+		char[] buf = BUFFER.get();
+		if (buf.length < size) {
+			buf = new char[size];
+			BUFFER.set(buf);
+		}
+		return buf;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long r = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			r--;
+		}
+		return r;
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * 一時ファイルを読み込む{@link FileInputStream}です。closeすると一時ファイルを削除します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class TempFileInputStream extends FileInputStream {
+
+	private final File file;
+
+	public TempFileInputStream(File file) throws FileNotFoundException {
+		super(file);
+		this.file = file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			this.file.delete();
+		}
+	}
+
+}
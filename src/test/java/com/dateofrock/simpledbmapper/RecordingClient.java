@@ -0,0 +1,121 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AWSにアクセスせずにテストするため、呼び出されたメソッドと引数を記録するだけのクライアントを作ります。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+class RecordingClient implements InvocationHandler {
+
+	static class Invocation {
+		final String methodName;
+		final Object argument;
+		final Object[] allArguments;
+
+		Invocation(String methodName, Object[] allArguments) {
+			this.methodName = methodName;
+			this.argument = allArguments.length == 0 ? null : allArguments[0];
+			this.allArguments = allArguments;
+		}
+	}
+
+	/**
+	 * メソッドが呼ばれた時の振る舞い
+	 */
+	interface Answer {
+		Object answer(Object argument) throws Exception;
+	}
+
+	private final List<Invocation> invocations = Collections.synchronizedList(new ArrayList<Invocation>());
+	private final Map<String, Answer> answers = Collections.synchronizedMap(new HashMap<String, Answer>());
+
+	@SuppressWarnings("unchecked")
+	static <T> T create(Class<T> clientInterface, RecordingClient handler) {
+		return (T) Proxy.newProxyInstance(clientInterface.getClassLoader(), new Class<?>[] { clientInterface },
+				handler);
+	}
+
+	void answer(String methodName, Answer answer) {
+		this.answers.put(methodName, answer);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			try {
+				return method.invoke(this, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		Invocation invocation = new Invocation(method.getName(), args == null ? new Object[0] : args);
+		Object argument = invocation.argument;
+		this.invocations.add(invocation);
+		Answer answer = this.answers.get(method.getName());
+		if (answer != null) {
+			return answer.answer(argument);
+		}
+		return null;
+	}
+
+	/**
+	 * @return 指定したメソッドに渡された引数
+	 */
+	@SuppressWarnings("unchecked")
+	<T> List<T> arguments(String methodName) {
+		List<T> arguments = new ArrayList<T>();
+		synchronized (this.invocations) {
+			for (Invocation invocation : this.invocations) {
+				if (invocation.methodName.equals(methodName)) {
+					arguments.add((T) invocation.argument);
+				}
+			}
+		}
+		return arguments;
+	}
+
+	/**
+	 * @return 指定したメソッドに渡されたすべての引数。getObject(bucketName, key)のように引数が複数ある場合に使います
+	 */
+	List<Object[]> allArguments(String methodName) {
+		List<Object[]> arguments = new ArrayList<Object[]>();
+		synchronized (this.invocations) {
+			for (Invocation invocation : this.invocations) {
+				if (invocation.methodName.equals(methodName)) {
+					arguments.add(invocation.allArguments);
+				}
+			}
+		}
+		return arguments;
+	}
+
+	int count(String methodName) {
+		return arguments(methodName).size();
+	}
+
+}
@@ -24,6 +24,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -40,6 +41,8 @@ import model.StringItemNameModel;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.services.simpledb.model.Attribute;
+
 /**
  * @author Takehito Tanabe (dateofrock at gmail dot com)
  */
@@ -71,6 +74,21 @@ public class ReflectorTest {
 		assertEquals(expected, fields);
 	}
 
+	@Test
+	public void getMetadata() throws Exception {
+		EntityMetadata metadata = this.reflector.getMetadata(BookSubClass.class);
+		assertSame(metadata, this.reflector.getMetadata(BookSubClass.class));
+		assertEquals("SimpleDBMapper-Book", metadata.getDomainName());
+		assertEquals(Book.class.getField("id"), metadata.getItemNameField());
+		assertEquals(Book.class.getField("version"), metadata.getVersionProperty().getField());
+		assertEquals(9, metadata.getAttributeProperties().size());
+		assertEquals(2, metadata.getBlobProperties().size());
+		assertEquals(BookSubClass.class.getField("tags"), metadata.getProperty("tags").getField());
+		assertEquals(String.class, metadata.getProperty("tags").getSetElementType());
+		assertTrue(metadata.getProperty("review").isBlob());
+		assertNull(metadata.getProperty("id"));
+	}
+
 	@Test
 	public void findFieldByAttributeName() throws Exception {
 		Field expected = Book.class.getField("title");
@@ -137,11 +155,34 @@ public class ReflectorTest {
 
 	// TODO
 	// @Test
-	// public void setAttributeAndBlobValueToField() {
-	// // this.reflector.setAttributeAndBlobValueToField(s3, instance, field,
+	// public void setAttributeValueToField() {
+	// // this.reflector.setAttributeValueToField(s3, instance, field,
 	// // attributeName, attributeValue);
 	// }
 
+	@Test
+	public void setFieldValueFromAttribute() throws Exception {
+		Book book = new Book();
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("title", "hoge"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("price", "0000001200"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("height", "0000000012.5"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("available", "true"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("publishedAt",
+				"2012-01-20T00:00:00.000+09:00"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("authors", "Alice"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("authors", "Bob"));
+		this.reflector.setFieldValueFromAttribute(Book.class, book, new Attribute("version", "123"));
+
+		assertEquals("hoge", book.title);
+		assertEquals(Integer.valueOf(1200), book.price);
+		assertEquals(Float.valueOf(12.5f), book.height);
+		assertTrue(book.available);
+		DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss Z");
+		assertEquals(df.parse("2012/01/20 00:00:00 +0900"), book.publishedAt);
+		assertEquals(new HashSet<String>(Arrays.asList("Alice", "Bob")), book.authors);
+		assertEquals(Long.valueOf(123L), book.version);
+	}
+
 	@Test
 	public void encodeObjectAsSimpleDBFormat() throws Exception {
 		String value = this.reflector.encodeObjectAsSimpleDBFormat("hoge");
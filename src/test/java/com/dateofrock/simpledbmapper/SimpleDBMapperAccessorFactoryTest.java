@@ -0,0 +1,185 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.dateofrock.simpledbmapper.accessor.AccessorFactory;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping;
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.accessor.Instantiator;
+import com.dateofrock.simpledbmapper.accessor.ReflectionAccessorFactory;
+
+/**
+ * {@link SimpleDBMapperConfig#setAccessorFactory(AccessorFactory)}で指定したファクトリが使われることを確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperAccessorFactoryTest {
+
+	private RecordingClient sdbClient;
+	private CountingAccessorFactory factory;
+	private SimpleDBMapper mapper;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, new RecordingClient());
+		this.factory = new CountingAccessorFactory();
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		config.setAccessorFactory(this.factory);
+		this.mapper = new SimpleDBMapper(sdb, s3, config);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void loadAndSaveUseConfiguredFactory() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new Attribute("secret", "hoge"));
+			}
+		});
+
+		Secret secret = this.mapper.load(Secret.class, "secret1");
+		assertEquals("secret1", secret.id);
+		assertEquals("hoge", secret.secret);
+		assertEquals(1, this.factory.instances.get());
+		assertTrue(this.factory.sets.get() >= 2);
+
+		secret.secret = "fuga";
+		this.mapper.save(secret);
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals("secret1", put.getItemName());
+		ReplaceableAttribute attribute = put.getAttributes().get(0);
+		assertEquals("secret", attribute.getName());
+		assertEquals("fuga", attribute.getValue());
+		assertTrue(this.factory.gets.get() >= 2);
+
+		// アクセサはクラスごとに一度だけ作られる
+		this.mapper.load(Secret.class, "secret1");
+		assertEquals(1, this.factory.instantiators.get());
+		assertEquals(new HashSet<String>(Arrays.asList("id", "secret")), this.factory.fieldNames);
+		assertEquals(2, this.factory.instances.get());
+	}
+
+	@Test
+	public void metadataComesFromEntityMapping() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new Attribute("secret_value", "hoge"));
+			}
+		});
+		// アノテーションとは異なるマッピングを返す
+		this.factory.mapping = new EntityMapping("SimpleDBMapper-Mapped", "", "").itemName(Secret.class, "id")
+				.attribute(Secret.class, "secret", "secret_value", null);
+
+		Secret secret = this.mapper.load(Secret.class, "secret1");
+		assertEquals("hoge", secret.secret);
+		GetAttributesRequest get = this.sdbClient.<GetAttributesRequest> arguments("getAttributes").get(0);
+		assertEquals("SimpleDBMapper-Mapped", get.getDomainName());
+	}
+
+	@SimpleDBDomain(domainName = "SimpleDBMapper-Secret")
+	static class Secret {
+		@SimpleDBItemName
+		private String id;
+
+		@SimpleDBAttribute
+		private String secret;
+
+		private Secret() {
+		}
+	}
+
+	/**
+	 * {@link ReflectionAccessorFactory}に委譲し、呼ばれた回数を数えます。
+	 */
+	static class CountingAccessorFactory implements AccessorFactory {
+
+		private final ReflectionAccessorFactory delegate = new ReflectionAccessorFactory();
+		final AtomicInteger instantiators = new AtomicInteger();
+		final AtomicInteger instances = new AtomicInteger();
+		final AtomicInteger gets = new AtomicInteger();
+		final AtomicInteger sets = new AtomicInteger();
+		final Set<String> fieldNames = new HashSet<String>();
+		EntityMapping mapping;
+
+		@Override
+		public <T> Instantiator<T> createInstantiator(Class<T> clazz) {
+			this.instantiators.incrementAndGet();
+			final Instantiator<T> instantiator = this.delegate.createInstantiator(clazz);
+			return new Instantiator<T>() {
+				@Override
+				public T newInstance() {
+					CountingAccessorFactory.this.instances.incrementAndGet();
+					return instantiator.newInstance();
+				}
+			};
+		}
+
+		@Override
+		public FieldAccessor createFieldAccessor(Class<?> entityClass, Field field) {
+			this.fieldNames.add(field.getName());
+			final FieldAccessor accessor = this.delegate.createFieldAccessor(entityClass, field);
+			return new FieldAccessor() {
+				@Override
+				public Object get(Object instance) {
+					CountingAccessorFactory.this.gets.incrementAndGet();
+					return accessor.get(instance);
+				}
+
+				@Override
+				public void set(Object instance, Object value) {
+					CountingAccessorFactory.this.sets.incrementAndGet();
+					accessor.set(instance, value);
+				}
+			};
+		}
+
+		@Override
+		public EntityMapping createEntityMapping(Class<?> entityClass) {
+			if (this.mapping != null) {
+				return this.mapping;
+			}
+			return this.delegate.createEntityMapping(entityClass);
+		}
+	}
+
+}
@@ -0,0 +1,444 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import model.Book;
+import model.Memo;
+import model.Photo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+
+/**
+ * バッチ処理のテストです。AWSにはアクセスせず、SimpleDB/S3へのリクエストを記録して確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperBatchTest {
+
+	private RecordingClient sdbClient;
+	private RecordingClient s3Client;
+	private SimpleDBMapper mapper;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		this.s3Client = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, this.s3Client);
+		this.mapper = new SimpleDBMapper(sdb, s3, new SimpleDBMapperConfig());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void saveAll() throws Exception {
+		List<Memo> memos = new ArrayList<Memo>();
+		for (long i = 0; i < 60; i++) {
+			Memo memo = new Memo();
+			memo.id = i;
+			memo.text = i % 10 == 0 ? null : "memo" + i;
+			memo.tags = new HashSet<String>(Arrays.asList("a", "b"));
+			memos.add(memo);
+		}
+
+		List<BatchFailure<Memo>> failures = this.mapper.saveAll(memos);
+		assertTrue(failures.isEmpty());
+		assertEquals(0, this.sdbClient.count("putAttributes"));
+
+		List<BatchPutAttributesRequest> puts = this.sdbClient.arguments("batchPutAttributes");
+		assertEquals(3, puts.size());
+		int putItems = 0;
+		for (BatchPutAttributesRequest put : puts) {
+			assertEquals("SimpleDBMapper-Memo", put.getDomainName());
+			assertTrue(put.getItems().size() <= 25);
+			putItems += put.getItems().size();
+		}
+		assertEquals(60, putItems);
+		ReplaceableItem item = findItem(puts, "0000000001");
+		// text、tags×2（createdAtはnull）
+		assertEquals(3, item.getAttributes().size());
+
+		// nullのattributeはBatchDeleteAttributesで削除される
+		List<BatchDeleteAttributesRequest> deletes = this.sdbClient.arguments("batchDeleteAttributes");
+		int deleteItems = 0;
+		for (BatchDeleteAttributesRequest delete : deletes) {
+			for (DeletableItem deletable : delete.getItems()) {
+				assertFalse(deletable.getAttributes().isEmpty());
+				deleteItems++;
+			}
+		}
+		assertEquals(60, deleteItems);
+	}
+
+	@Test
+	public void saveAllWithDuplicateItemName() throws Exception {
+		Memo first = new Memo();
+		first.id = 1L;
+		first.text = "first";
+		Memo second = new Memo();
+		second.id = 1L;
+		second.text = "second";
+
+		assertTrue(this.mapper.saveAll(Arrays.asList(first, second)).isEmpty());
+		List<BatchPutAttributesRequest> puts = this.sdbClient.arguments("batchPutAttributes");
+		assertEquals(1, puts.size());
+		assertEquals(1, puts.get(0).getItems().size());
+		assertEquals("second", puts.get(0).getItems().get(0).getAttributes().get(0).getValue());
+	}
+
+	@Test
+	public void saveAllFallsBackToSave() throws Exception {
+		Book book = new Book();
+		book.id = 1L;
+		book.title = "hoge";
+		Memo memo = new Memo();
+		memo.id = 1L;
+		memo.text = "memo";
+
+		assertTrue(this.mapper.saveAll(Arrays.<Object> asList(book, memo)).isEmpty());
+		List<PutAttributesRequest> puts = this.sdbClient.arguments("putAttributes");
+		assertEquals(1, puts.size());
+		assertEquals("SimpleDBMapper-Book", puts.get(0).getDomainName());
+		assertEquals(1, this.sdbClient.count("batchPutAttributes"));
+	}
+
+	@Test
+	public void saveAllReportsFailures() throws Exception {
+		this.sdbClient.answer("batchPutAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				BatchPutAttributesRequest request = (BatchPutAttributesRequest) argument;
+				if (request.getItems().get(0).getName().equals("0000000000")) {
+					throw new IllegalStateException("error");
+				}
+				return null;
+			}
+		});
+		List<Memo> memos = new ArrayList<Memo>();
+		for (long i = 0; i < 30; i++) {
+			Memo memo = new Memo();
+			memo.id = i;
+			memo.text = "memo" + i;
+			memos.add(memo);
+		}
+		Memo noItemName = new Memo();
+		memos.add(noItemName);
+
+		List<BatchFailure<Memo>> failures = this.mapper.saveAll(memos);
+		// 最初のチャンク25件と、itemNameがないもの
+		assertEquals(26, failures.size());
+		assertSame(noItemName, failures.get(0).getObject());
+		assertNull(failures.get(0).getItemName());
+		for (BatchFailure<Memo> failure : failures.subList(1, failures.size())) {
+			assertTrue(failure.getObject().id < 25);
+			assertEquals(IllegalStateException.class, failure.getCause().getClass());
+		}
+	}
+
+	@Test
+	public void deleteAll() throws Exception {
+		List<Memo> memos = new ArrayList<Memo>();
+		for (long i = 0; i < 30; i++) {
+			Memo memo = new Memo();
+			memo.id = i;
+			memos.add(memo);
+		}
+
+		assertTrue(this.mapper.deleteAll(memos).isEmpty());
+		assertEquals(0, this.sdbClient.count("select"));
+		assertEquals(0, this.sdbClient.count("deleteAttributes"));
+		List<BatchDeleteAttributesRequest> deletes = this.sdbClient.arguments("batchDeleteAttributes");
+		assertEquals(2, deletes.size());
+		int deleteItems = 0;
+		for (BatchDeleteAttributesRequest delete : deletes) {
+			for (DeletableItem item : delete.getItems()) {
+				// attributeを指定しないとitemごと削除される
+				assertTrue(item.getAttributes() == null || item.getAttributes().isEmpty());
+				deleteItems++;
+			}
+		}
+		assertEquals(30, deleteItems);
+	}
+
+	@Test
+	public void deleteAllWithBlobs() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String expression = ((SelectRequest) argument).getSelectExpression();
+				List<Item> items = new ArrayList<Item>();
+				Matcher matcher = Pattern.compile("'(photo\\d+)'").matcher(expression);
+				while (matcher.find()) {
+					String itemName = matcher.group(1);
+					S3TaskResult reference = new S3TaskResult(Operation.UPLOAD, "image", "dateofrock-testing", "photo/"
+							+ itemName + "/image");
+					reference.setSuccess(true);
+					items.add(new Item(itemName, Arrays.asList(new Attribute("image", reference
+							.toSimpleDBAttributeValue()))));
+				}
+				return new SelectResult().withItems(items);
+			}
+		});
+		List<String> itemNames = new ArrayList<String>();
+		for (int i = 0; i < 45; i++) {
+			itemNames.add("photo" + i);
+		}
+
+		assertTrue(this.mapper.deleteAll(Photo.class, itemNames).isEmpty());
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		// in演算子には20個までしか指定できない
+		assertEquals(3, selects.size());
+		assertTrue(selects.get(0).getSelectExpression().startsWith(
+				"select `image` from `SimpleDBMapper-Photo` where itemName() in ("));
+		assertEquals(2, this.sdbClient.count("batchDeleteAttributes"));
+
+		Set<String> deletedKeys = new HashSet<String>();
+		for (Object request : this.s3Client.arguments("deleteObjects")) {
+			DeleteObjectsRequest deleteObjects = (DeleteObjectsRequest) request;
+			assertEquals("dateofrock-testing", deleteObjects.getBucketName());
+			for (KeyVersion keyVersion : deleteObjects.getKeys()) {
+				deletedKeys.add(keyVersion.getKey());
+			}
+		}
+		assertEquals(45, deletedKeys.size());
+		assertTrue(deletedKeys.contains("photo/photo44/image"));
+		assertEquals(0, this.s3Client.count("deleteObject"));
+	}
+
+	@Test
+	public void deleteAllDoesNotDeleteWhenBlobLookupFails() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				throw new IllegalStateException("error");
+			}
+		});
+		Photo photo = new Photo();
+		photo.id = "photo1";
+
+		List<BatchFailure<Photo>> failures = this.mapper.deleteAll(Arrays.asList(photo));
+		assertEquals(1, failures.size());
+		assertSame(photo, failures.get(0).getObject());
+		assertEquals("photo1", failures.get(0).getItemName());
+		assertEquals(0, this.sdbClient.count("batchDeleteAttributes"));
+	}
+
+	@Test
+	public void batchLoad() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String expression = ((SelectRequest) argument).getSelectExpression();
+				List<Item> items = new ArrayList<Item>();
+				Matcher matcher = Pattern.compile("'(\\d+)'").matcher(expression);
+				while (matcher.find()) {
+					String itemName = matcher.group(1);
+					// 7の倍数は存在しないことにする
+					long id = Long.parseLong(itemName);
+					if (id % 7 != 0) {
+						items.add(new Item(itemName, Arrays.asList(new Attribute("text", "memo" + id))));
+					}
+				}
+				return new SelectResult().withItems(items);
+			}
+		});
+		List<Long> ids = new ArrayList<Long>();
+		for (long i = 45; i > 0; i--) {
+			ids.add(i);
+		}
+
+		BatchLoadResult<Long, Memo> result = this.mapper.batchLoad(Memo.class, ids);
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		// in演算子には20個までしか指定できない
+		assertEquals(3, selects.size());
+		assertTrue(selects.get(0).getSelectExpression().contains("`SimpleDBMapper-Memo` where itemName() in ("));
+		assertTrue(result.getFailures().isEmpty());
+		assertEquals(Arrays.asList(42L, 35L, 28L, 21L, 14L, 7L), result.getNotFound());
+		assertEquals(39, result.getItems().size());
+		// 引数の順序が保たれる
+		Long first = result.getItems().keySet().iterator().next();
+		assertEquals(Long.valueOf(45), first);
+		assertEquals("memo45", result.getItems().get(45L).text);
+		assertEquals(Long.valueOf(1), result.getItems().get(1L).id);
+	}
+
+	@Test
+	public void batchLoadReportsFailedChunk() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				throw new IllegalStateException("error");
+			}
+		});
+
+		BatchLoadResult<Long, Memo> result = this.mapper.batchLoad(Memo.class, Arrays.asList(1L, 2L));
+		assertTrue(result.getItems().isEmpty());
+		assertTrue(result.getNotFound().isEmpty());
+		assertEquals(2, result.getFailures().size());
+		assertEquals(Long.valueOf(1), result.getFailures().get(0).getObject());
+		assertEquals("0000000001", result.getFailures().get(0).getItemName());
+	}
+
+	@Test
+	public void batchingLoader() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String expression = ((SelectRequest) argument).getSelectExpression();
+				List<Item> items = new ArrayList<Item>();
+				Matcher matcher = Pattern.compile("'(\\d+)'").matcher(expression);
+				while (matcher.find()) {
+					String itemName = matcher.group(1);
+					long id = Long.parseLong(itemName);
+					if (id != 4) {
+						items.add(new Item(itemName, Arrays.asList(new Attribute("text", "memo" + id))));
+					}
+				}
+				return new SelectResult().withItems(items);
+			}
+		});
+		BatchingLoader<Long, Memo> loader = this.mapper.batchingLoader(Memo.class, 10, TimeUnit.SECONDS, 3);
+		try {
+			Future<Memo> memo1 = loader.load(1L);
+			Future<Memo> memo2 = loader.load(2L);
+			// 取得中のitemNameは同じFutureを返す
+			assertSame(memo1, loader.load(1L));
+			// 3件集まったので時間を待たずに取得する
+			Future<Memo> memo3 = loader.load(3L);
+			assertEquals("memo1", memo1.get(5, TimeUnit.SECONDS).text);
+			assertEquals("memo2", memo2.get(5, TimeUnit.SECONDS).text);
+			assertEquals("memo3", memo3.get(5, TimeUnit.SECONDS).text);
+			List<SelectRequest> selects = this.sdbClient.arguments("select");
+			assertEquals(1, selects.size());
+			assertTrue(selects.get(0).getSelectExpression().endsWith(
+					"itemName() in ('0000000001','0000000002','0000000003')"));
+
+			Future<Memo> memo4 = loader.load(4L);
+			loader.flush();
+			try {
+				memo4.get();
+				fail("must throw ExecutionException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof SimpleDBMapperNotFoundException);
+			}
+			assertEquals(2, this.sdbClient.count("select"));
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void batchingLoaderFlushesAfterWindow() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(new Item("0000000005", Arrays.asList(new Attribute("text",
+						"memo5"))));
+			}
+		});
+		BatchingLoader<Long, Memo> loader = this.mapper.batchingLoader(Memo.class, 10, TimeUnit.MILLISECONDS, 20);
+		try {
+			assertEquals("memo5", loader.load(5L).get(5, TimeUnit.SECONDS).text);
+			assertEquals(1, this.sdbClient.count("select"));
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void closeDoesNotShutdownSuppliedExecutor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+			config.setSimpleDBAccessExecutor(executor);
+			SimpleDBMapper mapper = new SimpleDBMapper(RecordingClient.create(AmazonSimpleDB.class, this.sdbClient),
+					RecordingClient.create(AmazonS3.class, this.s3Client), config);
+			List<Memo> memos = new ArrayList<Memo>();
+			for (long i = 0; i < 30; i++) {
+				Memo memo = new Memo();
+				memo.id = i;
+				memo.text = "memo" + i;
+				memos.add(memo);
+			}
+			assertTrue(mapper.saveAll(memos).isEmpty());
+			assertEquals(2, this.sdbClient.count("batchPutAttributes"));
+
+			mapper.close();
+			assertFalse(executor.isShutdown());
+
+			// Blobがなければスレッドプールを使わないので、close後でも保存できる
+			mapper.save(memos.get(0));
+			assertEquals(1, this.sdbClient.count("putAttributes"));
+			try {
+				mapper.saveAll(memos);
+				fail();
+			} catch (SimpleDBMapperException e) {
+				// OK
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private ReplaceableItem findItem(List<BatchPutAttributesRequest> requests, String itemName) {
+		for (BatchPutAttributesRequest request : requests) {
+			for (ReplaceableItem item : request.getItems()) {
+				if (item.getName().equals(itemName)) {
+					return item;
+				}
+			}
+		}
+		fail(itemName + " not found");
+		return null;
+	}
+
+}
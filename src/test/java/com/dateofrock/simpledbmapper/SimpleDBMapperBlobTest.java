@@ -0,0 +1,492 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.Album;
+import model.Attachment;
+import model.Book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+import com.dateofrock.simpledbmapper.util.IOUtils;
+import com.dateofrock.simpledbmapper.util.TempFileInputStream;
+
+/**
+ * Blobのテストです。AWSにはアクセスせず、SimpleDB/S3へのリクエストを記録して確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperBlobTest {
+
+	private RecordingClient sdbClient;
+	private RecordingClient s3Client;
+	private SimpleDBMapper mapper;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		this.s3Client = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, this.s3Client);
+		this.mapper = new SimpleDBMapper(sdb, s3, new SimpleDBMapperConfig());
+
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new ByteArrayInputStream("hoge".getBytes("UTF-8")));
+				return s3Object;
+			}
+		});
+		this.s3Client.answer("getObjectMetadata", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				ObjectMetadata metadata = new ObjectMetadata();
+				metadata.setContentLength(4);
+				return metadata;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void lazyBlobIsFetchedOnAccess() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				attributes.add(new Attribute("title", "album1"));
+				attributes.add(new Attribute("jacket", blobReference("jacket", "album/album1/jacket")));
+				attributes.add(new Attribute("liner", blobReference("liner", "album/album1/liner")));
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+
+		Album album = this.mapper.load(Album.class, "album1");
+		// EAGERなLazyBlobは取得済み
+		assertTrue(album.liner.isLoaded());
+		assertEquals("hoge", album.liner.get());
+		assertEquals(1, this.s3Client.count("getObject"));
+
+		assertFalse(album.jacket.isLoaded());
+		assertEquals("album/album1/jacket", album.jacket.getKey());
+		assertArrayEquals("hoge".getBytes("UTF-8"), album.jacket.get());
+		assertArrayEquals("hoge".getBytes("UTF-8"), album.jacket.get());
+		assertEquals(2, this.s3Client.count("getObject"));
+		assertEquals(1, this.sdbClient.count("getAttributes"));
+	}
+
+	@Test
+	public void saveDoesNotUploadUnmodifiedLazyBlob() throws Exception {
+		Album album = new Album();
+		album.id = "album1";
+		album.title = "album1";
+		album.jacket = LazyBlob.unloaded(this.mapper, null, "dateofrock-testing", "album/album1/jacket");
+		album.liner = LazyBlob.of("liner");
+		this.mapper.save(album);
+
+		assertEquals(1, this.s3Client.count("putObject"));
+		assertEquals("album/album1/liner", this.s3Client.allArguments("putObject").get(0)[1]);
+		assertEquals(0, this.s3Client.count("deleteObject"));
+		assertEquals(0, this.sdbClient.count("deleteAttributes"));
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		for (ReplaceableAttribute attribute : put.getAttributes()) {
+			assertFalse(attribute.getName().equals("jacket"));
+		}
+	}
+
+	@Test
+	public void saveTwiceUploadsLazyBlobOnce() throws Exception {
+		Album album = new Album();
+		album.id = "album1";
+		album.title = "album1";
+		album.liner = LazyBlob.of("liner");
+		this.mapper.save(album);
+		this.mapper.save(album);
+
+		assertEquals(1, this.s3Client.count("putObject"));
+		// S3に保存されたものに置き換わっている
+		assertEquals("dateofrock-testing", album.liner.getBucketName());
+		assertEquals("album/album1/liner", album.liner.getKey());
+		assertEquals("liner", album.liner.get());
+		assertEquals(0, this.s3Client.count("getObject"));
+
+		album.liner = LazyBlob.of("liner2");
+		this.mapper.save(album);
+		assertEquals(2, this.s3Client.count("putObject"));
+	}
+
+	@Test
+	public void loadBlob() throws Exception {
+		Book book = new Book();
+		book.id = 1L;
+		Object review = this.mapper.loadBlob(book, "coverImage");
+		assertArrayEquals("hoge".getBytes("UTF-8"), (byte[]) review);
+		assertSame(review, book.coverImage);
+
+		Object[] arguments = this.s3Client.allArguments("getObject").get(0);
+		String itemName = new Reflector().encodeObjectAsSimpleDBFormat(1L);
+		assertEquals(Arrays.asList("dateofrock-testing", "simpledb-mapper/" + itemName + "/coverImage"),
+				Arrays.asList(arguments));
+		assertEquals(0, this.sdbClient.count("select"));
+	}
+
+	@Test
+	public void multipartUpload() throws Exception {
+		this.s3Client.answer("initiateMultipartUpload", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+				result.setUploadId("upload1");
+				return result;
+			}
+		});
+		this.s3Client.answer("uploadPart", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				UploadPartRequest request = (UploadPartRequest) argument;
+				UploadPartResult result = new UploadPartResult();
+				result.setPartNumber(request.getPartNumber());
+				result.setETag("etag" + request.getPartNumber());
+				return result;
+			}
+		});
+
+		// 閾値の16MBを超えるので、5MBずつ4つのパートになる
+		int size = 17 * 1024 * 1024;
+		Attachment attachment = new Attachment();
+		attachment.id = "attachment1";
+		attachment.data = new ByteArrayInputStream(new byte[size]);
+		this.mapper.save(attachment);
+
+		assertEquals(0, this.s3Client.count("putObject"));
+		List<UploadPartRequest> parts = this.s3Client.arguments("uploadPart");
+		assertEquals(4, parts.size());
+		long total = 0;
+		for (UploadPartRequest part : parts) {
+			assertEquals("upload1", part.getUploadId());
+			assertEquals("attachment/attachment1/data", part.getKey());
+			total += part.getPartSize();
+		}
+		assertEquals(size, total);
+
+		CompleteMultipartUploadRequest complete = this.s3Client.<CompleteMultipartUploadRequest> arguments(
+				"completeMultipartUpload").get(0);
+		assertEquals(4, complete.getPartETags().size());
+		assertEquals("etag1", complete.getPartETags().get(0).getETag());
+		assertEquals(0, this.s3Client.count("abortMultipartUpload"));
+		assertEquals(1, this.sdbClient.count("putAttributes"));
+	}
+
+	@Test
+	public void smallInputStreamIsUploadedWithContentLength() throws Exception {
+		Attachment attachment = new Attachment();
+		attachment.id = "attachment1";
+		attachment.data = new ByteArrayInputStream(new byte[100]);
+		this.mapper.save(attachment);
+
+		assertEquals(0, this.s3Client.count("initiateMultipartUpload"));
+		Object[] arguments = this.s3Client.allArguments("putObject").get(0);
+		assertEquals("attachment/attachment1/data", arguments[1]);
+		assertEquals(100, ((ObjectMetadata) arguments[3]).getContentLength());
+	}
+
+	@Test
+	public void downloadToFile() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				attributes.add(new Attribute("file", blobReference("file", "attachment/attachment1/file")));
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+
+		Attachment attachment = this.mapper.load(Attachment.class, "attachment1");
+		assertEquals(4, attachment.file.length());
+		InputStream input = new FileInputStream(attachment.file);
+		try {
+			assertArrayEquals("hoge".getBytes("UTF-8"), IOUtils.readBytes(input));
+		} finally {
+			attachment.file.delete();
+		}
+	}
+
+	@Test
+	public void saveTwiceDoesNotUploadConsumedInputStream() throws Exception {
+		Attachment attachment = new Attachment();
+		attachment.id = "attachment1";
+		attachment.data = new ByteArrayInputStream(new byte[100]);
+		this.mapper.save(attachment);
+		// 読み終わったInputStreamで、空のBlobに上書きしない
+		this.mapper.save(attachment);
+
+		assertEquals(1, this.s3Client.count("putObject"));
+		for (Object[] arguments : this.s3Client.allArguments("deleteObject")) {
+			assertFalse("attachment/attachment1/data".equals(arguments[1]));
+		}
+		assertEquals(2, this.sdbClient.count("putAttributes"));
+		PutAttributesRequest second = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(1);
+		for (ReplaceableAttribute attribute : second.getAttributes()) {
+			assertFalse("data".equals(attribute.getName()));
+		}
+	}
+
+	@Test
+	public void saveRejectsInputStreamConsumedByFailedSave() throws Exception {
+		this.s3Client.answer("putObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				throw new IllegalStateException("error");
+			}
+		});
+		Attachment attachment = new Attachment();
+		attachment.id = "attachment1";
+		attachment.data = new ByteArrayInputStream(new byte[100]);
+		try {
+			this.mapper.save(attachment);
+			fail("must throw SimpleDBMapperS3HandleException");
+		} catch (SimpleDBMapperS3HandleException e) {
+			// OK
+		}
+		try {
+			this.mapper.save(attachment);
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			assertTrue(e.getMessage().contains("InputStream"));
+		}
+		assertEquals(1, this.s3Client.count("putObject"));
+	}
+
+	@Test
+	public void loadThenSaveDoesNotUploadInputStream() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				attributes.add(new Attribute("data", blobReference("data", "attachment/attachment1/data")));
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+
+		Attachment attachment = this.mapper.load(Attachment.class, "attachment1");
+		try {
+			// S3のコネクションではなく、一時ファイルのInputStream
+			assertTrue(attachment.data instanceof TempFileInputStream);
+			assertArrayEquals("hoge".getBytes("UTF-8"), IOUtils.readBytes(attachment.data));
+			this.mapper.save(attachment);
+		} finally {
+			attachment.data.close();
+		}
+		assertEquals(0, this.s3Client.count("putObject"));
+		for (Object[] arguments : this.s3Client.allArguments("deleteObject")) {
+			assertFalse("attachment/attachment1/data".equals(arguments[1]));
+		}
+	}
+
+	@Test
+	public void failedDownloadClosesOtherBlobs() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				attributes.add(new Attribute("data", blobReference("data", "attachment/attachment1/data")));
+				attributes.add(new Attribute("file", blobReference("file", "attachment/attachment1/file")));
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+		final AtomicInteger calls = new AtomicInteger();
+		final List<ClosingInputStream> contents = Collections.synchronizedList(new ArrayList<ClosingInputStream>());
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// どちらか一方だけ失敗する
+				if (calls.incrementAndGet() == 2) {
+					throw new IllegalStateException("error");
+				}
+				ClosingInputStream content = new ClosingInputStream("hoge".getBytes("UTF-8"));
+				contents.add(content);
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(content);
+				return s3Object;
+			}
+		});
+		int tempFiles = countTempFiles();
+
+		try {
+			this.mapper.load(Attachment.class, "attachment1");
+			fail("must throw SimpleDBMapperS3HandleException");
+		} catch (SimpleDBMapperS3HandleException e) {
+			// OK
+		}
+		assertEquals(1, contents.size());
+		assertTrue(contents.get(0).closed);
+		// ダウンロードできた方の一時ファイルも削除されている
+		assertEquals(tempFiles, countTempFiles());
+	}
+
+	@Test
+	public void saveSkipsUnchangedBlob() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				attributes.add(new Attribute("jacket", blobReference("jacket", "album/album1/jacket",
+						IOUtils.md5Hex("jacket".getBytes("UTF-8")))));
+				attributes.add(new Attribute("liner", blobReference("liner", "album/album1/liner",
+						IOUtils.md5Hex("old liner".getBytes("UTF-8")))));
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		config.setSkipUnchangedBlobUpload(true);
+		SimpleDBMapper mapper = createMapper(config);
+		try {
+			Album album = new Album();
+			album.id = "album1";
+			album.jacket = LazyBlob.of("jacket".getBytes("UTF-8"));
+			album.liner = LazyBlob.of("liner");
+			mapper.save(album);
+		} finally {
+			mapper.close();
+		}
+
+		GetAttributesRequest get = this.sdbClient.<GetAttributesRequest> arguments("getAttributes").get(0);
+		assertTrue(get.getConsistentRead());
+		assertEquals(1, this.s3Client.count("putObject"));
+		assertEquals("album/album1/liner", this.s3Client.allArguments("putObject").get(0)[1]);
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals(1, put.getAttributes().size());
+		S3TaskResult reference = new S3TaskResult(Operation.DOWNLOAD, "liner", null, null);
+		reference.setSimpleDBAttributeValue(put.getAttributes().get(0).getValue());
+		assertEquals(IOUtils.md5Hex("liner".getBytes("UTF-8")), reference.getMD5());
+	}
+
+	@Test
+	public void verifyUnchangedBlobWithS3() throws Exception {
+		final String md5 = IOUtils.md5Hex("liner".getBytes("UTF-8"));
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				Attribute liner = new Attribute("liner", blobReference("liner", "album/album1/liner", md5));
+				return new GetAttributesResult().withAttributes(liner);
+			}
+		});
+		// S3のオブジェクトは外で書き換えられている
+		this.s3Client.answer("getObjectMetadata", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				ObjectMetadata metadata = new ObjectMetadata();
+				metadata.addUserMetadata("md5", IOUtils.md5Hex("other".getBytes("UTF-8")));
+				return metadata;
+			}
+		});
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		config.setSkipUnchangedBlobUpload(true);
+		config.setVerifyUnchangedBlobWithS3(true);
+		SimpleDBMapper mapper = createMapper(config);
+		try {
+			Album album = new Album();
+			album.id = "album1";
+			album.liner = LazyBlob.of("liner");
+			mapper.save(album);
+		} finally {
+			mapper.close();
+		}
+
+		assertEquals(1, this.s3Client.count("getObjectMetadata"));
+		assertEquals(1, this.s3Client.count("putObject"));
+		ObjectMetadata uploaded = (ObjectMetadata) this.s3Client.allArguments("putObject").get(0)[3];
+		assertEquals(md5, uploaded.getUserMetadata().get("md5"));
+	}
+
+	private int countTempFiles() {
+		File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("simpledb-mapper-") && name.endsWith(".blob");
+			}
+		});
+		return files == null ? 0 : files.length;
+	}
+
+	private SimpleDBMapper createMapper(SimpleDBMapperConfig config) {
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, this.s3Client);
+		return new SimpleDBMapper(sdb, s3, config);
+	}
+
+	private String blobReference(String attributeName, String key) {
+		return blobReference(attributeName, key, null);
+	}
+
+	private static class ClosingInputStream extends ByteArrayInputStream {
+		volatile boolean closed;
+
+		ClosingInputStream(byte[] bytes) {
+			super(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.closed = true;
+			super.close();
+		}
+	}
+
+	private String blobReference(String attributeName, String key, String md5) {
+		S3TaskResult taskResult = new S3TaskResult(Operation.UPLOAD, attributeName, "dateofrock-testing", key);
+		taskResult.setSuccess(true);
+		taskResult.setMD5(md5);
+		return taskResult.toSimpleDBAttributeValue();
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import model.Book;
+import model.Memo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * dirty trackingのテストです。AWSにはアクセスせず、SimpleDB/S3へのリクエストを記録して確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperDirtyTrackingTest {
+
+	private RecordingClient sdbClient;
+	private RecordingClient s3Client;
+	private SimpleDBMapper mapper;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		this.s3Client = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, this.s3Client);
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		config.setDirtyTracking(true);
+		this.mapper = new SimpleDBMapper(sdb, s3, config);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void saveSendsOnlyChangedAttributes() throws Exception {
+		answerGetAttributes(new Attribute("text", "hoge"), new Attribute("tags", "a"), new Attribute("tags", "b"));
+		Memo memo = this.mapper.load(Memo.class, 1L);
+		memo.text = "fuga";
+		this.mapper.save(memo);
+
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals(1, put.getAttributes().size());
+		assertEquals("text", put.getAttributes().get(0).getName());
+		assertEquals("fuga", put.getAttributes().get(0).getValue());
+		// createdAtはもともと保存されていないので削除しない
+		assertEquals(0, this.sdbClient.count("deleteAttributes"));
+
+		// 変わっていなければSimpleDBにアクセスしない
+		this.mapper.save(memo);
+		assertEquals(1, this.sdbClient.count("putAttributes"));
+
+		// Setから減った要素は、値を指定して削除する
+		memo.tags.remove("a");
+		memo.text = null;
+		this.mapper.save(memo);
+		assertEquals(1, this.sdbClient.count("putAttributes"));
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(2, delete.getAttributes().size());
+		assertEquals("text", delete.getAttributes().get(0).getName());
+		assertNull(delete.getAttributes().get(0).getValue());
+		assertEquals("tags", delete.getAttributes().get(1).getName());
+		assertEquals("a", delete.getAttributes().get(1).getValue());
+
+		// Setに増えた要素だけをreplace=falseで追加する。削除したattributeは、nullのままなら再度削除しない
+		memo.tags.add("c");
+		this.mapper.save(memo);
+		put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(1);
+		assertEquals(1, put.getAttributes().size());
+		assertEquals("c", put.getAttributes().get(0).getValue());
+		assertFalse(put.getAttributes().get(0).isReplace());
+		assertEquals(1, this.sdbClient.count("deleteAttributes"));
+
+		// 空になったSetはattributeごと削除する
+		memo.tags.clear();
+		this.mapper.save(memo);
+		delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(1);
+		assertEquals(1, delete.getAttributes().size());
+		assertEquals("tags", delete.getAttributes().get(0).getName());
+		assertNull(delete.getAttributes().get(0).getValue());
+	}
+
+	@Test
+	public void versionMismatchSavesAllAttributes() throws Exception {
+		answerGetAttributes(new Attribute("title", "hoge"), new Attribute("isbn", "1234"), new Attribute("available",
+				"true"), new Attribute("version", "100"));
+		Book book = this.mapper.load(Book.class, 1L);
+		book.title = "fuga";
+		this.mapper.save(book);
+
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals("100", put.getExpected().getValue());
+		assertEquals(Arrays.asList("title", "version"), attributeNames(put.getAttributes()));
+		// Blobはもともと保存されていないので削除しない
+		assertEquals(0, this.s3Client.count("deleteObject"));
+
+		// 覚えているversionと違う場合は、すべてのattributeを保存する
+		book.version = 1L;
+		this.mapper.save(book);
+		put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(1);
+		assertTrue(attributeNames(put.getAttributes()).containsAll(Arrays.asList("title", "isbn", "available")));
+	}
+
+	@Test
+	public void saveAllSendsOnlyChangedAttributes() throws Exception {
+		Memo memo = new Memo();
+		memo.id = 1L;
+		memo.text = "hoge";
+		memo.tags = new HashSet<String>(Arrays.asList("a"));
+		Memo other = new Memo();
+		other.id = 2L;
+		other.text = "fuga";
+		assertTrue(this.mapper.saveAll(Arrays.asList(memo, other)).isEmpty());
+		assertEquals(1, this.sdbClient.count("batchPutAttributes"));
+		assertEquals(1, this.sdbClient.count("batchDeleteAttributes"));
+
+		memo.text = "piyo";
+		assertTrue(this.mapper.saveAll(Arrays.asList(memo, other)).isEmpty());
+		BatchPutAttributesRequest put = this.sdbClient.<BatchPutAttributesRequest> arguments("batchPutAttributes")
+				.get(1);
+		assertEquals(1, put.getItems().size());
+		assertEquals("0000000001", put.getItems().get(0).getName());
+		assertEquals(Arrays.asList("text"), attributeNames(put.getItems().get(0).getAttributes()));
+		// 前回削除したattributeは削除しない
+		assertEquals(1, this.sdbClient.count("batchDeleteAttributes"));
+	}
+
+	@Test
+	public void addToSetAndRemoveFromSet() throws Exception {
+		answerGetAttributes(new Attribute("tags", "a"));
+		Memo memo = this.mapper.load(Memo.class, 1L);
+
+		this.mapper.addToSet(memo, "tags", Arrays.asList("b", "c"));
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals("0000000001", put.getItemName());
+		assertEquals(2, put.getAttributes().size());
+		for (ReplaceableAttribute attribute : put.getAttributes()) {
+			assertEquals("tags", attribute.getName());
+			assertFalse(attribute.isReplace());
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), memo.tags);
+
+		this.mapper.removeFromSet(memo, "tags", Arrays.asList("a"));
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(1, delete.getAttributes().size());
+		assertEquals("a", delete.getAttributes().get(0).getValue());
+		assertEquals(new HashSet<String>(Arrays.asList("b", "c")), memo.tags);
+
+		// 覚えている値にも反映されている
+		this.mapper.save(memo);
+		assertEquals(1, this.sdbClient.count("putAttributes"));
+		assertEquals(1, this.sdbClient.count("deleteAttributes"));
+	}
+
+	@Test
+	public void addToSetRequiresSetField() throws Exception {
+		Memo memo = new Memo();
+		memo.id = 1L;
+		try {
+			this.mapper.addToSet(memo, "text", Arrays.asList("a"));
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			assertEquals(0, this.sdbClient.count("putAttributes"));
+		}
+	}
+
+	@Test
+	public void deleteForgetsSnapshot() throws Exception {
+		Memo memo = new Memo();
+		memo.id = 1L;
+		memo.text = "hoge";
+		this.mapper.save(memo);
+		this.mapper.delete(memo);
+
+		// 削除した後に保存し直す場合は、すべてのattributeを保存する
+		this.mapper.save(memo);
+		assertEquals(2, this.sdbClient.count("putAttributes"));
+	}
+
+	private void answerGetAttributes(final Attribute... attributes) {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(attributes);
+			}
+		});
+	}
+
+	private List<String> attributeNames(List<ReplaceableAttribute> attributes) {
+		List<String> names = new ArrayList<String>();
+		for (ReplaceableAttribute attribute : attributes) {
+			names.add(attribute.getName());
+		}
+		return names;
+	}
+
+}
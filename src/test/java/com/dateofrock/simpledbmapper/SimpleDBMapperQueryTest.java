@@ -0,0 +1,893 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static com.amazonaws.services.simpledb.util.SimpleDBUtils.*;
+import static com.dateofrock.simpledbmapper.query.ComparisonOperator.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import model.Book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.dateofrock.simpledbmapper.query.QueryExpression;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult;
+import com.dateofrock.simpledbmapper.s3.S3TaskResult.Operation;
+
+/**
+ * selectのテストです。AWSにはアクセスせず、SimpleDB/S3へのリクエストを記録して確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperQueryTest {
+
+	private RecordingClient sdbClient;
+	private RecordingClient s3Client;
+	private SimpleDBMapper mapper;
+	private Reflector reflector = new Reflector();
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		this.s3Client = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, this.s3Client);
+		this.mapper = new SimpleDBMapper(sdb, s3, new SimpleDBMapperConfig());
+		this.s3Client.answer("getObjectMetadata", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				ObjectMetadata metadata = new ObjectMetadata();
+				metadata.setContentLength(3);
+				return metadata;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void pagingStateBelongsToEachQuery() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				SelectRequest request = (SelectRequest) argument;
+				String token = request.getNextToken();
+				boolean isTitle = request.getSelectExpression().contains("`title`");
+				if (token == null) {
+					return new SelectResult().withItems(newBookItem(isTitle ? 1L : 10L, false)).withNextToken(
+							isTitle ? "title-1" : "isbn-1");
+				}
+				return new SelectResult().withItems(newBookItem(isTitle ? 2L : 20L, false));
+			}
+		});
+
+		QueryResult<Book> byTitle = this.mapper.from(Book.class).where("title", Equals, "hoge").fetchPage();
+		QueryResult<Book> byIsbn = this.mapper.from(Book.class).where("isbn", Equals, "fuga").fetchPage();
+		assertTrue(byTitle.hasNext());
+		assertTrue(byIsbn.hasNext());
+
+		QueryResult<Book> titlePage2 = byTitle.nextPage();
+		QueryResult<Book> isbnPage2 = byIsbn.nextPage();
+		assertEquals(Long.valueOf(2L), titlePage2.getItems().get(0).id);
+		assertEquals(Long.valueOf(20L), isbnPage2.getItems().get(0).id);
+		assertFalse(titlePage2.hasNext());
+		assertFalse(isbnPage2.hasNext());
+
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		assertEquals(4, selects.size());
+		assertEquals(selects.get(0).getSelectExpression(), selects.get(2).getSelectExpression());
+		assertEquals("title-1", selects.get(2).getNextToken());
+		assertEquals("isbn-1", selects.get(3).getNextToken());
+	}
+
+	@Test
+	public void eagerBlobFetchAffectsOnlyItsQuery() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(1L, true));
+			}
+		});
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(newBookItem(1L, true).getAttributes());
+			}
+		});
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+				return s3Object;
+			}
+		});
+
+		List<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").eagerBlobFetch("coverImage")
+				.fetch();
+		assertArrayEquals(new byte[] { 1, 2, 3 }, books.get(0).coverImage);
+
+		books = this.mapper.from(Book.class).where("title", Equals, "hoge").fetch();
+		assertNull(books.get(0).coverImage);
+		assertNull(this.mapper.load(Book.class, 1L).coverImage);
+		assertEquals(1, this.s3Client.count("getObject"));
+	}
+
+	@Test
+	public void selectReturnsMutableList() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(2L, false), newBookItem(1L, false));
+			}
+		});
+
+		List<Book> books = this.mapper.select(Book.class, new QueryExpression());
+		books.add(new Book());
+		assertEquals(3, books.size());
+		books = this.mapper.selectAll(Book.class);
+		books.remove(0);
+		assertEquals(1, books.size());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void deprecatedEagerBlobFetch() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(1L, true)).withNextToken("next");
+			}
+		});
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+				return s3Object;
+			}
+		});
+
+		this.mapper.addEagerBlobFetch("coverImage");
+		List<Book> books = this.mapper.select(Book.class, new QueryExpression());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, books.get(0).coverImage);
+		try {
+			// 最初のページを繰り返し取得し続けないように、すぐに失敗する
+			this.mapper.hasNext();
+			fail("must throw UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// OK
+		}
+
+		this.mapper.resetEagerBlobFetch();
+		books = this.mapper.select(Book.class, new QueryExpression());
+		assertNull(books.get(0).coverImage);
+		assertEquals(1, this.s3Client.count("getObject"));
+	}
+
+	@Test
+	public void selectAttributes() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// 指定されたattributeだけを返す
+				String expression = ((SelectRequest) argument).getSelectExpression();
+				Item item = newBookItem(1L, true);
+				List<Attribute> attributes = new ArrayList<Attribute>();
+				for (Attribute attribute : item.getAttributes()) {
+					if (expression.contains("`" + attribute.getName() + "`")) {
+						attributes.add(attribute);
+					}
+				}
+				return new SelectResult().withItems(new Item(item.getName(), attributes));
+			}
+		});
+
+		List<Book> books = this.mapper.from(Book.class).select("title", "price").where("title", Equals, "hoge")
+				.eagerBlobFetch("coverImage").fetch();
+		SelectRequest select = (SelectRequest) this.sdbClient.arguments("select").get(0);
+		assertTrue(select.getSelectExpression().startsWith(
+				"select `title`, `price`, `version` from `SimpleDBMapper-Book` where `title` = 'hoge'"));
+		assertEquals("hoge", books.get(0).title);
+		assertEquals(Long.valueOf(1), books.get(0).id);
+		// 指定しなかったBlobは取得しない
+		assertNull(books.get(0).coverImage);
+		assertEquals(0, this.s3Client.count("getObject"));
+	}
+
+	@Test
+	public void loadUsesGetAttributes() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new Attribute("title", "hoge"));
+			}
+		});
+
+		Book book = this.mapper.loadAttributes(Book.class, 1L, "title", "price");
+		assertEquals(Long.valueOf(1L), book.id);
+		assertEquals("hoge", book.title);
+		assertEquals(0, this.sdbClient.count("select"));
+		GetAttributesRequest request = this.sdbClient.<GetAttributesRequest> arguments("getAttributes").get(0);
+		assertEquals("SimpleDBMapper-Book", request.getDomainName());
+		assertEquals(this.reflector.encodeObjectAsSimpleDBFormat(1L), request.getItemName());
+		assertTrue(request.getConsistentRead());
+		// versionはいつも取得する
+		assertEquals(Arrays.asList("title", "price", "version"), request.getAttributeNames());
+
+		this.mapper.load(Book.class, 1L);
+		request = this.sdbClient.<GetAttributesRequest> arguments("getAttributes").get(1);
+		assertNull(request.getAttributeNames());
+	}
+
+	@Test
+	public void saveAfterLoadAttributesKeepsOtherAttributes() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new Attribute("title", "hoge"));
+			}
+		});
+
+		Book book = this.mapper.loadAttributes(Book.class, 1L, "title", "price");
+		book.title = "fuga";
+		this.mapper.save(book);
+
+		// 取得しなかったattributeとBlobは削除しない
+		assertEquals(0, this.s3Client.count("deleteObject"));
+		assertEquals(0, this.s3Client.count("putObject"));
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		Set<String> putNames = new HashSet<String>();
+		for (ReplaceableAttribute attribute : put.getAttributes()) {
+			putNames.add(attribute.getName());
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("title", "version")), putNames);
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(1, delete.getAttributes().size());
+		assertEquals("price", delete.getAttributes().get(0).getName());
+
+		// すべて取得した場合は、今までどおりすべてのattributeを保存する
+		Book full = this.mapper.load(Book.class, 1L);
+		this.mapper.save(full);
+		delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(1);
+		assertTrue(delete.getAttributes().size() > 1);
+		assertTrue(this.s3Client.count("deleteObject") > 0);
+	}
+
+	@Test
+	public void saveAfterLoadAttributesIsConditional() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new Attribute("title", "hoge"), new Attribute(
+						"version", "5"));
+			}
+		});
+
+		Book book = this.mapper.loadAttributes(Book.class, 1L, "title");
+		assertEquals(Long.valueOf(5L), book.version);
+		book.title = "fuga";
+		this.mapper.save(book);
+
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertNotNull(put.getExpected());
+		assertEquals("version", put.getExpected().getName());
+		assertEquals("5", put.getExpected().getValue());
+	}
+
+	@Test
+	public void saveAfterSelectAttributesKeepsOtherAttributes() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(1L, false));
+			}
+		});
+
+		Book book = this.mapper.from(Book.class).select("title").where("title", Equals, "hoge").fetch().get(0);
+		this.mapper.save(book);
+		Iterator<Book> iterator = this.mapper.from(Book.class).select("title").where("title", Equals, "hoge")
+				.iterate();
+		this.mapper.save(iterator.next());
+
+		assertEquals(0, this.sdbClient.count("deleteAttributes"));
+		assertEquals(0, this.s3Client.count("deleteObject"));
+		for (PutAttributesRequest put : this.sdbClient.<PutAttributesRequest> arguments("putAttributes")) {
+			assertEquals(2, put.getAttributes().size());
+		}
+	}
+
+	@Test
+	public void saveAfterSelectAttributesIsConditional() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				Item item = newBookItem(1L, false);
+				item.getAttributes().add(new Attribute("version", "5"));
+				return new SelectResult().withItems(item);
+			}
+		});
+
+		Book book = this.mapper.from(Book.class).select("title").where("title", Equals, "hoge").fetch().get(0);
+		this.mapper.save(book);
+		this.mapper.save(this.mapper.from(Book.class).select("title").where("title", Equals, "hoge").iterate().next());
+		QueryExpression expression = new QueryExpression();
+		expression.addSelectAttribute("title");
+		this.mapper.parallelScan(Book.class, expression, Collections.<String> emptyList(), new ScanHandler<Book>() {
+			@Override
+			public void handle(int segment, Book book) {
+				SimpleDBMapperQueryTest.this.mapper.save(book);
+			}
+		});
+
+		for (SelectRequest select : this.sdbClient.<SelectRequest> arguments("select")) {
+			assertTrue(select.getSelectExpression().startsWith("select `title`, `version` from"));
+		}
+		List<PutAttributesRequest> puts = this.sdbClient.arguments("putAttributes");
+		assertEquals(3, puts.size());
+		for (PutAttributesRequest put : puts) {
+			assertEquals("5", put.getExpected().getValue());
+		}
+	}
+
+	@Test
+	public void loadNotFound() throws Exception {
+		this.sdbClient.answer("getAttributes", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new GetAttributesResult().withAttributes(new ArrayList<Attribute>());
+			}
+		});
+		try {
+			this.mapper.load(Book.class, 1L);
+			fail("must throw SimpleDBMapperNotFoundException");
+		} catch (SimpleDBMapperNotFoundException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void downloadBlobsConcurrently() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(1L, true), newBookItem(2L, true),
+						newBookItem(3L, true));
+			}
+		});
+		final CountDownLatch latch = new CountDownLatch(2);
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// 2つ同時にダウンロードされるまで待つ
+				latch.countDown();
+				latch.await(5, TimeUnit.SECONDS);
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+				return s3Object;
+			}
+		});
+
+		long start = System.currentTimeMillis();
+		List<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").eagerBlobFetch("coverImage")
+				.fetch();
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(3, books.size());
+		for (Book book : books) {
+			assertArrayEquals(new byte[] { 1, 2, 3 }, book.coverImage);
+		}
+		assertEquals(3, this.s3Client.count("getObject"));
+	}
+
+	@Test
+	public void reserveDownloadBytesBeforeGet() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(newBookItem(1L, true), newBookItem(2L, true),
+						newBookItem(3L, true));
+			}
+		});
+		final AtomicInteger downloading = new AtomicInteger();
+		final AtomicInteger maxDownloading = new AtomicInteger();
+		this.s3Client.answer("getObject", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				int current = downloading.incrementAndGet();
+				synchronized (maxDownloading) {
+					maxDownloading.set(Math.max(maxDownloading.get(), current));
+				}
+				Thread.sleep(50);
+				downloading.decrementAndGet();
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+				return s3Object;
+			}
+		});
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		// 一つ分の枠しかない
+		config.setMaxBlobDownloadBytes(3);
+		SimpleDBMapper mapper = new SimpleDBMapper(RecordingClient.create(AmazonSimpleDB.class, this.sdbClient),
+				RecordingClient.create(AmazonS3.class, this.s3Client), config);
+		try {
+			List<Book> books = mapper.from(Book.class).where("title", Equals, "hoge").eagerBlobFetch("coverImage")
+					.fetch();
+			assertEquals(3, books.size());
+		} finally {
+			mapper.close();
+		}
+
+		// 枠を確保してからGETするので、S3のコネクションを開いたまま待つことはない
+		assertEquals(1, maxDownloading.get());
+		assertEquals(3, this.s3Client.count("getObjectMetadata"));
+		assertEquals(3, this.s3Client.count("getObject"));
+	}
+
+	@Test
+	public void iterate() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String token = ((SelectRequest) argument).getNextToken();
+				if (token == null) {
+					return new SelectResult().withItems(newBookItem(1L, false), newBookItem(2L, false)).withNextToken(
+							"page2");
+				} else if (token.equals("page2")) {
+					// 空のページ
+					return new SelectResult().withItems(new ArrayList<Item>()).withNextToken("page3");
+				}
+				return new SelectResult().withItems(newBookItem(3L, false));
+			}
+		});
+
+		Iterator<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").iterate();
+		assertEquals(0, this.sdbClient.count("select"));
+		assertEquals(Long.valueOf(1L), books.next().id);
+		assertEquals(1, this.sdbClient.count("select"));
+		assertEquals(Long.valueOf(2L), books.next().id);
+		assertEquals(1, this.sdbClient.count("select"));
+		assertTrue(books.hasNext());
+		assertEquals(Long.valueOf(3L), books.next().id);
+		assertFalse(books.hasNext());
+		assertEquals(3, this.sdbClient.count("select"));
+		try {
+			books.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void iterateStopsAtLimit() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// limitに関係なく、2件ずつ次のページを返し続ける
+				String token = ((SelectRequest) argument).getNextToken();
+				int page = token == null ? 0 : Integer.parseInt(token);
+				return new SelectResult().withItems(newBookItem(page * 2, false), newBookItem(page * 2 + 1, false))
+						.withNextToken(String.valueOf(page + 1));
+			}
+		});
+
+		Iterator<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").limit(3).iterate();
+		List<Long> ids = new ArrayList<Long>();
+		while (books.hasNext()) {
+			ids.add(books.next().id);
+		}
+		assertEquals(Arrays.asList(0L, 1L, 2L), ids);
+		assertEquals(2, this.sdbClient.count("select"));
+	}
+
+	@Test
+	public void iterateWithPrefetch() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String token = ((SelectRequest) argument).getNextToken();
+				int page = token == null ? 1 : Integer.parseInt(token);
+				SelectResult result = new SelectResult().withItems(newBookItem(page, false));
+				if (page < 5) {
+					result.setNextToken(String.valueOf(page + 1));
+				}
+				return result;
+			}
+		});
+
+		Iterator<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").prefetch(2).iterate();
+		assertEquals(Long.valueOf(1L), books.next().id);
+		// 1ページ目を処理している間に、2ページ先まで取得される
+		waitForSelectCount(3);
+		Thread.sleep(100);
+		assertEquals(3, this.sdbClient.count("select"));
+
+		List<Long> ids = new ArrayList<Long>();
+		while (books.hasNext()) {
+			ids.add(books.next().id);
+		}
+		assertEquals(Arrays.asList(2L, 3L, 4L, 5L), ids);
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		assertEquals(5, selects.size());
+		assertNull(selects.get(0).getNextToken());
+		assertEquals("5", selects.get(4).getNextToken());
+	}
+
+	@Test
+	public void iterateWithPrefetchPropagatesError() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				if (((SelectRequest) argument).getNextToken() == null) {
+					return new SelectResult().withItems(newBookItem(1L, false)).withNextToken("2");
+				}
+				throw new IllegalStateException("error");
+			}
+		});
+
+		Iterator<Book> books = this.mapper.from(Book.class).where("title", Equals, "hoge").prefetch(1).iterate();
+		assertEquals(Long.valueOf(1L), books.next().id);
+		try {
+			books.hasNext();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("error", e.getMessage());
+		}
+	}
+
+	@Test
+	public void parallelScan() throws Exception {
+		final List<String> itemNames = new ArrayList<String>();
+		for (long id = 0; id < 100; id++) {
+			itemNames.add(this.reflector.encodeObjectAsSimpleDBFormat(id));
+		}
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String query = ((SelectRequest) argument).getSelectExpression();
+				List<Item> items = new ArrayList<Item>();
+				if (query.startsWith("select itemName() ")) {
+					for (String itemName : itemNames) {
+						items.add(new Item(itemName, new ArrayList<Attribute>()));
+					}
+					return new SelectResult().withItems(items);
+				}
+				Matcher lower = Pattern.compile("itemName\\(\\) >= '(\\d+)'").matcher(query);
+				Matcher upper = Pattern.compile("itemName\\(\\) < '(\\d+)'").matcher(query);
+				String from = lower.find() ? lower.group(1) : null;
+				String to = upper.find() ? upper.group(1) : null;
+				for (String itemName : itemNames) {
+					if ((from == null || itemName.compareTo(from) >= 0) && (to == null || itemName.compareTo(to) < 0)) {
+						items.add(new Item(itemName, Arrays.asList(new Attribute("title", "hoge"))));
+					}
+				}
+				return new SelectResult().withItems(items);
+			}
+		});
+
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		final Set<Integer> segments = Collections.synchronizedSet(new HashSet<Integer>());
+		ScanHandler<Book> handler = new ScanHandler<Book>() {
+			@Override
+			public void handle(int segment, Book book) {
+				assertTrue(ids.add(book.id));
+				segments.add(segment);
+			}
+		};
+		int count = this.mapper.from(Book.class).where("title", Equals, "hoge").parallelScan(4, handler);
+		assertEquals(100, count);
+		assertEquals(100, ids.size());
+		assertEquals(4, segments.size());
+
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		assertEquals(5, selects.size());
+		for (SelectRequest select : selects.subList(1, 5)) {
+			assertTrue(select.getSelectExpression().contains("where (`title` = 'hoge')"));
+		}
+	}
+
+	@Test
+	public void parallelScanSamplesWholeDomain() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				SelectRequest request = (SelectRequest) argument;
+				List<Item> items = new ArrayList<Item>();
+				if (request.getSelectExpression().startsWith("select itemName() ")) {
+					// 20000件のドメインを2500件ずつのページで返す
+					int page = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+					for (long id = page * 2500; id < (page + 1) * 2500; id++) {
+						items.add(new Item(reflector.encodeObjectAsSimpleDBFormat(id), new ArrayList<Attribute>()));
+					}
+					String nextToken = page < 7 ? String.valueOf(page + 1) : null;
+					return new SelectResult().withItems(items).withNextToken(nextToken);
+				}
+				return new SelectResult().withItems(items);
+			}
+		});
+		this.mapper.parallelScan(Book.class, null, 4, new ScanHandler<Book>() {
+			@Override
+			public void handle(int segment, Book book) {
+			}
+		});
+
+		List<Long> splitPoints = new ArrayList<Long>();
+		for (Object select : this.sdbClient.arguments("select")) {
+			Matcher upper = Pattern.compile("itemName\\(\\) < '(\\d+)'").matcher(
+					((SelectRequest) select).getSelectExpression());
+			if (upper.find()) {
+				splitPoints.add(Long.parseLong(upper.group(1)));
+			}
+		}
+		Collections.sort(splitPoints);
+		assertEquals(3, splitPoints.size());
+		// 先頭の2500件だけでなく、ドメイン全体から均等に分割されている
+		for (int i = 0; i < 3; i++) {
+			assertTrue(splitPoints.toString(), Math.abs(splitPoints.get(i) - (i + 1) * 5000) < 100);
+		}
+	}
+
+	@Test
+	public void batchOperationsInScanHandlerDoNotDeadlock() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String query = ((SelectRequest) argument).getSelectExpression();
+				if (query.startsWith("select count(*)")) {
+					return new SelectResult().withItems(new Item("Domain", Arrays.asList(new Attribute("Count", "1"))));
+				}
+				return new SelectResult().withItems(newBookItem(query.endsWith("desc limit 1") ? 200L : 1L, false));
+			}
+		});
+		SimpleDBMapperConfig config = new SimpleDBMapperConfig();
+		config.setSimpleDBAccessThreadPoolSize(1);
+		final SimpleDBMapper mapper = new SimpleDBMapper(RecordingClient.create(AmazonSimpleDB.class, this.sdbClient),
+				RecordingClient.create(AmazonS3.class, this.s3Client), config);
+		final BatchingLoader<Long, Book> loader = mapper.batchingLoader(Book.class, 10, TimeUnit.SECONDS, 20);
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		try {
+			// スレッドが1つのスレッドプールで、ハンドラの中からさらにスレッドプールを使う
+			Future<Integer> scanned = caller.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return mapper.parallelScan(Book.class, null, Arrays.asList(100L), new ScanHandler<Book>() {
+						@Override
+						public void handle(int segment, Book book) {
+							assertEquals(1, mapper.batchLoad(Book.class, Arrays.asList(1L)).getItems().size());
+							assertEquals(2, mapper.count(Book.class, null, 2));
+							try {
+								assertEquals(Long.valueOf(1), loader.load(1L).get().id);
+							} catch (Exception e) {
+								throw new IllegalStateException(e);
+							}
+						}
+					});
+				}
+			});
+			assertEquals(Integer.valueOf(2), scanned.get(5, TimeUnit.SECONDS));
+		} finally {
+			caller.shutdownNow();
+			loader.close();
+			mapper.close();
+		}
+	}
+
+	@Test
+	public void parallelScanStopsAtLimit() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String token = ((SelectRequest) argument).getNextToken();
+				int page = token == null ? 0 : Integer.parseInt(token);
+				return new SelectResult().withItems(newBookItem(page * 2, false), newBookItem(page * 2 + 1, false))
+						.withNextToken(String.valueOf(page + 1));
+			}
+		});
+		final AtomicInteger handled = new AtomicInteger();
+		QueryExpression expression = new QueryExpression();
+		expression.setLimit(5);
+		ScanHandler<Book> handler = new ScanHandler<Book>() {
+			@Override
+			public void handle(int segment, Book book) {
+				handled.incrementAndGet();
+			}
+		};
+		int count = this.mapper.parallelScan(Book.class, expression, Arrays.asList(100L, 200L), handler);
+		// limitは3つのセグメントを合わせた件数
+		assertEquals(5, count);
+		assertEquals(5, handled.get());
+	}
+
+	@Test
+	public void parallelScanWithSplitPoints() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				return new SelectResult().withItems(new ArrayList<Item>());
+			}
+		});
+		this.mapper.parallelScan(Book.class, null, Arrays.asList(200L, 100L), new ScanHandler<Book>() {
+			@Override
+			public void handle(int segment, Book book) {
+			}
+		});
+
+		Set<String> queries = new HashSet<String>();
+		for (Object select : this.sdbClient.arguments("select")) {
+			queries.add(((SelectRequest) select).getSelectExpression());
+		}
+		String from100 = "itemName() >= " + quoteValue(this.reflector.encodeObjectAsSimpleDBFormat(100L));
+		String to100 = "itemName() < " + quoteValue(this.reflector.encodeObjectAsSimpleDBFormat(100L));
+		String to200 = "itemName() < " + quoteValue(this.reflector.encodeObjectAsSimpleDBFormat(200L));
+		String from200 = "itemName() >= " + quoteValue(this.reflector.encodeObjectAsSimpleDBFormat(200L));
+		String prefix = "select * from `SimpleDBMapper-Book` where ";
+		String limit = " limit 2500";
+		assertEquals(new HashSet<String>(Arrays.asList(prefix + to100 + limit, prefix + from100 + " and " + to200
+				+ limit, prefix + from200 + limit)), queries);
+	}
+
+	@Test
+	public void countFollowsNextToken() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// 5秒で打ち切られた場合は途中までの件数とnextTokenが返る
+				SelectRequest request = (SelectRequest) argument;
+				if (request.getNextToken() == null) {
+					return new SelectResult().withItems(countItem(5)).withNextToken("token");
+				}
+				return new SelectResult().withItems(countItem(7));
+			}
+		});
+
+		assertEquals(12, this.mapper.countAll(Book.class));
+		assertEquals(2, this.sdbClient.count("select"));
+		try {
+			this.mapper.dropDomainIfEmpty(Book.class);
+			fail("must throw SimpleDBMapperNotEmptyException");
+		} catch (SimpleDBMapperNotEmptyException e) {
+			// OK
+		}
+		assertEquals(0, this.sdbClient.count("deleteDomain"));
+	}
+
+	@Test
+	public void dropDomainIfEmptyDoesNotCountItems() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				// 時間切れで空のページが返っても続ける
+				SelectRequest request = (SelectRequest) argument;
+				if (request.getNextToken() == null) {
+					return new SelectResult().withItems(new ArrayList<Item>()).withNextToken("token");
+				}
+				return new SelectResult().withItems(new ArrayList<Item>());
+			}
+		});
+
+		this.mapper.dropDomainIfEmpty(Book.class);
+		List<SelectRequest> selects = this.sdbClient.arguments("select");
+		assertEquals(2, selects.size());
+		for (SelectRequest select : selects) {
+			assertEquals("select itemName() from `SimpleDBMapper-Book` limit 1", select.getSelectExpression());
+		}
+		assertEquals(1, this.sdbClient.count("deleteDomain"));
+	}
+
+	@Test
+	public void parallelCount() throws Exception {
+		this.sdbClient.answer("select", new RecordingClient.Answer() {
+			@Override
+			public Object answer(Object argument) throws Exception {
+				String expression = ((SelectRequest) argument).getSelectExpression();
+				if (expression.startsWith("select itemName()")) {
+					// 最小値と最大値だけを返す
+					return new SelectResult().withItems(newBookItem(expression.contains(" desc ") ? 99L : 0L, false));
+				}
+				return new SelectResult().withItems(countItem(10));
+			}
+		});
+
+		assertEquals(40, this.mapper.from(Book.class).where("title", Equals, "hoge").count(4));
+		int counts = 0;
+		List<String> lowerBounds = new ArrayList<String>();
+		Pattern lowerBound = Pattern.compile("itemName\\(\\) >= '([^']+)'");
+		for (Object select : this.sdbClient.arguments("select")) {
+			String expression = ((SelectRequest) select).getSelectExpression();
+			if (expression.startsWith("select count(*) from `SimpleDBMapper-Book` where (`title` = 'hoge')")) {
+				counts++;
+				Matcher matcher = lowerBound.matcher(expression);
+				if (matcher.find()) {
+					lowerBounds.add(matcher.group(1));
+				}
+			} else {
+				// 分割点を決めるselectはwhere文を評価しない
+				assertFalse(expression, expression.contains("hoge"));
+			}
+		}
+		assertEquals(4, counts);
+		// アイテム数に関係なく、最小値と最大値の2回だけ
+		assertEquals(6, this.sdbClient.count("select"));
+		Collections.sort(lowerBounds);
+		assertEquals(Arrays.asList(this.reflector.encodeObjectAsSimpleDBFormat(24L),
+				this.reflector.encodeObjectAsSimpleDBFormat(49L), this.reflector.encodeObjectAsSimpleDBFormat(74L)),
+				lowerBounds);
+
+		// 分割点を指定した場合は、分割点を決めるselectをしない
+		assertEquals(30, this.mapper.count(Book.class, null, Arrays.asList(10L, 20L)));
+		assertEquals(9, this.sdbClient.count("select"));
+	}
+
+	private void waitForSelectCount(int count) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (this.sdbClient.count("select") < count && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+	}
+
+	private Item countItem(int count) {
+		return new Item("Domain", Arrays.asList(new Attribute("Count", String.valueOf(count))));
+	}
+
+	private Item newBookItem(long id, boolean withCoverImage) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("title", "hoge"));
+		if (withCoverImage) {
+			S3TaskResult taskResult = new S3TaskResult(Operation.UPLOAD, "coverImage", "dateofrock-testing", "cover");
+			taskResult.setSuccess(true);
+			attributes.add(new Attribute("coverImage", taskResult.toSimpleDBAttributeValue()));
+		}
+		return new Item(this.reflector.encodeObjectAsSimpleDBFormat(id), attributes);
+	}
+
+}
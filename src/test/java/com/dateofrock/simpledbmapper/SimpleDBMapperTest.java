@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -100,24 +101,19 @@ public class SimpleDBMapperTest {
 		Book fetchedBook = this.mapper.load(Book.class, book1.id);
 		assertBook(book1, fetchedBook, false);
 
-		this.mapper.addEagerBlobFetch("coverImage");
-		fetchedBook = this.mapper.load(Book.class, book1.id);
+		List<String> coverImage = Arrays.asList("coverImage");
+		fetchedBook = this.mapper.load(Book.class, book1.id, coverImage);
 		assertBook(book1, fetchedBook, true);
 
 		Book book2 = newBook2(2000L);
 		this.mapper.save(book2);
 
-		this.mapper.resetEagerBlobFetch();
-
 		fetchedBook = this.mapper.load(Book.class, book2.id);
 		assertBook(book2, fetchedBook, false);
 
-		this.mapper.addEagerBlobFetch("coverImage");
-		fetchedBook = this.mapper.load(Book.class, book2.id);
+		fetchedBook = this.mapper.load(Book.class, book2.id, coverImage);
 		assertBook(book2, fetchedBook, true);
 
-		this.mapper.removeEagerBlobFetch("coverImage");
-
 		book2.authors.remove("恥 晒");
 		this.mapper.save(book2);
 		fetchedBook = this.mapper.load(Book.class, book2.id);
@@ -137,7 +133,7 @@ public class SimpleDBMapperTest {
 		expression = new QueryExpression(new Condition("publishedAt", GreaterThan, toDate("2000-1-1 00:00:00")));
 		Sort sort = new Sort(Ordering.ASC, "publishedAt");
 		expression.setSort(sort);
-		this.mapper.addEagerBlobFetch("coverImage");
+		expression.addEagerBlobFetch("coverImage");
 		List<Book> books = this.mapper.select(Book.class, expression);
 		assertBook(book1, books.get(0), true);
 		assertBook(book2, books.get(1), true);
@@ -156,16 +152,17 @@ public class SimpleDBMapperTest {
 
 		books = this.mapper.from(Book.class).where("publishedAt", GreaterThan, toDate("2000-1-1 00:00:00"))
 				.orderBy("publishedAt", DESC).limit(10).fetch();
-		assertBook(book1, books.get(1), true);
-		assertBook(book2, books.get(0), true);
+		// eagerBlobFetchは他のqueryに影響しない
+		assertBook(book1, books.get(1), false);
+		assertBook(book2, books.get(0), false);
 
 		expression = new QueryExpression(new Condition("publishedAt", GreaterThan, toDate("2000-1-1 00:00:00")));
 		expression.addAndCondtion(new Condition("publishedAt", LessThan, toDate("2100-1-1 00:00:00")));
 		sort = new Sort(ASC, "publishedAt");
 		expression.setSort(sort);
 		books = this.mapper.select(Book.class, expression);
-		assertBook(book1, books.get(0), true);
-		assertBook(book2, books.get(1), true);
+		assertBook(book1, books.get(0), false);
+		assertBook(book2, books.get(1), false);
 
 		this.mapper.delete(book1);
 		count = this.mapper.countAll(Book.class);
@@ -207,9 +204,11 @@ public class SimpleDBMapperTest {
 		expression.setLimit(5);
 		expression.setSort(new Sort("itemName()"));
 
-		List<Book> fetchedBooks = this.mapper.select(Book.class, expression);
-		while (this.mapper.hasNext()) {
-			fetchedBooks.addAll(this.mapper.select(Book.class, expression));
+		QueryResult<Book> result = this.mapper.query(Book.class, expression);
+		List<Book> fetchedBooks = new ArrayList<Book>(result.getItems());
+		while (result.hasNext()) {
+			result = result.nextPage();
+			fetchedBooks.addAll(result.getItems());
 		}
 
 		List<Long> itemNameList = new ArrayList<Long>();
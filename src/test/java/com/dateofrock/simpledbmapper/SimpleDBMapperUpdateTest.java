@@ -0,0 +1,153 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import model.Book;
+import model.Memo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * {@link UpdateBuilder}のテストです。AWSにはアクセスせず、SimpleDBへのリクエストを記録して確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBMapperUpdateTest {
+
+	private RecordingClient sdbClient;
+	private SimpleDBMapper mapper;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sdbClient = new RecordingClient();
+		AmazonSimpleDB sdb = RecordingClient.create(AmazonSimpleDB.class, this.sdbClient);
+		AmazonS3 s3 = RecordingClient.create(AmazonS3.class, new RecordingClient());
+		this.mapper = new SimpleDBMapper(sdb, s3, new SimpleDBMapperConfig());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mapper.close();
+	}
+
+	@Test
+	public void update() throws Exception {
+		this.mapper.update(Memo.class, 1L).set("text", "hoge").addToSet("tags", "a", "b").removeFromSet("tags", "c")
+				.remove("createdAt").execute();
+
+		assertEquals(0, this.sdbClient.count("select"));
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals("SimpleDBMapper-Memo", put.getDomainName());
+		assertEquals("0000000001", put.getItemName());
+		assertNull(put.getExpected());
+		assertEquals(3, put.getAttributes().size());
+		ReplaceableAttribute text = put.getAttributes().get(0);
+		assertEquals("text", text.getName());
+		assertEquals("hoge", text.getValue());
+		assertTrue(text.isReplace());
+		assertEquals("tags", put.getAttributes().get(1).getName());
+		assertFalse(put.getAttributes().get(1).isReplace());
+
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(2, delete.getAttributes().size());
+		Attribute createdAt = delete.getAttributes().get(0);
+		assertEquals("createdAt", createdAt.getName());
+		assertNull(createdAt.getValue());
+		assertEquals("c", delete.getAttributes().get(1).getValue());
+	}
+
+	@Test
+	public void operationsOnSameAttributeApplyInOrder() throws Exception {
+		// 削除してから追加すると、追加した要素だけになる
+		this.mapper.update(Memo.class, 1L).remove("tags").addToSet("tags", "x").execute();
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals(1, put.getAttributes().size());
+		assertEquals("tags", put.getAttributes().get(0).getName());
+		assertEquals("x", put.getAttributes().get(0).getValue());
+		assertTrue(put.getAttributes().get(0).isReplace());
+		assertEquals(0, this.sdbClient.count("deleteAttributes"));
+
+		// 要素を削除してから追加すると、追加した要素は残る
+		this.mapper.update(Memo.class, 1L).removeFromSet("tags", "x", "y").addToSet("tags", "x").execute();
+		put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(1);
+		assertEquals("x", put.getAttributes().get(0).getValue());
+		assertFalse(put.getAttributes().get(0).isReplace());
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(1, delete.getAttributes().size());
+		assertEquals("y", delete.getAttributes().get(0).getValue());
+
+		// 置き換えてから要素を削除すると、置き換える要素から除かれる
+		this.mapper.update(Memo.class, 1L).set("tags", Arrays.asList("a", "b")).removeFromSet("tags", "a")
+				.addToSet("tags", "c").execute();
+		put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(2);
+		assertEquals(2, put.getAttributes().size());
+		assertEquals("b", put.getAttributes().get(0).getValue());
+		assertEquals("c", put.getAttributes().get(1).getValue());
+		assertTrue(put.getAttributes().get(1).isReplace());
+		assertEquals(1, this.sdbClient.count("deleteAttributes"));
+	}
+
+	@Test
+	public void updateWithVersion() throws Exception {
+		Long version = this.mapper.update(Book.class, 1L).set("price", 1000).remove("isbn").expectVersion(100L)
+				.execute();
+
+		PutAttributesRequest put = this.sdbClient.<PutAttributesRequest> arguments("putAttributes").get(0);
+		assertEquals("version", put.getExpected().getName());
+		assertEquals("100", put.getExpected().getValue());
+		assertEquals(2, put.getAttributes().size());
+		assertEquals("price", put.getAttributes().get(0).getName());
+		assertEquals("version", put.getAttributes().get(1).getName());
+		assertEquals(version.toString(), put.getAttributes().get(1).getValue());
+
+		// DeleteAttributesは、PutAttributesで更新したversionのままの場合だけ
+		DeleteAttributesRequest delete = this.sdbClient.<DeleteAttributesRequest> arguments("deleteAttributes").get(0);
+		assertEquals(version.toString(), delete.getExpected().getValue());
+		assertEquals(1, delete.getAttributes().size());
+		assertEquals("isbn", delete.getAttributes().get(0).getName());
+	}
+
+	@Test
+	public void updateRejectsUnknownAttribute() throws Exception {
+		try {
+			this.mapper.update(Book.class, 1L).set("title", "hoge").set("review", "fuga").execute();
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			// Blobは更新できない
+			assertEquals(0, this.sdbClient.count("putAttributes"));
+		}
+		try {
+			this.mapper.update(Memo.class, 1L).expectVersion(1L).set("text", "hoge").execute();
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			assertEquals(0, this.sdbClient.count("putAttributes"));
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.accessor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperException;
+
+/**
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class ReflectionAccessorFactoryTest {
+
+	private ReflectionAccessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.factory = new ReflectionAccessorFactory();
+	}
+
+	@Test
+	public void privateField() throws Exception {
+		FieldAccessor accessor = this.factory.createFieldAccessor(PrivateModel.class,
+				PrivateModel.class.getDeclaredField("secret"));
+		PrivateModel model = new PrivateModel();
+		assertNull(accessor.get(model));
+		accessor.set(model, "hoge");
+		assertEquals("hoge", accessor.get(model));
+		assertEquals("hoge", model.secret);
+	}
+
+	@Test
+	public void superClassField() throws Exception {
+		FieldAccessor accessor = this.factory.createFieldAccessor(SubModel.class,
+				PrivateModel.class.getDeclaredField("secret"));
+		SubModel model = new SubModel();
+		accessor.set(model, "fuga");
+		assertEquals("fuga", accessor.get(model));
+	}
+
+	@Test
+	public void privateConstructor() throws Exception {
+		Instantiator<PrivateModel> instantiator = this.factory.createInstantiator(PrivateModel.class);
+		PrivateModel first = instantiator.newInstance();
+		assertNotNull(first);
+		assertNotSame(first, instantiator.newInstance());
+	}
+
+	@Test
+	public void noDefaultConstructor() throws Exception {
+		// saveだけで使うクラスもあるので、Instantiatorは作れる
+		Instantiator<NoDefaultConstructorModel> instantiator = this.factory
+				.createInstantiator(NoDefaultConstructorModel.class);
+		try {
+			instantiator.newInstance();
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("引数なしのコンストラクタが必要です"));
+		}
+	}
+
+	@Test
+	public void constructorFailure() throws Exception {
+		Instantiator<FailingModel> instantiator = this.factory.createInstantiator(FailingModel.class);
+		try {
+			instantiator.newInstance();
+			fail("must throw SimpleDBMapperException");
+		} catch (SimpleDBMapperException e) {
+			assertNotNull(e.getCause());
+		}
+	}
+
+	@Test
+	public void generatedAccessorFactoryFallsBack() throws Exception {
+		// 生成されたアクセサがないクラスは、フォールバックのファクトリを使う
+		GeneratedAccessorFactory generated = new GeneratedAccessorFactory(this.factory);
+		FieldAccessor accessor = generated.createFieldAccessor(PrivateModel.class,
+				PrivateModel.class.getDeclaredField("secret"));
+		PrivateModel model = generated.createInstantiator(PrivateModel.class).newInstance();
+		accessor.set(model, "piyo");
+		assertEquals("piyo", model.secret);
+	}
+
+	static class PrivateModel {
+		private String secret;
+
+		private PrivateModel() {
+		}
+	}
+
+	static class SubModel extends PrivateModel {
+	}
+
+	static class NoDefaultConstructorModel {
+		NoDefaultConstructorModel(String id) {
+		}
+	}
+
+	static class FailingModel {
+		FailingModel() {
+			throw new IllegalStateException("error");
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.apt;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+import com.dateofrock.simpledbmapper.SimpleDBDomain;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping.Kind;
+import com.dateofrock.simpledbmapper.accessor.EntityMapping.PropertyMapping;
+import com.dateofrock.simpledbmapper.accessor.FieldAccessor;
+import com.dateofrock.simpledbmapper.accessor.GeneratedAccessorFactory;
+import com.dateofrock.simpledbmapper.accessor.Instantiator;
+import com.dateofrock.simpledbmapper.accessor.ReflectionAccessorFactory;
+
+/**
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBDomainProcessorTest {
+
+	private File workDir;
+	private DiagnosticCollector<JavaFileObject> diagnostics;
+
+	@Before
+	public void setUp() throws Exception {
+		this.workDir = File.createTempFile("simpledb-mapper-apt", "");
+		this.workDir.delete();
+		this.workDir.mkdirs();
+		this.diagnostics = new DiagnosticCollector<JavaFileObject>();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		deleteRecursively(this.workDir);
+	}
+
+	@Test
+	public void generateAccessor() throws Exception {
+		File source = writeSource("apt/Magazine.java", //
+				"package apt;", //
+				"import java.util.Set;", //
+				"import com.dateofrock.simpledbmapper.*;", //
+				"@SimpleDBDomain(domainName = \"Magazine\", s3BucketName = \"bucket\")", //
+				"public class Magazine {", //
+				"	@SimpleDBItemName public Long id;", //
+				"	@SimpleDBAttribute int issue;", //
+				"	@SimpleDBAttribute public Set<String> tags;", //
+				"	@SimpleDBAttribute private String secret;", //
+				"	@SimpleDBBlob(fetch = SimpleDBBlob.FetchType.LAZY) public LazyBlob<byte[]> cover;", //
+				"	@SimpleDBVersionAttribute public Long version;", //
+				"}");
+		assertTrue(this.diagnostics.getDiagnostics().toString(), compile(source));
+
+		ClassLoader loader = new URLClassLoader(new URL[] { this.workDir.toURI().toURL() }, getClass()
+				.getClassLoader());
+		Class<?> magazineClass = loader.loadClass("apt.Magazine");
+		assertNotNull(loader.loadClass("apt.Magazine" + GeneratedAccessorFactory.CLASS_NAME_SUFFIX));
+
+		GeneratedAccessorFactory factory = new GeneratedAccessorFactory();
+		Instantiator<?> instantiator = factory.createInstantiator(magazineClass);
+		assertFalse(instantiator.getClass().getName().startsWith(ReflectionAccessorFactory.class.getName()));
+		Object magazine = instantiator.newInstance();
+
+		Field issue = magazineClass.getDeclaredField("issue");
+		FieldAccessor issueAccessor = factory.createFieldAccessor(magazineClass, issue);
+		assertFalse(issueAccessor.getClass().getName().startsWith(ReflectionAccessorFactory.class.getName()));
+		issueAccessor.set(magazine, 12);
+		assertEquals(12, issueAccessor.get(magazine));
+
+		// privateフィールドはリフレクションにフォールバックする
+		Field secret = magazineClass.getDeclaredField("secret");
+		FieldAccessor secretAccessor = factory.createFieldAccessor(magazineClass, secret);
+		assertTrue(secretAccessor.getClass().getName().startsWith(ReflectionAccessorFactory.class.getName()));
+		secretAccessor.set(magazine, "hoge");
+		assertEquals("hoge", secretAccessor.get(magazine));
+
+		// アノテーションを走査しなくて済むように、マッピング情報も生成される
+		EntityMapping mapping = factory.createEntityMapping(magazineClass);
+		assertEquals("Magazine", mapping.getDomainName());
+		assertEquals("bucket", mapping.getS3BucketName());
+		assertEquals("", mapping.getS3KeyPrefix());
+		assertEquals(magazineClass, mapping.getItemNameDeclaringClass());
+		assertEquals("id", mapping.getItemNameFieldName());
+		List<PropertyMapping> properties = mapping.getProperties();
+		assertEquals(5, properties.size());
+		assertEquals("issue", properties.get(0).getAttributeName());
+		assertEquals(Kind.ATTRIBUTE, properties.get(0).getKind());
+		assertNull(properties.get(0).getValueType());
+		assertEquals(String.class, properties.get(1).getValueType());
+		assertEquals("secret", properties.get(2).getFieldName());
+		PropertyMapping cover = properties.get(3);
+		assertEquals(Kind.BLOB, cover.getKind());
+		assertEquals(FetchType.LAZY, cover.getFetchType());
+		assertEquals(byte[].class, cover.getValueType());
+		assertEquals("", cover.getContentType());
+		assertEquals(Kind.VERSION, properties.get(4).getKind());
+		assertEquals(magazineClass, properties.get(4).getDeclaringClass());
+	}
+
+	@Test
+	public void unsupportedItemNameType() throws Exception {
+		File source = writeSource("apt/BadMagazine.java", //
+				"package apt;", //
+				"import com.dateofrock.simpledbmapper.*;", //
+				"@SimpleDBDomain(domainName = \"Magazine\")", //
+				"public class BadMagazine {", //
+				"	@SimpleDBItemName public Boolean id;", //
+				"	@SimpleDBBlob public LazyBlob<Integer> cover;", //
+				"	@SimpleDBVersionAttribute public String version;", //
+				"}");
+		assertFalse(compile(source));
+		int errors = 0;
+		for (Diagnostic<? extends JavaFileObject> diagnostic : this.diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				errors++;
+			}
+		}
+		assertEquals(3, errors);
+	}
+
+	private void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	private File writeSource(String path, String... lines) throws Exception {
+		File file = new File(this.workDir, path);
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private boolean compile(File source) throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(this.diagnostics, null, null);
+		try {
+			String classpath = new File(SimpleDBDomain.class.getProtectionDomain().getCodeSource().getLocation()
+					.toURI()).getPath();
+			List<String> options = Arrays.asList("-classpath", classpath, "-d", this.workDir.getPath(), "-s",
+					this.workDir.getPath(), "-encoding", "UTF-8", "-processor",
+					SimpleDBDomainProcessor.class.getName());
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(source);
+			return compiler.getTask(null, fileManager, this.diagnostics, options, null, units).call();
+		} finally {
+			fileManager.close();
+		}
+	}
+}
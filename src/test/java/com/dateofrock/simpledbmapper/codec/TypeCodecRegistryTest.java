@@ -0,0 +1,160 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.codec;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dateofrock.simpledbmapper.SimpleDBMapperUnsupportedTypeException;
+import com.dateofrock.simpledbmapper.query.ComparisonOperator;
+import com.dateofrock.simpledbmapper.query.Condition;
+
+/**
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class TypeCodecRegistryTest {
+
+	enum Color {
+		RED, GREEN {
+			@Override
+			public String toString() {
+				return "green";
+			}
+		}
+	}
+
+	TypeCodecRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.registry = new TypeCodecRegistry();
+	}
+
+	@Test
+	public void builtInCodecs() throws Exception {
+		assertEquals("hoge", this.registry.encode("hoge"));
+		assertEquals("0000000001", this.registry.encode(1));
+		assertEquals("0000123456", this.registry.encode(123456L));
+		assertEquals("0000000012.345", this.registry.encode(12.345f));
+		assertEquals("true", this.registry.encode(true));
+		DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss Z");
+		Date date = df.parse("2012/01/20 00:00:00 +0900");
+		assertEquals("2012-01-20T00:00:00.000+09:00", this.registry.encode(date));
+
+		assertEquals(Integer.valueOf(1), this.registry.getCodec(Integer.class).decode("0000000001"));
+		assertEquals(Integer.valueOf(1), this.registry.getCodec(int.class).decode("0000000001"));
+		assertEquals(Long.valueOf(123456L), this.registry.getCodec(long.class).decode("0000123456"));
+		assertEquals(Float.valueOf(12.345f), this.registry.getCodec(Float.class).decode("0000000012.345"));
+		assertEquals(Boolean.FALSE, this.registry.getCodec(boolean.class).decode("false"));
+		assertEquals(date, this.registry.getCodec(Date.class).decode("2012-01-20T00:00:00.000+09:00"));
+	}
+
+	@Test
+	public void superclassCodec() throws Exception {
+		Timestamp timestamp = new Timestamp(0);
+		assertSame(this.registry.findCodec(Date.class), this.registry.findCodec(Timestamp.class));
+		assertEquals(this.registry.encode(new Date(0)), this.registry.encode(timestamp));
+	}
+
+	@Test
+	public void enumCodec() throws Exception {
+		assertEquals("RED", this.registry.encode(Color.RED));
+		assertEquals("GREEN", this.registry.encode(Color.GREEN));
+		assertEquals(Color.GREEN, this.registry.getCodec(Color.class).decode("GREEN"));
+		assertSame(this.registry.findCodec(Color.class), this.registry.findCodec(Color.GREEN.getClass()));
+	}
+
+	@Test
+	public void registerCustomCodec() throws Exception {
+		assertNull(this.registry.findCodec(UUID.class));
+		try {
+			this.registry.encode(UUID.randomUUID());
+			fail("must throw SimpleDBMapperUnsupportedTypeException");
+		} catch (SimpleDBMapperUnsupportedTypeException e) {
+			// OK
+		}
+
+		this.registry.register(UUID.class, new TypeCodec<UUID>() {
+			@Override
+			public String encode(UUID value) {
+				return value.toString();
+			}
+
+			@Override
+			public UUID decode(String value) {
+				return UUID.fromString(value);
+			}
+		});
+		UUID uuid = UUID.randomUUID();
+		assertEquals(uuid.toString(), this.registry.encode(uuid));
+		assertEquals(uuid, this.registry.getCodec(UUID.class).decode(uuid.toString()));
+
+		// 組み込みのコーデックも上書きできる
+		this.registry.register(Boolean.class, new TypeCodec<Boolean>() {
+			@Override
+			public String encode(Boolean value) {
+				return value ? "1" : "0";
+			}
+
+			@Override
+			public Boolean decode(String value) {
+				return "1".equals(value);
+			}
+		});
+		assertEquals("1", this.registry.encode(true));
+	}
+
+	@Test
+	public void offsetCodec() throws Exception {
+		this.registry.register(Integer.class, new IntegerCodec(10, 1000000000));
+		this.registry.register(Float.class, new FloatCodec(6, 2, 100000));
+		assertEquals("0999999990", this.registry.encode(-10));
+		assertEquals(Integer.valueOf(-10), this.registry.getCodec(Integer.class).decode("0999999990"));
+		assertTrue(this.registry.encode(-10).compareTo(this.registry.encode(-9)) < 0);
+		assertEquals("09998750", this.registry.encode(-12.5f));
+		assertEquals(Float.valueOf(-12.5f), this.registry.getCodec(Float.class).decode("09998750"));
+	}
+
+	@Test
+	public void conditionUsesRegistry() throws Exception {
+		this.registry.register(BigDecimal.class, new TypeCodec<BigDecimal>() {
+			@Override
+			public String encode(BigDecimal value) {
+				return value.toPlainString();
+			}
+
+			@Override
+			public BigDecimal decode(String value) {
+				return new BigDecimal(value);
+			}
+		});
+		Condition condition = new Condition("price", ComparisonOperator.Equals, new BigDecimal("1.50"));
+		assertEquals("`price` = '1.50'", condition.describe(this.registry));
+
+		condition = new Condition("count", ComparisonOperator.Equals, 1);
+		assertEquals("`count` = '0000000001'", condition.describe());
+	}
+
+}
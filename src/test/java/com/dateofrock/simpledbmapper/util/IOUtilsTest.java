@@ -0,0 +1,93 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class IOUtilsTest {
+
+	@Test
+	public void toByteArray() throws Exception {
+		byte[] data = randomBytes(100000);
+		// Content-Lengthが正しい場合、わからない場合、実際と違う場合
+		assertArrayEquals(data, IOUtils.toByteArray(new ChunkedInputStream(data), data.length));
+		assertArrayEquals(data, IOUtils.toByteArray(new ChunkedInputStream(data), -1));
+		assertArrayEquals(data, IOUtils.toByteArray(new ChunkedInputStream(data), 0));
+		assertArrayEquals(data, IOUtils.toByteArray(new ChunkedInputStream(data), 1000));
+		assertArrayEquals(data, IOUtils.toByteArray(new ChunkedInputStream(data), data.length + 1000));
+		assertArrayEquals(new byte[0], IOUtils.toByteArray(new ByteArrayInputStream(new byte[0]), -1));
+	}
+
+	@Test
+	public void toByteArrayClosesInput() throws Exception {
+		ChunkedInputStream input = new ChunkedInputStream(randomBytes(10));
+		IOUtils.toByteArray(input, 10);
+		assertTrue(input.closed);
+	}
+
+	@Test
+	public void readString() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			builder.append("あいうえおabc");
+		}
+		String text = builder.toString();
+		byte[] data = text.getBytes("UTF-8");
+		// マルチバイト文字がチャンクの境目で分かれても正しくデコードされる
+		assertEquals(text, IOUtils.readString(new ChunkedInputStream(data), "UTF-8", data.length));
+		assertEquals(text, IOUtils.readString(new ChunkedInputStream(data), "UTF-8"));
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(1).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * S3のストリームのように、一度のreadで少しずつしか返さないInputStream
+	 */
+	private static class ChunkedInputStream extends ByteArrayInputStream {
+
+		boolean closed;
+
+		ChunkedInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 1001));
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.closed = true;
+			super.close();
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package com.dateofrock.simpledbmapper.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.simpledb.util.SimpleDBUtils;
+import com.dateofrock.simpledbmapper.codec.FloatCodec;
+
+/**
+ * {@link SimpleDBFormat}が{@link SimpleDBUtils}と同じ結果になることを確認します。
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+public class SimpleDBFormatTest {
+
+	private static final int ITERATIONS = 10000;
+
+	private static final String[] TIME_ZONES = { "Asia/Tokyo", "UTC", "America/New_York", "Asia/Kolkata",
+			"America/St_Johns", "Pacific/Chatham", "Europe/London" };
+
+	private Random random;
+	private TimeZone defaultTimeZone;
+
+	@Before
+	public void setUp() throws Exception {
+		this.random = new Random(20120120L);
+		this.defaultTimeZone = TimeZone.getDefault();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TimeZone.setDefault(this.defaultTimeZone);
+	}
+
+	@Test
+	public void zeroPaddingInt() throws Exception {
+		int[] values = { 0, 1, 9, 10, 123456, 999999999, 1000000000, Integer.MAX_VALUE, -1, -123,
+				Integer.MIN_VALUE };
+		for (int value : values) {
+			assertZeroPaddingInt(value, 10);
+			assertZeroPaddingInt(value, 3);
+			assertZeroPaddingInt(value, 0);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertZeroPaddingInt(this.random.nextInt(), 10);
+			assertZeroPaddingInt(this.random.nextInt(100000), 10);
+		}
+	}
+
+	@Test
+	public void zeroPaddingLong() throws Exception {
+		long[] values = { 0L, 1L, 123456L, 9999999999L, Long.MAX_VALUE, -1L, Long.MIN_VALUE };
+		for (long value : values) {
+			assertZeroPaddingLong(value, 10);
+			assertZeroPaddingLong(value, 20);
+			assertZeroPaddingLong(value, 1);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertZeroPaddingLong(this.random.nextLong(), 20);
+			assertZeroPaddingLong(this.random.nextInt(Integer.MAX_VALUE), 10);
+		}
+	}
+
+	@Test
+	public void zeroPaddingFloat() throws Exception {
+		float[] values = { 0f, 1f, 12.345f, 0.001f, 1234567.8f, 1.0E10f, Float.MAX_VALUE, Float.MIN_VALUE, -1.5f };
+		for (float value : values) {
+			assertZeroPaddingFloat(value, 10);
+			assertZeroPaddingFloat(value, 2);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertZeroPaddingFloat(this.random.nextFloat() * 100000f, 10);
+		}
+	}
+
+	@Test
+	public void realNumberRangeInt() throws Exception {
+		int offset = 1000000000;
+		for (int i = 0; i < ITERATIONS; i++) {
+			int value = this.random.nextInt(2 * offset) - offset;
+			String expected = SimpleDBUtils.encodeRealNumberRange(value, 10, offset);
+			String actual = SimpleDBFormat.encodeRealNumberRange(value, 10, offset);
+			assertEquals(expected, actual);
+			assertEquals(SimpleDBUtils.decodeRealNumberRangeInt(expected, offset),
+					SimpleDBFormat.decodeRealNumberRangeInt(actual, offset));
+			assertEquals(value, SimpleDBFormat.decodeRealNumberRangeInt(actual, offset));
+		}
+		// 負の値も辞書順で比較できる
+		assertTrue(SimpleDBFormat.encodeRealNumberRange(-10, 10, offset).compareTo(
+				SimpleDBFormat.encodeRealNumberRange(-9, 10, offset)) < 0);
+		assertTrue(SimpleDBFormat.encodeRealNumberRange(-1, 10, offset).compareTo(
+				SimpleDBFormat.encodeRealNumberRange(0, 10, offset)) < 0);
+		try {
+			SimpleDBFormat.encodeRealNumberRange(-11, 10, 10);
+			fail("must throw IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void realNumberRangeLong() throws Exception {
+		long offset = 1000000000000000000L;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long value = this.random.nextLong() % offset;
+			String expected = SimpleDBUtils.encodeRealNumberRange(value, 19, offset);
+			String actual = SimpleDBFormat.encodeRealNumberRange(value, 19, offset);
+			assertEquals(expected, actual);
+			assertEquals(value, SimpleDBFormat.decodeRealNumberRangeLong(actual, offset));
+			assertEquals(SimpleDBUtils.decodeRealNumberRangeLong(expected, offset),
+					SimpleDBFormat.decodeRealNumberRangeLong(actual, offset));
+		}
+	}
+
+	@Test
+	public void realNumberRangeFloat() throws Exception {
+		int offset = 100000;
+		for (int i = 0; i < ITERATIONS; i++) {
+			float value = (this.random.nextFloat() - 0.5f) * 2 * offset;
+			String expected = SimpleDBUtils.encodeRealNumberRange(value, 6, 2, offset);
+			String actual = SimpleDBFormat.encodeRealNumberRange(value, 6, 2, offset);
+			assertEquals(expected, actual);
+			assertEquals(SimpleDBUtils.decodeRealNumberRangeFloat(expected, 2, offset),
+					SimpleDBFormat.decodeRealNumberRangeFloat(actual, 2, offset), 0f);
+		}
+	}
+
+	@Test
+	public void realNumberRangeFloatNearDigitLimits() throws Exception {
+		// 桁をずらした値がintの範囲を超えても、宣言した桁数までは往復できる
+		float[] values = { 3.0E7f, 9.9999998E7f, 1.2345678E9f, 2.1474836E7f, 0f };
+		for (float value : values) {
+			String encoded = SimpleDBFormat.encodeRealNumberRange(value, 10, 2, 0);
+			assertEquals(12, encoded.length());
+			assertEquals(value, SimpleDBFormat.decodeRealNumberRangeFloat(encoded, 2, 0), 0f);
+		}
+		assertEquals("003000000000", SimpleDBFormat.encodeRealNumberRange(3.0E7f, 10, 2, 0));
+		FloatCodec codec = new FloatCodec(10, 2, 0);
+		assertEquals(Float.valueOf(3.0E7f), codec.decode(codec.encode(3.0E7f)));
+
+		// offset * 10^maxDigitsRightがintの範囲を超える場合
+		int offset = 1000000000;
+		float[] signedValues = { -1.0E9f, -3.0E7f, -0.25f, 0f, 0.25f, 3.0E7f, 1.0E9f };
+		String previous = null;
+		for (float value : signedValues) {
+			String encoded = SimpleDBFormat.encodeRealNumberRange(value, 10, 2, offset);
+			assertEquals(12, encoded.length());
+			assertEquals(value, SimpleDBFormat.decodeRealNumberRangeFloat(encoded, 2, offset), 0f);
+			if (previous != null) {
+				// 辞書順と数値の順序が一致する
+				assertTrue(previous.compareTo(encoded) < 0);
+			}
+			previous = encoded;
+		}
+	}
+
+	@Test
+	public void date() throws Exception {
+		for (String timeZone : TIME_ZONES) {
+			TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+			assertDate(0L);
+			assertDate(-1L);
+			assertDate(System.currentTimeMillis());
+			// 2012-03-11（アメリカの夏時間開始）前後
+			assertDate(1331449200000L);
+			assertDate(1331452800000L);
+			// グレゴリオ暦以前、5桁の年はフォールバック（SimpleDBUtils自体が紀元前を往復できないので、比較のみ）
+			assertSameAsSimpleDBUtils(-12219292800001L);
+			assertSameAsSimpleDBUtils(-62135769600000L);
+			assertSameAsSimpleDBUtils(253402300800000L);
+			for (int i = 0; i < ITERATIONS; i++) {
+				// 1583年から9999年くらいまで
+				long millis = -12212553600000L + (long) (this.random.nextDouble() * 265000000000000L);
+				assertDate(millis);
+			}
+		}
+	}
+
+	@Test
+	public void decodeDateFallback() throws Exception {
+		TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+		// SimpleDateFormatのlenientな解釈と一致すること
+		String[] values = { "2012-13-01T00:00:00.000+09:00", "2012-02-30T25:61:61.999-05:30",
+				"1500-01-01T00:00:00.000+00:00" };
+		for (String value : values) {
+			assertEquals(SimpleDBUtils.decodeDate(value), SimpleDBFormat.decodeDate(value));
+		}
+	}
+
+	private void assertZeroPaddingInt(int value, int digits) {
+		String expected = SimpleDBUtils.encodeZeroPadding(value, digits);
+		String actual = SimpleDBFormat.encodeZeroPadding(value, digits);
+		assertEquals(expected, actual);
+		if (value >= 0) {
+			assertEquals(SimpleDBUtils.decodeZeroPaddingInt(expected), SimpleDBFormat.decodeZeroPaddingInt(actual));
+		}
+	}
+
+	private void assertZeroPaddingLong(long value, int digits) {
+		String expected = SimpleDBUtils.encodeZeroPadding(value, digits);
+		String actual = SimpleDBFormat.encodeZeroPadding(value, digits);
+		assertEquals(expected, actual);
+		if (value >= 0) {
+			assertEquals(SimpleDBUtils.decodeZeroPaddingLong(expected), SimpleDBFormat.decodeZeroPaddingLong(actual));
+		}
+	}
+
+	private void assertZeroPaddingFloat(float value, int digits) {
+		String expected = SimpleDBUtils.encodeZeroPadding(value, digits);
+		String actual = SimpleDBFormat.encodeZeroPadding(value, digits);
+		assertEquals(expected, actual);
+		if (value >= 0) {
+			assertEquals(SimpleDBUtils.decodeZeroPaddingFloat(expected),
+					SimpleDBFormat.decodeZeroPaddingFloat(actual), 0f);
+		}
+	}
+
+	private void assertDate(long millis) throws Exception {
+		assertSameAsSimpleDBUtils(millis);
+		if (TimeZone.getDefault().getOffset(millis) % 60000 == 0) {
+			// 秒単位のオフセット（地方平均時）は文字列にすると切り捨てられるので往復できない
+			Date date = new Date(millis);
+			assertEquals(date, SimpleDBFormat.decodeDate(SimpleDBFormat.encodeDate(date)));
+		}
+	}
+
+	private void assertSameAsSimpleDBUtils(long millis) throws Exception {
+		Date date = new Date(millis);
+		String expected = SimpleDBUtils.encodeDate(date);
+		String actual = SimpleDBFormat.encodeDate(date);
+		assertEquals(TimeZone.getDefault().getID() + " " + millis, expected, actual);
+		assertEquals(SimpleDBUtils.decodeDate(expected), SimpleDBFormat.decodeDate(actual));
+	}
+
+}
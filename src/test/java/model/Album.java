@@ -0,0 +1,45 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package model;
+
+import com.dateofrock.simpledbmapper.LazyBlob;
+import com.dateofrock.simpledbmapper.SimpleDBAttribute;
+import com.dateofrock.simpledbmapper.SimpleDBBlob;
+import com.dateofrock.simpledbmapper.SimpleDBBlob.FetchType;
+import com.dateofrock.simpledbmapper.SimpleDBDomain;
+import com.dateofrock.simpledbmapper.SimpleDBItemName;
+
+/**
+ * {@link LazyBlob}を持つモデル
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+@SimpleDBDomain(domainName = "SimpleDBMapper-Album", s3BucketName = "dateofrock-testing", s3KeyPrefix = "album")
+public class Album {
+
+	@SimpleDBItemName
+	public String id;
+
+	@SimpleDBAttribute
+	public String title;
+
+	@SimpleDBBlob(contentType = "image/jpeg", fetch = FetchType.LAZY)
+	public LazyBlob<byte[]> jacket;
+
+	@SimpleDBBlob(contentType = "text/plain")
+	public LazyBlob<String> liner;
+
+}
@@ -0,0 +1,45 @@
+/*
+ *	Copyright 2012 Takehito Tanabe (dateofrock at gmail dot com)
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+package model;
+
+import java.util.Date;
+import java.util.Set;
+
+import com.dateofrock.simpledbmapper.SimpleDBAttribute;
+import com.dateofrock.simpledbmapper.SimpleDBDomain;
+import com.dateofrock.simpledbmapper.SimpleDBItemName;
+
+/**
+ * versionもblobもないモデル
+ * 
+ * @author Takehito Tanabe (dateofrock at gmail dot com)
+ */
+@SimpleDBDomain(domainName = "SimpleDBMapper-Memo")
+public class Memo {
+
+	@SimpleDBItemName
+	public Long id;
+
+	@SimpleDBAttribute
+	public String text;
+
+	@SimpleDBAttribute
+	public Set<String> tags;
+
+	@SimpleDBAttribute
+	public Date createdAt;
+
+}